@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+import android.util.Size;
+import androidx.annotation.WorkerThread;
+import com.google.mlkit.vision.demo.BitmapUtils;
+import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.java.videoactivity.YuvToRgbConverter;
+import com.google.mlkit.vision.demo.video.ParallelYuvToRgbConverter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times the NV21 to bitmap converters of the app which need a device on frames of common video
+ * sizes: {@link BitmapUtils#getBitmap(ByteBuffer, FrameMetadata)} and the RenderScript {@link
+ * YuvToRgbConverter}, next to {@link ParallelYuvToRgbConverter} as the reference they are compared
+ * with. These convert into a {@link Bitmap}, so the loop is timed by hand here.
+ *
+ * <p>The plain Java conversions, including {@code ScalingFrameConverter}, are compared with JMH in
+ * the unit tests, see {@code FrameConverterBenchmark}.
+ */
+public final class ConverterBenchmark {
+
+  private static final Size[] FRAME_SIZES = {
+    new Size(640, 480), new Size(1280, 720), new Size(1920, 1080)
+  };
+  // Lets the JIT compile the conversion before it is timed.
+  private static final int WARM_UP_ITERATIONS = 10;
+  private static final int ITERATIONS = 50;
+
+  /** Converts an NV21 frame into an upright bitmap of its size. */
+  private interface Conversion {
+    void convert(byte[] nv21, int width, int height, Bitmap output);
+  }
+
+  private ConverterBenchmark() {}
+
+  /** Returns the conversion latencies of every converter at every frame size, one per line. */
+  @WorkerThread
+  public static String run(Context context) {
+    StringBuilder report = new StringBuilder();
+    ParallelYuvToRgbConverter parallelConverter = new ParallelYuvToRgbConverter();
+    for (Size size : FRAME_SIZES) {
+      int width = size.getWidth();
+      int height = size.getHeight();
+      byte[] nv21 = createGradientFrame(width, height);
+      Bitmap output = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+      FrameMetadata frameMetadata =
+          new FrameMetadata.Builder().setWidth(width).setHeight(height).setRotation(0).build();
+
+      appendResult(
+          report,
+          "BitmapUtils",
+          size,
+          measure(
+              (data, w, h, bitmap) -> BitmapUtils.getBitmap(ByteBuffer.wrap(data), frameMetadata),
+              nv21,
+              width,
+              height,
+              output));
+      appendResult(
+          report,
+          "Parallel Java",
+          size,
+          measure(
+              (data, w, h, bitmap) -> parallelConverter.yuvToRgb(data, w, h, 0, bitmap),
+              nv21,
+              width,
+              height,
+              output));
+      // The RenderScript allocations are sized by the first frame.
+      YuvToRgbConverter renderScriptConverter = new YuvToRgbConverter(context);
+      try {
+        appendResult(
+            report,
+            "RenderScript",
+            size,
+            measure(
+                (data, w, h, bitmap) ->
+                    renderScriptConverter.yuvToRgb(data, bitmap, ImageFormat.NV21),
+                nv21,
+                width,
+                height,
+                output));
+      } finally {
+        renderScriptConverter.release();
+      }
+      output.recycle();
+    }
+    return report.toString();
+  }
+
+  /** Creates an NV21 frame with a diagonal luma gradient and neutral chroma. */
+  private static byte[] createGradientFrame(int width, int height) {
+    int lumaSize = width * height;
+    byte[] nv21 = new byte[lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        nv21[y * width + x] = (byte) ((x * 255 / width + y * 255 / height) / 2);
+      }
+    }
+    Arrays.fill(nv21, lumaSize, nv21.length, (byte) 128);
+    return nv21;
+  }
+
+  private static LatencyHistogram.Snapshot measure(
+      Conversion conversion, byte[] nv21, int width, int height, Bitmap output) {
+    for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+      conversion.convert(nv21, width, height, output);
+    }
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < ITERATIONS; i++) {
+      long startNs = SystemClock.elapsedRealtimeNanos();
+      conversion.convert(nv21, width, height, output);
+      histogram.recordNanos(startNs, SystemClock.elapsedRealtimeNanos());
+    }
+    return histogram.snapshot();
+  }
+
+  private static void appendResult(
+      StringBuilder report, String converter, Size size, LatencyHistogram.Snapshot latency) {
+    report.append(
+        String.format(
+            Locale.US,
+            "%s %dx%d: p50=%.1f ms, p90=%.1f ms\n",
+            converter,
+            size.getWidth(),
+            size.getHeight(),
+            latency.getP50Us() / 1000f,
+            latency.getP90Us() / 1000f));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.TextView;
+import androidx.appcompat.app.AppCompatActivity;
+import com.google.mlkit.vision.demo.R;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares the frame converters with {@link ConverterBenchmark}, and the YUV_420_888 plane layouts
+ * with {@link PlaneUnpackBenchmark}, and shows the reports. The reports are also logged.
+ *
+ * <p>The converters timed here need Android classes, i.e. RenderScript and bitmaps, and the plane
+ * layouts are timed on the ART runtime of the devices which deliver them, so both run on a device.
+ * The plain Java converters are compared with JMH in the unit tests, see {@code
+ * FrameConverterBenchmark}.
+ *
+ * <p>The activity is only part of debug builds and is not listed in the app. Start it with {@code
+ * adb shell am start -n com.google.mlkit.vision.demo/.java.benchmark.ConverterBenchmarkActivity}.
+ */
+public final class ConverterBenchmarkActivity extends AppCompatActivity {
+
+  private static final String TAG = "ConverterBenchmark";
+
+  private final ExecutorService benchmarkExecutor = Executors.newSingleThreadExecutor();
+
+  private TextView reportView;
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setContentView(R.layout.activity_converter_benchmark);
+    reportView = findViewById(R.id.benchmark_report);
+
+    benchmarkExecutor.execute(this::runBenchmarks);
+  }
+
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    benchmarkExecutor.shutdownNow();
+  }
+
+  private void runBenchmarks() {
+    showReport("Frame conversion", ConverterBenchmark.run(this));
+    showReport("Plane unpacking", PlaneUnpackBenchmark.run());
+    runOnUiThread(() -> reportView.append(getString(R.string.benchmark_finished)));
+  }
+
+  private void showReport(String name, Object report) {
+    Log.i(TAG, name + "\n" + report);
+    runOnUiThread(() -> reportView.append(name + "\n" + report + "\n\n"));
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.os.SystemClock;
+import android.util.Size;
+import androidx.annotation.WorkerThread;
+import com.google.mlkit.vision.demo.BitmapUtils;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Times {@link BitmapUtils#yuv420ToNv21} on the YUV_420_888 plane layouts cameras typically
+ * deliver: interleaved VU chroma with padded rows as on Qualcomm devices, interleaved UV chroma as
+ * on many Exynos devices, planar chroma as on many MediaTek devices, and separate pixel stride 2
+ * planes, which take the general path.
+ *
+ * <p>The planes are laid out in direct buffers, like the planes of an {@link android.media.Image}.
+ */
+public final class PlaneUnpackBenchmark {
+
+  private static final Size[] FRAME_SIZES = {new Size(1280, 720), new Size(1920, 1080)};
+  // Lets the JIT compile the copy before it is timed.
+  private static final int WARM_UP_ITERATIONS = 10;
+  private static final int ITERATIONS = 50;
+
+  /** How the chroma planes are laid out. */
+  private enum ChromaLayout {
+    INTERLEAVED_VU,
+    INTERLEAVED_UV,
+    PLANAR,
+    SEPARATE_PIXEL_STRIDE_2
+  }
+
+  private static final class Layout {
+    private final String name;
+    private final ChromaLayout chromaLayout;
+    // Row strides are rounded up to a multiple of this.
+    private final int rowStrideAlignment;
+
+    private Layout(String name, ChromaLayout chromaLayout, int rowStrideAlignment) {
+      this.name = name;
+      this.chromaLayout = chromaLayout;
+      this.rowStrideAlignment = rowStrideAlignment;
+    }
+  }
+
+  private static final Layout[] LAYOUTS = {
+    new Layout("Qualcomm (NV21, 128 byte rows)", ChromaLayout.INTERLEAVED_VU, 128),
+    new Layout("Exynos (NV12, 64 byte rows)", ChromaLayout.INTERLEAVED_UV, 64),
+    new Layout("MediaTek (I420, unpadded)", ChromaLayout.PLANAR, 1),
+    new Layout("Separate planes, pixel stride 2", ChromaLayout.SEPARATE_PIXEL_STRIDE_2, 1),
+  };
+
+  /** The planes of a synthetic frame. */
+  private static final class Planes {
+    private ByteBuffer y;
+    private ByteBuffer u;
+    private ByteBuffer v;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+  }
+
+  private PlaneUnpackBenchmark() {}
+
+  /** Returns the copy latencies of every plane layout at every frame size, one per line. */
+  @WorkerThread
+  public static String run() {
+    StringBuilder report = new StringBuilder();
+    Random random = new Random(/* seed= */ 0);
+    for (Size size : FRAME_SIZES) {
+      int width = size.getWidth();
+      int height = size.getHeight();
+      byte[] out = new byte[width * height * 3 / 2];
+      for (Layout layout : LAYOUTS) {
+        Planes planes = createPlanes(layout, width, height, random);
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+          unpack(planes, width, height, out);
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < ITERATIONS; i++) {
+          long startNs = SystemClock.elapsedRealtimeNanos();
+          unpack(planes, width, height, out);
+          histogram.recordNanos(startNs, SystemClock.elapsedRealtimeNanos());
+        }
+        LatencyHistogram.Snapshot latency = histogram.snapshot();
+        report.append(
+            String.format(
+                Locale.US,
+                "%s %dx%d: p50=%.2f ms, p90=%.2f ms\n",
+                layout.name,
+                width,
+                height,
+                latency.getP50Us() / 1000f,
+                latency.getP90Us() / 1000f));
+      }
+    }
+    return report.toString();
+  }
+
+  private static void unpack(Planes planes, int width, int height, byte[] out) {
+    BitmapUtils.yuv420ToNv21(
+        planes.y,
+        planes.yRowStride,
+        planes.u,
+        planes.v,
+        planes.uvRowStride,
+        planes.uvPixelStride,
+        width,
+        height,
+        out);
+  }
+
+  private static Planes createPlanes(Layout layout, int width, int height, Random random) {
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    Planes planes = new Planes();
+    planes.yRowStride = align(width, layout.rowStrideAlignment);
+    // Like camera planes, every buffer ends right after the last pixel of its last row.
+    planes.y = createDirectBuffer((height - 1) * planes.yRowStride + width, random);
+
+    switch (layout.chromaLayout) {
+      case INTERLEAVED_VU:
+      case INTERLEAVED_UV:
+        planes.uvPixelStride = 2;
+        planes.uvRowStride = planes.yRowStride;
+        int planeSize = (chromaHeight - 1) * planes.uvRowStride + 2 * chromaWidth - 1;
+        ByteBuffer chroma = createDirectBuffer(planeSize + 1, random);
+        ByteBuffer first = slice(chroma, 0, planeSize);
+        ByteBuffer second = slice(chroma, 1, planeSize);
+        boolean isVu = layout.chromaLayout == ChromaLayout.INTERLEAVED_VU;
+        planes.v = isVu ? first : second;
+        planes.u = isVu ? second : first;
+        break;
+      case PLANAR:
+        planes.uvPixelStride = 1;
+        planes.uvRowStride = align(chromaWidth, layout.rowStrideAlignment);
+        int planarPlaneSize = (chromaHeight - 1) * planes.uvRowStride + chromaWidth;
+        planes.u = createDirectBuffer(planarPlaneSize, random);
+        planes.v = createDirectBuffer(planarPlaneSize, random);
+        break;
+      case SEPARATE_PIXEL_STRIDE_2:
+        planes.uvPixelStride = 2;
+        planes.uvRowStride = align(2 * chromaWidth, layout.rowStrideAlignment);
+        int separatePlaneSize = (chromaHeight - 1) * planes.uvRowStride + 2 * chromaWidth - 1;
+        planes.u = createDirectBuffer(separatePlaneSize, random);
+        planes.v = createDirectBuffer(separatePlaneSize, random);
+        break;
+    }
+    return planes;
+  }
+
+  private static ByteBuffer createDirectBuffer(int size, Random random) {
+    byte[] data = new byte[size];
+    random.nextBytes(data);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+    buffer.put(data);
+    buffer.rewind();
+    return buffer;
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int offset, int size) {
+    ByteBuffer duplicate = buffer.duplicate();
+    duplicate.position(offset);
+    duplicate.limit(offset + size);
+    return duplicate.slice();
+  }
+
+  private static int align(int value, int alignment) {
+    return (value + alignment - 1) / alignment * alignment;
+  }
+}
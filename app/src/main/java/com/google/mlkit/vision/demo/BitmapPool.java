@@ -0,0 +1,197 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide pool of mutable bitmaps, so that every frame does not allocate a new bitmap for the
+ * preview and the video frames.
+ *
+ * <p>Bitmaps are bucketed by width, height and config. {@link #acquire} hands out a free bitmap of
+ * the bucket, or creates one if the bucket is empty, and {@link #release} returns it once the frame
+ * it holds has been processed and is no longer drawn. The content of an acquired bitmap is
+ * undefined. Free bitmaps are kept in least recently used order and dropped when their size
+ * exceeds the budget, or when the system asks to trim memory. Bitmaps which are never released are
+ * simply collected by the garbage collector.
+ *
+ * <p>Dropped bitmaps are not recycled, since a view may still hold on to a bitmap it drew last.
+ */
+public final class BitmapPool implements ComponentCallbacks2 {
+
+  private static final String TAG = "BitmapPool";
+  // Share of the app's memory class the pool may fill with free bitmaps.
+  private static final int MEMORY_CLASS_DIVISOR = 8;
+
+  @Nullable private static BitmapPool instance;
+
+  private final long budgetBytes;
+
+  // Access ordered, so that iteration starts at the least recently used bucket.
+  @GuardedBy("this")
+  private final LinkedHashMap<Key, ArrayDeque<Bitmap>> freeBitmaps =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private long freeBytes;
+
+  private BitmapPool(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Returns the pool, creating it with a budget derived from the memory class of the app. */
+  public static synchronized BitmapPool getInstance(Context context) {
+    if (instance == null) {
+      Context applicationContext = context.getApplicationContext();
+      ActivityManager activityManager =
+          (ActivityManager) applicationContext.getSystemService(Context.ACTIVITY_SERVICE);
+      long budgetBytes = activityManager.getMemoryClass() * 1024L * 1024L / MEMORY_CLASS_DIVISOR;
+      instance = new BitmapPool(budgetBytes);
+      applicationContext.registerComponentCallbacks(instance);
+    }
+    return instance;
+  }
+
+  /** Returns a mutable bitmap of the given size and config, reusing a free one if possible. */
+  public Bitmap acquire(int width, int height, Bitmap.Config config) {
+    Key key = new Key(width, height, config);
+    synchronized (this) {
+      ArrayDeque<Bitmap> bucket = freeBitmaps.get(key);
+      if (bucket != null) {
+        Bitmap bitmap = bucket.poll();
+        if (bucket.isEmpty()) {
+          freeBitmaps.remove(key);
+        }
+        if (bitmap != null) {
+          freeBytes -= bitmap.getAllocationByteCount();
+          return bitmap;
+        }
+      }
+    }
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Gives {@code bitmap} to the pool. The caller must not use it afterwards. Immutable and recycled
+   * bitmaps are ignored.
+   */
+  public void release(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    Key key = new Key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+    synchronized (this) {
+      ArrayDeque<Bitmap> bucket = freeBitmaps.get(key);
+      if (bucket == null) {
+        bucket = new ArrayDeque<>();
+        freeBitmaps.put(key, bucket);
+      }
+      bucket.push(bitmap);
+      freeBytes += bitmap.getAllocationByteCount();
+      trimToSize(budgetBytes);
+    }
+  }
+
+  /** Drops all free bitmaps. */
+  public synchronized void clear() {
+    trimToSize(/* targetBytes= */ 0);
+  }
+
+  /**
+   * Drops free bitmaps, least recently used buckets first, until at most {@code targetBytes} are
+   * kept.
+   */
+  @GuardedBy("this")
+  private void trimToSize(long targetBytes) {
+    Iterator<Map.Entry<Key, ArrayDeque<Bitmap>>> iterator = freeBitmaps.entrySet().iterator();
+    while (freeBytes > targetBytes && iterator.hasNext()) {
+      Map.Entry<Key, ArrayDeque<Bitmap>> entry = iterator.next();
+      ArrayDeque<Bitmap> bucket = entry.getValue();
+      while (freeBytes > targetBytes && !bucket.isEmpty()) {
+        freeBytes -= bucket.pollLast().getAllocationByteCount();
+      }
+      if (bucket.isEmpty()) {
+        iterator.remove();
+        Log.d(TAG, "Dropped bitmaps of " + entry.getKey());
+      }
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    synchronized (this) {
+      if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+        trimToSize(/* targetBytes= */ 0);
+      } else {
+        trimToSize(budgetBytes / 2);
+      }
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    clear();
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+  private static final class Key {
+    private final int width;
+    private final int height;
+    private final Bitmap.Config config;
+
+    private Key(int width, int height, Bitmap.Config config) {
+      this.width = width;
+      this.height = height;
+      this.config = config;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return width == other.width && height == other.height && config == other.config;
+    }
+
+    @Override
+    public int hashCode() {
+      return (width * 31 + height) * 31 + config.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return width + "x" + height + " " + config;
+    }
+  }
+}
@@ -19,15 +19,13 @@ package com.google.mlkit.vision.demo;
 import android.annotation.TargetApi;
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
 import android.os.Build.VERSION_CODES;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
@@ -35,7 +33,6 @@ import android.util.Log;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import androidx.exifinterface.media.ExifInterface;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
@@ -44,44 +41,261 @@ import java.nio.ByteBuffer;
 public class BitmapUtils {
   private static final String TAG = "BitmapUtils";
 
-  /** Converts NV21 format byte buffer to bitmap. */
+  /** How the U and V planes of a pixel stride 2 image share their buffer. */
+  private enum SemiPlanarOrder {
+    // V comes first, as in NV21.
+    VU,
+    // U comes first, as in NV12.
+    UV,
+    // The planes are separate, or they could not be told apart.
+    NOT_INTERLEAVED
+  }
+
+  /** Buffers reused by the plane copies of a thread, and the last chroma layout it found. */
+  private static final class PlaneScratch {
+    private byte[] u = new byte[0];
+    private byte[] v = new byte[0];
+    // Geometry of the chroma planes semiPlanarOrder was decided for, see getSemiPlanarOrder.
+    private int rowStride = -1;
+    private int chromaWidth;
+    private int chromaHeight;
+    private int uCapacity;
+    private int vCapacity;
+    @Nullable private SemiPlanarOrder semiPlanarOrder;
+  }
+
+  private static final ThreadLocal<PlaneScratch> PLANE_SCRATCH =
+      new ThreadLocal<PlaneScratch>() {
+        @Override
+        protected PlaneScratch initialValue() {
+          return new PlaneScratch();
+        }
+      };
+
+  /** Converts NV21 format byte buffer to an upright bitmap. */
   @Nullable
   public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
+    return getBitmap(data, metadata, /* bitmapPool= */ null);
+  }
+
+  /**
+   * Converts NV21 format byte buffer to an upright bitmap taken from {@code bitmapPool}, or a new
+   * bitmap if it is null.
+   */
+  @Nullable
+  public static Bitmap getBitmap(
+      ByteBuffer data, FrameMetadata metadata, @Nullable BitmapPool bitmapPool) {
     data.rewind();
-    byte[] imageInBuffer = new byte[data.limit()];
-    data.get(imageInBuffer, 0, imageInBuffer.length);
-    try {
-      YuvImage image =
-          new YuvImage(
-              imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-      ByteArrayOutputStream stream = new ByteArrayOutputStream();
-      image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
-
-      Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
-
-      stream.close();
-      return rotateBitmap(bmp, metadata.getRotation(), false, false);
-    } catch (Exception e) {
-      Log.e("VisionProcessorBase", "Error: " + e.getMessage());
-    }
-    return null;
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    int rotation = metadata.getRotation();
+    Bitmap bitmap = createUprightBitmap(width, height, rotation, bitmapPool);
+    YuvToArgbConverter.nv21ToBitmap(data, width, height, rotation, /* mirror= */ false, bitmap);
+    return bitmap;
   }
 
-  /** Converts a YUV_420_888 image from CameraX API to a bitmap. */
+  /** Converts a YUV_420_888 image from CameraX API to an upright bitmap. */
   @RequiresApi(VERSION_CODES.KITKAT)
   @Nullable
   @ExperimentalGetImage
   public static Bitmap getBitmap(ImageProxy image) {
-    FrameMetadata frameMetadata =
-        new FrameMetadata.Builder()
-            .setWidth(image.getWidth())
-            .setHeight(image.getHeight())
-            .setRotation(image.getImageInfo().getRotationDegrees())
-            .build();
+    return getBitmap(image, /* bitmapPool= */ null);
+  }
+
+  /**
+   * Converts a YUV_420_888 image from CameraX API to an upright bitmap taken from {@code
+   * bitmapPool}, or a new bitmap if it is null.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @Nullable
+  @ExperimentalGetImage
+  public static Bitmap getBitmap(ImageProxy image, @Nullable BitmapPool bitmapPool) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int rotation = image.getImageInfo().getRotationDegrees();
+    Bitmap bitmap = createUprightBitmap(width, height, rotation, bitmapPool);
+    YuvToArgbConverter.yuv420888ToBitmap(
+        image.getImage().getPlanes(), width, height, rotation, /* mirror= */ false, bitmap);
+    return bitmap;
+  }
+
+  private static Bitmap createUprightBitmap(
+      int width, int height, int rotation, @Nullable BitmapPool bitmapPool) {
+    int uprightWidth = YuvToArgbConverter.getUprightWidth(width, height, rotation);
+    int uprightHeight = YuvToArgbConverter.getUprightHeight(width, height, rotation);
+    return bitmapPool != null
+        ? bitmapPool.acquire(uprightWidth, uprightHeight, Bitmap.Config.ARGB_8888)
+        : Bitmap.createBitmap(uprightWidth, uprightHeight, Bitmap.Config.ARGB_8888);
+  }
+
+  /** Copies the planes of a YUV_420_888 image from CameraX API into a NV21 bytebuffer. */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @ExperimentalGetImage
+  public static ByteBuffer getNv21Buffer(ImageProxy image) {
+    return getNv21Buffer(image, /* bufferPool= */ null);
+  }
+
+  /**
+   * Copies the planes of a YUV_420_888 image from CameraX API into a NV21 bytebuffer taken from
+   * {@code bufferPool}, or a new buffer if it is null. The caller owns the returned buffer and
+   * gives it back to the pool once it is done with it.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @ExperimentalGetImage
+  public static ByteBuffer getNv21Buffer(ImageProxy image, @Nullable ByteBufferPool bufferPool) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int imageSize = width * height;
+    int nv21Size = imageSize + 2 * (imageSize / 4);
+    ByteBuffer out =
+        bufferPool != null ? bufferPool.acquire(nv21Size) : ByteBuffer.allocate(nv21Size);
+    yuv420ThreePlanesToNV21(image.getImage().getPlanes(), width, height, out.array());
+    return out;
+  }
+
+  /** Describes an image from CameraX API which has just been delivered to the analyzer. */
+  public static FrameMetadata getFrameMetadata(ImageProxy image, long sequenceNumber) {
+    return new FrameMetadata.Builder()
+        .setWidth(image.getWidth())
+        .setHeight(image.getHeight())
+        .setRotation(image.getImageInfo().getRotationDegrees())
+        .setSequenceNumber(sequenceNumber)
+        .setCaptureTimeNs(SystemClock.elapsedRealtimeNanos())
+        .setPresentationTimeUs(image.getImageInfo().getTimestamp() / 1000)
+        .setSource(FrameMetadata.Source.CAMERAX)
+        .build();
+  }
+
+  /**
+   * Returns the region of an NV21 frame which can be cropped for {@code cropRect}, i.e. {@code
+   * cropRect} clamped to the frame and grown to even coordinates in the unrotated frame, as the
+   * chroma samples of NV21 cover 2x2 pixels. Both rectangles are in upright frame coordinates.
+   */
+  public static Rect getNv21CropRect(Rect cropRect, FrameMetadata metadata) {
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    Rect rect = toUnrotatedRect(cropRect, width, height, metadata.getRotation());
+    int evenWidth = width & ~1;
+    int evenHeight = height & ~1;
+    rect.set(
+        Math.max(0, rect.left & ~1),
+        Math.max(0, rect.top & ~1),
+        Math.min(evenWidth, (rect.right + 1) & ~1),
+        Math.min(evenHeight, (rect.bottom + 1) & ~1));
+    return toUprightRect(rect, width, height, metadata.getRotation());
+  }
+
+  /**
+   * Crops an NV21 frame to {@link FrameMetadata#getCropRect()}, which must have been aligned with
+   * {@link #getNv21CropRect}.
+   *
+   * <p>If {@code data} is backed by a writable array, the cropped frame is compacted to the start
+   * of that array, overwriting the original frame, and a view on it is returned. So the caller must
+   * own {@code data}. Otherwise the cropped frame is copied into a new buffer. The position and
+   * limit of {@code data} are not changed.
+   */
+  public static ByteBuffer cropNv21(ByteBuffer data, FrameMetadata metadata) {
+    if (metadata.getCropRect() == null) {
+      return data;
+    }
+    boolean inPlace = data.hasArray() && !data.isReadOnly();
+    ByteBuffer cropped =
+        inPlace ? data.duplicate() : ByteBuffer.allocate(getCroppedNv21Size(metadata));
+    return cropNv21(data, metadata, cropped, inPlace);
+  }
+
+  /**
+   * Copies the part of an NV21 frame inside {@link FrameMetadata#getCropRect()}, which must have
+   * been aligned with {@link #getNv21CropRect}, into a buffer acquired from {@code pool}. Unlike
+   * {@link #cropNv21(ByteBuffer, FrameMetadata)}, {@code data} is never written to. The caller
+   * releases the returned buffer to {@code pool}, unless there is no crop rect and {@code data}
+   * itself is returned.
+   */
+  public static ByteBuffer cropNv21(ByteBuffer data, FrameMetadata metadata, ByteBufferPool pool) {
+    if (metadata.getCropRect() == null) {
+      return data;
+    }
+    ByteBuffer cropped = pool.acquire(getCroppedNv21Size(metadata));
+    return cropNv21(data, metadata, cropped, /* inPlace= */ false);
+  }
+
+  private static int getCroppedNv21Size(FrameMetadata metadata) {
+    Rect cropRect = metadata.getCropRect();
+    return cropRect.width() * cropRect.height() * 3 / 2;
+  }
+
+  private static ByteBuffer cropNv21(
+      ByteBuffer data, FrameMetadata metadata, ByteBuffer cropped, boolean inPlace) {
+    int width = metadata.getWidth();
+    int height = metadata.getHeight();
+    Rect rect = toUnrotatedRect(metadata.getCropRect(), width, height, metadata.getRotation());
+    int cropWidth = rect.width();
+    int croppedSize = getCroppedNv21Size(metadata);
+
+    byte[] out = cropped.array();
+    int outPosition = cropped.arrayOffset();
+    ByteBuffer source = data.duplicate();
+
+    // Rows are copied front to back. Every row moves towards the start of the buffer, so copying in
+    // place never overwrites a row which has not been copied yet.
+    int vuStart = width * height;
+    for (int row = rect.top; row < rect.bottom; row++) {
+      copyRow(source, row * width + rect.left, out, outPosition, cropWidth, inPlace);
+      outPosition += cropWidth;
+    }
+    for (int row = rect.top / 2; row < rect.bottom / 2; row++) {
+      copyRow(source, vuStart + row * width + rect.left, out, outPosition, cropWidth, inPlace);
+      outPosition += cropWidth;
+    }
+
+    cropped.clear();
+    cropped.limit(croppedSize);
+    return cropped;
+  }
+
+  private static void copyRow(
+      ByteBuffer source,
+      int sourceIndex,
+      byte[] out,
+      int outPosition,
+      int length,
+      boolean inPlace) {
+    if (inPlace) {
+      System.arraycopy(out, source.arrayOffset() + sourceIndex, out, outPosition, length);
+    } else {
+      source.position(sourceIndex);
+      source.get(out, outPosition, length);
+    }
+  }
+
+  /** Maps a rectangle of the upright frame to the frame as stored, before its rotation. */
+  private static Rect toUnrotatedRect(Rect rect, int width, int height, int rotationDegrees) {
+    switch (rotationDegrees) {
+      case 90:
+        return new Rect(rect.top, height - rect.right, rect.bottom, height - rect.left);
+      case 180:
+        return new Rect(
+            width - rect.right, height - rect.bottom, width - rect.left, height - rect.top);
+      case 270:
+        return new Rect(width - rect.bottom, rect.left, width - rect.top, rect.right);
+      default:
+        return new Rect(rect);
+    }
+  }
 
-    ByteBuffer nv21Buffer =
-        yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-    return getBitmap(nv21Buffer, frameMetadata);
+  /** Maps a rectangle of the frame as stored to the upright frame. */
+  private static Rect toUprightRect(Rect rect, int width, int height, int rotationDegrees) {
+    switch (rotationDegrees) {
+      case 90:
+        return new Rect(height - rect.bottom, rect.left, height - rect.top, rect.right);
+      case 180:
+        return new Rect(
+            width - rect.right, height - rect.bottom, width - rect.left, height - rect.top);
+      case 270:
+        return new Rect(rect.top, width - rect.right, rect.bottom, width - rect.left);
+      default:
+        return new Rect(rect);
+    }
   }
 
   /** Rotates a bitmap if it is converted from a bytebuffer. */
@@ -176,7 +390,7 @@ public class BitmapUtils {
   }
 
   /**
-   * Converts YUV_420_888 to NV21 bytebuffer.
+   * Converts YUV_420_888 to NV21, written into {@code out}.
    *
    * <p>The NV21 format consists of a single byte array containing the Y, U and V values. For an
    * image of size S, the first S positions of the array contain all the Y values. The remaining
@@ -186,101 +400,315 @@ public class BitmapUtils {
    *
    * <p>YUV_420_888 is a generic format that can describe any YUV image where U and V are subsampled
    * by a factor of 2 in both dimensions. {@link Image#getPlanes} returns an array with the Y, U and
-   * V planes. The Y plane is guaranteed not to be interleaved, so we can just copy its values into
-   * the first part of the NV21 array. The U and V planes may already have the representation in the
-   * NV21 format. This happens if the planes share the same buffer, the V buffer is one position
-   * before the U buffer and the planes have a pixelStride of 2. If this is case, we can just copy
-   * them to the NV21 array.
+   * V planes, see {@link #yuv420ToNv21} for how they are unpacked.
    */
   @RequiresApi(VERSION_CODES.KITKAT)
-  private static ByteBuffer yuv420ThreePlanesToNV21(
-      Plane[] yuv420888planes, int width, int height) {
+  private static void yuv420ThreePlanesToNV21(
+      Plane[] yuv420888planes, int width, int height, byte[] out) {
+    // YUV_420_888 guarantees a pixel stride of 1 for Y, and the same strides for U and V.
+    yuv420ToNv21(
+        yuv420888planes[0].getBuffer(),
+        yuv420888planes[0].getRowStride(),
+        yuv420888planes[1].getBuffer(),
+        yuv420888planes[2].getBuffer(),
+        yuv420888planes[1].getRowStride(),
+        yuv420888planes[1].getPixelStride(),
+        width,
+        height,
+        out);
+  }
+
+  /**
+   * Copies a YUV 4:2:0 image, given by the buffers and strides of its planes, into {@code out} in
+   * NV21 layout. Each plane starts at index 0 of its buffer, whose position is left unchanged.
+   *
+   * <p>The geometry of the planes follows from the image size and the strides alone, and only the
+   * bytes of the pixels are read, so rows may be padded and a plane may end right after its last
+   * pixel. Planes are read with bulk copies:
+   *
+   * <ul>
+   *   <li>The Y plane is copied at once, or row by row if its rows are padded.
+   *   <li>Semi-planar chroma, pixel stride 2 with U and V interleaved in one buffer, is copied at
+   *       once, or row by row if padded, from whichever buffer starts first. If that is U, i.e.
+   *       NV12, the bytes are swapped in place afterwards.
+   *   <li>Planar chroma, pixel stride 1, is copied plane by plane and interleaved.
+   *   <li>Anything else, including pixel stride 2 planes which are not interleaved with each
+   *       other, is copied plane by plane and picked apart by its strides.
+   * </ul>
+   */
+  public static void yuv420ToNv21(
+      ByteBuffer y,
+      int yRowStride,
+      ByteBuffer u,
+      ByteBuffer v,
+      int uvRowStride,
+      int uvPixelStride,
+      int width,
+      int height,
+      byte[] out) {
+    copyRows(y, yRowStride, width, height, out, /* offset= */ 0);
+
     int imageSize = width * height;
-    byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
-
-    if (areUVPlanesNV21(yuv420888planes, width, height)) {
-      // Copy the Y values.
-      yuv420888planes[0].getBuffer().get(out, 0, imageSize);
-
-      ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-      ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
-      // Get the first V value from the V buffer, since the U buffer does not contain it.
-      vBuffer.get(out, imageSize, 1);
-      // Copy the first U value and the remaining VU values from the U buffer.
-      uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+    int chromaWidth = width / 2;
+    int chromaHeight = height / 2;
+    if (chromaWidth == 0 || chromaHeight == 0) {
+      return;
+    }
+    PlaneScratch scratch = PLANE_SCRATCH.get();
+    if (uvPixelStride == 2) {
+      switch (getSemiPlanarOrder(u, v, uvRowStride, chromaWidth, chromaHeight, scratch)) {
+        case VU:
+          copyInterleavedRows(v, u, uvRowStride, chromaWidth, chromaHeight, out, imageSize);
+          return;
+        case UV:
+          copyInterleavedRows(u, v, uvRowStride, chromaWidth, chromaHeight, out, imageSize);
+          swapPairs(out, imageSize, 2 * chromaWidth * chromaHeight);
+          return;
+        case NOT_INTERLEAVED:
+          break;
+      }
+    }
+    scratch.u = copyPlane(u, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, scratch.u);
+    scratch.v = copyPlane(v, uvRowStride, uvPixelStride, chromaWidth, chromaHeight, scratch.v);
+    if (uvPixelStride == 1) {
+      interleaveRows(scratch.u, scratch.v, uvRowStride, chromaWidth, chromaHeight, out, imageSize);
     } else {
-      // Fallback to copying the UV values one by one, which is slower but also works.
-      // Unpack Y.
-      unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-      // Unpack U.
-      unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-      // Unpack V.
-      unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+      interleaveStridedRows(
+          scratch.u,
+          scratch.v,
+          uvRowStride,
+          uvPixelStride,
+          chromaWidth,
+          chromaHeight,
+          out,
+          imageSize);
     }
+  }
 
-    return ByteBuffer.wrap(out);
+  /**
+   * Tells whether two pixel stride 2 planes are interleaved in one buffer, and in which order.
+   *
+   * <p>The layout is decided once per geometry of the planes, see {@link #decideSemiPlanarOrder},
+   * and remembered by the calling thread. As a different producer may hand in planes of the same
+   * geometry, an interleaved layout is checked against the first and the last byte pair of every
+   * frame, and decided again if they do not match.
+   */
+  private static SemiPlanarOrder getSemiPlanarOrder(
+      ByteBuffer u,
+      ByteBuffer v,
+      int rowStride,
+      int chromaWidth,
+      int chromaHeight,
+      PlaneScratch scratch) {
+    int planeSize = (chromaHeight - 1) * rowStride + 2 * chromaWidth - 1;
+    if (u.limit() < planeSize || v.limit() < planeSize) {
+      return SemiPlanarOrder.NOT_INTERLEAVED;
+    }
+    SemiPlanarOrder order = scratch.semiPlanarOrder;
+    boolean isSameGeometry =
+        scratch.rowStride == rowStride
+            && scratch.chromaWidth == chromaWidth
+            && scratch.chromaHeight == chromaHeight
+            && scratch.uCapacity == u.capacity()
+            && scratch.vCapacity == v.capacity();
+    if (order != null && isSameGeometry && matchesEnds(order, u, v, planeSize)) {
+      return order;
+    }
+    order = decideSemiPlanarOrder(u, v, rowStride, chromaWidth, chromaHeight);
+    scratch.rowStride = rowStride;
+    scratch.chromaWidth = chromaWidth;
+    scratch.chromaHeight = chromaHeight;
+    scratch.uCapacity = u.capacity();
+    scratch.vCapacity = v.capacity();
+    scratch.semiPlanarOrder = order;
+    if (order == null) {
+      // Not decided, the planes are copied separately for now, which is always correct.
+      return SemiPlanarOrder.NOT_INTERLEAVED;
+    }
+    return order;
   }
 
-  /** Checks if the UV plane buffers of a YUV_420_888 image are in the NV21 format. */
-  @RequiresApi(VERSION_CODES.KITKAT)
-  private static boolean areUVPlanesNV21(Plane[] planes, int width, int height) {
-    int imageSize = width * height;
+  /**
+   * Tells whether the first and the last byte pair of two planes of {@code planeSize} bytes agree
+   * with the given layout.
+   */
+  private static boolean matchesEnds(
+      SemiPlanarOrder order, ByteBuffer u, ByteBuffer v, int planeSize) {
+    int last = planeSize - 2;
+    switch (order) {
+      case VU:
+        return v.get(1) == u.get(0) && v.get(last + 1) == u.get(last);
+      case UV:
+        return u.get(1) == v.get(0) && u.get(last + 1) == v.get(last);
+      default:
+        return true;
+    }
+  }
 
-    ByteBuffer uBuffer = planes[1].getBuffer();
-    ByteBuffer vBuffer = planes[2].getBuffer();
+  /**
+   * Finds out how two pixel stride 2 planes share their memory, or returns null if that can not be
+   * decided from this frame.
+   *
+   * <p>Java does not expose the addresses of direct buffers. If both planes are writable, a marker
+   * is written into the first byte of one plane and looked for one position further in the other,
+   * which is exact; the byte is restored right away. Read-only planes, e.g. those of a decoder
+   * output image, are interleaved if the capacity of one exceeds that of the other by one byte, as
+   * both end with the last chroma sample. This is confirmed by comparing the first and the last row
+   * of both planes, and left undecided if they look the same either way, e.g. for a uniformly gray
+   * frame.
+   */
+  @Nullable
+  private static SemiPlanarOrder decideSemiPlanarOrder(
+      ByteBuffer u, ByteBuffer v, int rowStride, int chromaWidth, int chromaHeight) {
+    if (!u.isReadOnly() && !v.isReadOnly()) {
+      if (isMarkerVisible(u, v)) {
+        return SemiPlanarOrder.VU;
+      }
+      return isMarkerVisible(v, u) ? SemiPlanarOrder.UV : SemiPlanarOrder.NOT_INTERLEAVED;
+    }
 
-    // Backup buffer properties.
-    int vBufferPosition = vBuffer.position();
-    int uBufferLimit = uBuffer.limit();
+    SemiPlanarOrder candidate;
+    if (v.capacity() == u.capacity() + 1) {
+      candidate = SemiPlanarOrder.VU;
+    } else if (u.capacity() == v.capacity() + 1) {
+      candidate = SemiPlanarOrder.UV;
+    } else {
+      return SemiPlanarOrder.NOT_INTERLEAVED;
+    }
+    boolean isVu = true;
+    boolean isUv = true;
+    for (int row = 0; row < chromaHeight && (isVu || isUv); row += Math.max(chromaHeight - 1, 1)) {
+      int rowEnd = row * rowStride + 2 * chromaWidth - 2;
+      for (int i = row * rowStride; i < rowEnd && (isVu || isUv); i++) {
+        isVu &= v.get(i + 1) == u.get(i);
+        isUv &= u.get(i + 1) == v.get(i);
+      }
+    }
+    if (isVu == isUv) {
+      return isVu ? null : SemiPlanarOrder.NOT_INTERLEAVED;
+    }
+    SemiPlanarOrder order = isVu ? SemiPlanarOrder.VU : SemiPlanarOrder.UV;
+    return order == candidate ? order : SemiPlanarOrder.NOT_INTERLEAVED;
+  }
 
-    // Advance the V buffer by 1 byte, since the U buffer will not contain the first V value.
-    vBuffer.position(vBufferPosition + 1);
-    // Chop off the last byte of the U buffer, since the V buffer will not contain the last U value.
-    uBuffer.limit(uBufferLimit - 1);
+  /**
+   * Writes a marker into the first byte of {@code first} and tells whether it shows up as the
+   * second byte of {@code second}, i.e. whether {@code second} starts one byte earlier in the same
+   * memory. The first byte is restored.
+   */
+  private static boolean isMarkerVisible(ByteBuffer first, ByteBuffer second) {
+    byte original = first.get(0);
+    byte marker = (byte) ~second.get(1);
+    first.put(0, marker);
+    boolean isVisible = second.get(1) == marker;
+    first.put(0, original);
+    return isVisible;
+  }
 
-    // Check that the buffers are equal and have the expected number of elements.
-    boolean areNV21 =
-        (vBuffer.remaining() == (2 * imageSize / 4 - 2)) && (vBuffer.compareTo(uBuffer) == 0);
+  /** Copies {@code height} rows of {@code width} bytes from {@code buffer} into {@code out}. */
+  private static void copyRows(
+      ByteBuffer buffer, int rowStride, int width, int height, byte[] out, int offset) {
+    ByteBuffer source = buffer.duplicate();
+    source.rewind();
+    if (rowStride == width) {
+      source.get(out, offset, width * height);
+      return;
+    }
+    for (int row = 0; row < height; row++) {
+      source.position(row * rowStride);
+      source.get(out, offset + row * width, width);
+    }
+  }
 
-    // Restore buffers to their initial state.
-    vBuffer.position(vBufferPosition);
-    uBuffer.limit(uBufferLimit);
+  /**
+   * Copies semi-planar chroma rows from the plane which starts first. Its buffer ends one byte
+   * before the last sample of the other plane, which is taken from {@code second}.
+   */
+  private static void copyInterleavedRows(
+      ByteBuffer first,
+      ByteBuffer second,
+      int rowStride,
+      int chromaWidth,
+      int chromaHeight,
+      byte[] out,
+      int offset) {
+    int rowBytes = 2 * chromaWidth;
+    int lastRowStart = (chromaHeight - 1) * rowStride;
+    ByteBuffer source = first.duplicate();
+    source.rewind();
+    if (rowStride == rowBytes) {
+      source.get(out, offset, chromaHeight * rowBytes - 1);
+    } else {
+      for (int row = 0; row < chromaHeight - 1; row++) {
+        source.position(row * rowStride);
+        source.get(out, offset + row * rowBytes, rowBytes);
+      }
+      source.position(lastRowStart);
+      source.get(out, offset + (chromaHeight - 1) * rowBytes, rowBytes - 1);
+    }
+    out[offset + chromaHeight * rowBytes - 1] = second.get(lastRowStart + rowBytes - 2);
+  }
 
-    return areNV21;
+  /** Swaps every two bytes, turning interleaved UV into VU. */
+  private static void swapPairs(byte[] data, int offset, int length) {
+    for (int i = offset; i < offset + length; i += 2) {
+      byte first = data[i];
+      data[i] = data[i + 1];
+      data[i + 1] = first;
+    }
   }
 
   /**
-   * Unpack an image plane into a byte array.
-   *
-   * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
-   * spaced by 'pixelStride'. Note that there is no row padding on the output.
+   * Copies the bytes covering the samples of a plane into {@code scratch}, growing it if needed,
+   * and returns the array holding them.
    */
-  @TargetApi(VERSION_CODES.KITKAT)
-  private static void unpackPlane(
-      Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-    ByteBuffer buffer = plane.getBuffer();
-    buffer.rewind();
-
-    // Compute the size of the current plane.
-    // We assume that it has the aspect ratio as the original image.
-    int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-    if (numRow == 0) {
-      return;
+  private static byte[] copyPlane(
+      ByteBuffer buffer,
+      int rowStride,
+      int pixelStride,
+      int width,
+      int height,
+      byte[] scratch) {
+    int size = (height - 1) * rowStride + (width - 1) * pixelStride + 1;
+    byte[] out = scratch.length >= size ? scratch : new byte[size];
+    ByteBuffer source = buffer.duplicate();
+    source.rewind();
+    source.get(out, 0, size);
+    return out;
+  }
+
+  /** Interleaves planar U and V rows into VU. */
+  private static void interleaveRows(
+      byte[] u, byte[] v, int rowStride, int width, int height, byte[] out, int offset) {
+    int outPosition = offset;
+    for (int row = 0; row < height; row++) {
+      int rowStart = row * rowStride;
+      int rowEnd = rowStart + width;
+      for (int i = rowStart; i < rowEnd; i++) {
+        out[outPosition++] = v[i];
+        out[outPosition++] = u[i];
+      }
     }
-    int scaleFactor = height / numRow;
-    int numCol = width / scaleFactor;
-
-    // Extract the data in the output buffer.
-    int outputPos = offset;
-    int rowStart = 0;
-    for (int row = 0; row < numRow; row++) {
-      int inputPos = rowStart;
-      for (int col = 0; col < numCol; col++) {
-        out[outputPos] = buffer.get(inputPos);
-        outputPos += pixelStride;
-        inputPos += plane.getPixelStride();
+  }
+
+  /** Interleaves U and V rows of any pixel stride into VU. */
+  private static void interleaveStridedRows(
+      byte[] u,
+      byte[] v,
+      int rowStride,
+      int pixelStride,
+      int width,
+      int height,
+      byte[] out,
+      int offset) {
+    int outPosition = offset;
+    for (int row = 0; row < height; row++) {
+      int inputPosition = row * rowStride;
+      for (int col = 0; col < width; col++) {
+        out[outPosition++] = v[inputPosition];
+        out[outPosition++] = u[inputPosition];
+        inputPosition += pixelStride;
       }
-      rowStart += plane.getRowStride();
     }
   }
 }
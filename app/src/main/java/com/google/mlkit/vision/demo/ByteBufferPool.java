@@ -0,0 +1,166 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide pool of heap byte buffers, e.g. for the NV21 copies of camera frames, so that every
+ * frame does not allocate a new array of the same size.
+ *
+ * <p>Buffers are bucketed by size. {@link #acquire} hands out a buffer backed by a free array of
+ * exactly that size, or a new one, and its caller owns the buffer until it passes it on or gives
+ * it back with {@link #release}, usually once the detector has finished with the frame. The content
+ * of an acquired buffer is undefined. Free arrays are kept in least recently used order and dropped
+ * when their size exceeds the budget, or when the system asks to trim memory. Buffers which are
+ * never released are simply collected by the garbage collector.
+ */
+public final class ByteBufferPool implements ComponentCallbacks2 {
+
+  private static final String TAG = "ByteBufferPool";
+  // Share of the app's memory class the pool may fill with free arrays.
+  private static final int MEMORY_CLASS_DIVISOR = 16;
+
+  @Nullable private static ByteBufferPool instance;
+
+  private final long budgetBytes;
+
+  // Access ordered, so that iteration starts at the least recently used bucket.
+  @GuardedBy("this")
+  private final LinkedHashMap<Integer, ArrayDeque<byte[]>> freeArrays =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private long freeBytes;
+
+  private ByteBufferPool(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Returns the pool, creating it with a budget derived from the memory class of the app. */
+  public static synchronized ByteBufferPool getInstance(Context context) {
+    if (instance == null) {
+      Context applicationContext = context.getApplicationContext();
+      ActivityManager activityManager =
+          (ActivityManager) applicationContext.getSystemService(Context.ACTIVITY_SERVICE);
+      long budgetBytes = activityManager.getMemoryClass() * 1024L * 1024L / MEMORY_CLASS_DIVISOR;
+      instance = new ByteBufferPool(budgetBytes);
+      applicationContext.registerComponentCallbacks(instance);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns a buffer of {@code size} bytes whose backing array has exactly that length, reusing a
+   * free array if possible.
+   */
+  public ByteBuffer acquire(int size) {
+    synchronized (this) {
+      ArrayDeque<byte[]> bucket = freeArrays.get(size);
+      if (bucket != null) {
+        byte[] array = bucket.poll();
+        if (bucket.isEmpty()) {
+          freeArrays.remove(size);
+        }
+        if (array != null) {
+          freeBytes -= array.length;
+          return ByteBuffer.wrap(array);
+        }
+      }
+    }
+    return ByteBuffer.wrap(new byte[size]);
+  }
+
+  /**
+   * Gives the array backing {@code buffer} to the pool. The caller must not use the buffer or any
+   * of its duplicates afterwards. Buffers without an accessible array are ignored.
+   */
+  public void release(ByteBuffer buffer) {
+    if (!buffer.hasArray()) {
+      return;
+    }
+    byte[] array = buffer.array();
+    synchronized (this) {
+      ArrayDeque<byte[]> bucket = freeArrays.get(array.length);
+      if (bucket == null) {
+        bucket = new ArrayDeque<>();
+        freeArrays.put(array.length, bucket);
+      }
+      bucket.push(array);
+      freeBytes += array.length;
+      trimToSize(budgetBytes);
+    }
+  }
+
+  /** Drops all free arrays. */
+  public synchronized void clear() {
+    trimToSize(/* targetBytes= */ 0);
+  }
+
+  /**
+   * Drops free arrays, least recently used buckets first, until at most {@code targetBytes} are
+   * kept.
+   */
+  @GuardedBy("this")
+  private void trimToSize(long targetBytes) {
+    Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> iterator = freeArrays.entrySet().iterator();
+    while (freeBytes > targetBytes && iterator.hasNext()) {
+      Map.Entry<Integer, ArrayDeque<byte[]>> entry = iterator.next();
+      ArrayDeque<byte[]> bucket = entry.getValue();
+      while (freeBytes > targetBytes && !bucket.isEmpty()) {
+        freeBytes -= bucket.pollLast().length;
+      }
+      if (bucket.isEmpty()) {
+        iterator.remove();
+        Log.d(TAG, "Dropped buffers of " + entry.getKey() + " bytes");
+      }
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    synchronized (this) {
+      if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+        trimToSize(/* targetBytes= */ 0);
+      } else {
+        trimToSize(budgetBytes / 2);
+      }
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    clear();
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+}
@@ -18,20 +18,36 @@ package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import androidx.annotation.Nullable;
 import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
 
 /** Draw camera image to background. */
 public class CameraImageGraphic extends Graphic {
 
   private final Bitmap bitmap;
+  // Gets the bitmap back once the graphic is removed from the overlay, null if nobody pools it.
+  @Nullable private final BitmapPool bitmapPool;
 
   public CameraImageGraphic(GraphicOverlay overlay, Bitmap bitmap) {
+    this(overlay, bitmap, /* bitmapPool= */ null);
+  }
+
+  public CameraImageGraphic(
+      GraphicOverlay overlay, Bitmap bitmap, @Nullable BitmapPool bitmapPool) {
     super(overlay);
     this.bitmap = bitmap;
+    this.bitmapPool = bitmapPool;
   }
 
   @Override
   public void draw(Canvas canvas) {
     canvas.drawBitmap(bitmap, getTransformationMatrix(), null);
   }
+
+  @Override
+  protected void onRemoved() {
+    if (bitmapPool != null) {
+      bitmapPool.release(bitmap);
+    }
+  }
 }
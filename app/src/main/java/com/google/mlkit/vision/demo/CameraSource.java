@@ -24,11 +24,13 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.WindowManager;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
 
@@ -37,9 +39,12 @@ import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
@@ -72,6 +77,12 @@ public class CameraSource {
    */
   private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+  /**
+   * Most preview buffers to create. Besides the four the camera needs, more are created while the
+   * processor keeps frames in flight or pending.
+   */
+  private static final int MAX_PREVIEW_BUFFER_COUNT = 8;
+
   protected Activity activity;
 
   private Camera camera;
@@ -100,9 +111,13 @@ public class CameraSource {
   private Thread processingThread;
 
   private final FrameProcessingRunnable processingRunnable;
+  // Guards replacing and releasing the processor. The processing thread only reads the volatile
+  // reference below, so it never waits on this lock while frames are delivered.
   private final Object processorLock = new Object();
 
-  private VisionImageProcessor frameProcessor;
+  private volatile VisionImageProcessor frameProcessor;
+  // Writes every frame handed to the processor to a file, null if frames are not recorded.
+  @Nullable private volatile FrameRecorder frameRecorder;
 
   /**
    * Map to convert between a byte array, received from the camera, and its associated byte buffer.
@@ -113,8 +128,32 @@ public class CameraSource {
    * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
    * identity ('==') check on the keys.
    */
+  @GuardedBy("previewBufferLock")
   private final IdentityHashMap<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
 
+  // Guards the preview buffers, which the processor may release on any thread, and which processor
+  // the processing thread hands frames to.
+  private final Object previewBufferLock = new Object();
+
+  // Whether frameProcessor keeps the buffers it is given until it releases them. Those buffers are
+  // only returned to the camera once released, see releasePreviewBuffer().
+  @GuardedBy("previewBufferLock")
+  private boolean isFrameProcessorKeepingBuffers;
+
+  // Buffers the processor keeps and has not released yet.
+  @GuardedBy("previewBufferLock")
+  private final Set<byte[]> heldPreviewBuffers =
+      Collections.newSetFromMap(new IdentityHashMap<>());
+
+  // Released buffers which the camera did not need right away.
+  @GuardedBy("previewBufferLock")
+  private final ArrayDeque<byte[]> freePreviewBuffers = new ArrayDeque<>();
+
+  // How many buffers the camera is short of, because the processor keeps them and no more buffers
+  // may be created.
+  @GuardedBy("previewBufferLock")
+  private int missingPreviewBufferCount;
+
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
     graphicOverlay = overlay;
@@ -155,6 +194,10 @@ public class CameraSource {
     camera.setPreviewTexture(dummySurfaceTexture);
     camera.startPreview();
 
+    VisionImageProcessor processor = frameProcessor;
+    if (processor != null) {
+      processor.onStreamRestarted();
+    }
     processingThread = new Thread(processingRunnable);
     processingRunnable.setActive(true);
     processingThread.start();
@@ -178,6 +221,10 @@ public class CameraSource {
     camera.setPreviewDisplay(surfaceHolder);
     camera.startPreview();
 
+    VisionImageProcessor processor = frameProcessor;
+    if (processor != null) {
+      processor.onStreamRestarted();
+    }
     processingThread = new Thread(processingRunnable);
     processingRunnable.setActive(true);
     processingThread.start();
@@ -207,6 +254,12 @@ public class CameraSource {
       processingThread = null;
     }
 
+    synchronized (previewBufferLock) {
+      // Buffers released by the processor from now on are not returned to this camera anymore.
+      heldPreviewBuffers.clear();
+      freePreviewBuffers.clear();
+      missingPreviewBufferCount = 0;
+    }
     if (camera != null) {
       camera.stopPreview();
       camera.setPreviewCallbackWithBuffer(null);
@@ -222,7 +275,9 @@ public class CameraSource {
     }
 
     // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
+    synchronized (previewBufferLock) {
+      bytesToByteBuffer.clear();
+    }
   }
 
   /** Changes the facing of the camera. */
@@ -319,6 +374,9 @@ public class CameraSource {
     // one thread for acquiring images, and another thread for calling into user code.  If only
     // three buffers are used, then the camera will spew thousands of warning messages when
     // detection takes a non-trivial amount of time.
+    //
+    // A processor which keeps several frames pending or in flight holds on to more buffers, which
+    // are replaced as needed, see addReplacementPreviewBuffer().
     camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
     camera.addCallbackBuffer(createPreviewBuffer(previewSize));
     camera.addCallbackBuffer(createPreviewBuffer(previewSize));
@@ -549,7 +607,9 @@ public class CameraSource {
       throw new IllegalStateException("Failed to create valid buffer for camera source.");
     }
 
-    bytesToByteBuffer.put(byteArray, buffer);
+    synchronized (previewBufferLock) {
+      bytesToByteBuffer.put(byteArray, buffer);
+    }
     return byteArray;
   }
 
@@ -571,10 +631,62 @@ public class CameraSource {
       if (frameProcessor != null) {
         frameProcessor.stop();
       }
-      frameProcessor = processor;
+      // Frames may be pending or in flight in the processor after processByteBuffer() returned, so
+      // their buffers go back to the camera once the processor releases them.
+      boolean isKeepingBuffers =
+          processor.setOnByteBufferReleasedListener(this::releasePreviewBuffer);
+      synchronized (previewBufferLock) {
+        frameProcessor = processor;
+        isFrameProcessorKeepingBuffers = isKeepingBuffers;
+      }
     }
   }
 
+  /**
+   * Gives the camera another buffer in place of one the processor keeps, so that it can keep
+   * filling two buffers: a released one, or a new one if no more than {@link
+   * #MAX_PREVIEW_BUFFER_COUNT} exist.
+   */
+  private void addReplacementPreviewBuffer() {
+    synchronized (previewBufferLock) {
+      byte[] buffer = freePreviewBuffers.poll();
+      if (buffer == null && bytesToByteBuffer.size() < MAX_PREVIEW_BUFFER_COUNT) {
+        buffer = createPreviewBuffer(previewSize);
+      }
+      if (buffer != null) {
+        camera.addCallbackBuffer(buffer);
+      } else {
+        missingPreviewBufferCount++;
+      }
+    }
+  }
+
+  /** Takes back a buffer the processor kept, once it no longer uses it. */
+  @SuppressWarnings("ByteBufferBackingArray")
+  private void releasePreviewBuffer(ByteBuffer data) {
+    synchronized (previewBufferLock) {
+      // Buffers of a camera stopped in the meantime are dropped, see stop().
+      if (!heldPreviewBuffers.remove(data.array())) {
+        return;
+      }
+      if (missingPreviewBufferCount > 0) {
+        missingPreviewBufferCount--;
+        camera.addCallbackBuffer(data.array());
+      } else {
+        freePreviewBuffers.push(data.array());
+      }
+    }
+  }
+
+  /**
+   * Records the frames handed to the processor from now on, or stops recording if {@code recorder}
+   * is null. The caller remains responsible for closing the recorder, after this camera source was
+   * stopped or another recorder set.
+   */
+  public void setFrameRecorder(@Nullable FrameRecorder recorder) {
+    frameRecorder = recorder;
+  }
+
   /**
    * This runnable controls access to the underlying receiver, calling it to process frames when
    * available from the camera. This is designed to run detection on frames as fast as possible
@@ -593,6 +705,11 @@ public class CameraSource {
 
     // These pending variables hold the state associated with the new frame awaiting processing.
     private ByteBuffer pendingFrameData;
+    private long pendingFrameSequenceNumber;
+    private long pendingFrameCaptureTimeNs;
+
+    // Number of the next frame received from the camera.
+    private long nextFrameSequenceNumber;
 
     FrameProcessingRunnable() {}
 
@@ -616,7 +733,11 @@ public class CameraSource {
           pendingFrameData = null;
         }
 
-        if (!bytesToByteBuffer.containsKey(data)) {
+        ByteBuffer buffer;
+        synchronized (previewBufferLock) {
+          buffer = bytesToByteBuffer.get(data);
+        }
+        if (buffer == null) {
           Log.d(
               TAG,
               "Skipping frame. Could not find ByteBuffer associated with the image "
@@ -624,7 +745,9 @@ public class CameraSource {
           return;
         }
 
-        pendingFrameData = bytesToByteBuffer.get(data);
+        pendingFrameData = buffer;
+        pendingFrameSequenceNumber = nextFrameSequenceNumber++;
+        pendingFrameCaptureTimeNs = SystemClock.elapsedRealtimeNanos();
 
         // Notify the processor thread if it is waiting on the next frame (see below).
         lock.notifyAll();
@@ -649,6 +772,8 @@ public class CameraSource {
     @Override
     public void run() {
       ByteBuffer data;
+      long frameSequenceNumber;
+      long frameCaptureTimeNs;
 
       while (true) {
         synchronized (lock) {
@@ -675,6 +800,8 @@ public class CameraSource {
           // below.  We need to clear pendingFrameData to ensure that this buffer isn't
           // recycled back to the camera before we are done using that data.
           data = pendingFrameData;
+          frameSequenceNumber = pendingFrameSequenceNumber;
+          frameCaptureTimeNs = pendingFrameCaptureTimeNs;
           pendingFrameData = null;
         }
 
@@ -682,21 +809,46 @@ public class CameraSource {
         // the camera to add pending frame(s) while we are running detection on the current
         // frame.
 
+        boolean isKeptByProcessor = false;
         try {
-          synchronized (processorLock) {
-            frameProcessor.processByteBuffer(
-                data,
-                new FrameMetadata.Builder()
-                    .setWidth(previewSize.getWidth())
-                    .setHeight(previewSize.getHeight())
-                    .setRotation(rotationDegrees)
-                    .build(),
-                graphicOverlay);
+          FrameMetadata frameMetadata =
+              new FrameMetadata.Builder()
+                  .setWidth(previewSize.getWidth())
+                  .setHeight(previewSize.getHeight())
+                  .setRotation(rotationDegrees)
+                  .setSequenceNumber(frameSequenceNumber)
+                  .setCaptureTimeNs(frameCaptureTimeNs)
+                  .setSource(FrameMetadata.Source.CAMERA1)
+                  .build();
+          FrameRecorder recorder = frameRecorder;
+          if (recorder != null) {
+            try {
+              recorder.record(data, IMAGE_FORMAT, frameMetadata);
+            } catch (IOException e) {
+              Log.e(TAG, "Failed to record frame, recording stopped.", e);
+              frameRecorder = null;
+            }
+          }
+          // A processor replaced or stopped concurrently drops the frame through its scheduler.
+          VisionImageProcessor processor;
+          synchronized (previewBufferLock) {
+            processor = frameProcessor;
+            isKeptByProcessor = processor != null && isFrameProcessorKeepingBuffers;
+            if (isKeptByProcessor) {
+              heldPreviewBuffers.add(data.array());
+            }
+          }
+          if (processor != null) {
+            processor.processByteBuffer(data, frameMetadata, graphicOverlay);
           }
         } catch (Exception t) {
           Log.e(TAG, "Exception thrown from receiver.", t);
         } finally {
-          camera.addCallbackBuffer(data.array());
+          if (isKeptByProcessor) {
+            addReplacementPreviewBuffer();
+          } else {
+            camera.addCallbackBuffer(data.array());
+          }
         }
       }
     }
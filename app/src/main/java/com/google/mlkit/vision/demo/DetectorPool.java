@@ -0,0 +1,230 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide pool of ML Kit detector clients, so that processors created again for the same
+ * options, e.g. after switching the model back or resuming an activity, reuse the loaded client.
+ *
+ * <p>Clients are keyed by their options object, which ML Kit compares by value. A client is
+ * reference counted: {@link #acquire} hands out a {@link Lease}, and the client becomes idle once
+ * all leases are released. Idle clients are kept in least recently used order and closed when the
+ * estimated size of all clients exceeds the budget, or when the system asks to trim memory.
+ * Clients in use are never closed.
+ */
+public final class DetectorPool implements ComponentCallbacks2 {
+
+  /** Creates the client for a key which is not in the pool. */
+  public interface Factory<D extends Closeable> {
+    D create();
+  }
+
+  private static final String TAG = "DetectorPool";
+  // Share of the app's memory class the pool may fill with clients.
+  private static final int MEMORY_CLASS_DIVISOR = 8;
+
+  @Nullable private static DetectorPool instance;
+
+  private final long budgetBytes;
+
+  // Access ordered, so that iteration starts at the least recently used client.
+  @GuardedBy("this")
+  private final LinkedHashMap<Object, Entry> entries =
+      new LinkedHashMap<>(
+          /* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private long totalBytes;
+
+  private DetectorPool(long budgetBytes) {
+    this.budgetBytes = budgetBytes;
+  }
+
+  /** Returns the pool, creating it with a budget derived from the memory class of the app. */
+  public static synchronized DetectorPool getInstance(Context context) {
+    if (instance == null) {
+      Context applicationContext = context.getApplicationContext();
+      ActivityManager activityManager =
+          (ActivityManager) applicationContext.getSystemService(Context.ACTIVITY_SERVICE);
+      long budgetBytes = activityManager.getMemoryClass() * 1024L * 1024L / MEMORY_CLASS_DIVISOR;
+      instance = new DetectorPool(budgetBytes);
+      applicationContext.registerComponentCallbacks(instance);
+    }
+    return instance;
+  }
+
+  /**
+   * Returns a lease on the client for {@code key}, creating it with {@code factory} if the pool has
+   * none.
+   *
+   * @param key identifies the client, usually its options object, and must implement equals and
+   *     hashCode by value
+   * @param estimatedBytes rough memory use of the client, counted against the budget
+   */
+  @SuppressWarnings("unchecked") // A key is always used with the same client type.
+  public <D extends Closeable> Lease<D> acquire(
+      Object key, long estimatedBytes, Factory<D> factory) {
+    List<Closeable> evicted;
+    Entry entry;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) {
+        entry = new Entry(key, factory.create(), estimatedBytes);
+        entries.put(key, entry);
+        totalBytes += estimatedBytes;
+        Log.d(TAG, "Created client for " + key);
+      } else {
+        Log.d(TAG, "Reusing client for " + key);
+      }
+      entry.referenceCount++;
+      evicted = evictIdleEntries(budgetBytes);
+    }
+    closeAll(evicted);
+    return new Lease<>(this, entry, (D) entry.client);
+  }
+
+  private void release(Entry entry) {
+    List<Closeable> evicted;
+    synchronized (this) {
+      entry.referenceCount--;
+      evicted = evictIdleEntries(budgetBytes);
+    }
+    closeAll(evicted);
+  }
+
+  /** Closes all idle clients. */
+  public void evictIdle() {
+    List<Closeable> evicted;
+    synchronized (this) {
+      evicted = evictIdleEntries(/* targetBytes= */ 0);
+    }
+    closeAll(evicted);
+  }
+
+  /**
+   * Removes idle entries, least recently used first, until at most {@code targetBytes} are used.
+   */
+  @GuardedBy("this")
+  private List<Closeable> evictIdleEntries(long targetBytes) {
+    List<Closeable> evicted = new ArrayList<>();
+    Iterator<Map.Entry<Object, Entry>> iterator = entries.entrySet().iterator();
+    while (totalBytes > targetBytes && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.referenceCount > 0) {
+        continue;
+      }
+      iterator.remove();
+      totalBytes -= entry.estimatedBytes;
+      evicted.add(entry.client);
+      Log.d(TAG, "Evicted client for " + entry.key);
+    }
+    return evicted;
+  }
+
+  private static void closeAll(List<Closeable> clients) {
+    for (Closeable client : clients) {
+      try {
+        client.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close detector client", e);
+      }
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    List<Closeable> evicted;
+    synchronized (this) {
+      if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+        evicted = evictIdleEntries(/* targetBytes= */ 0);
+      } else {
+        evicted = evictIdleEntries(budgetBytes / 2);
+      }
+    }
+    closeAll(evicted);
+  }
+
+  @Override
+  public void onLowMemory() {
+    evictIdle();
+  }
+
+  @Override
+  public void onConfigurationChanged(@NonNull Configuration newConfig) {}
+
+  private static final class Entry {
+    private final Object key;
+    private final Closeable client;
+    private final long estimatedBytes;
+
+    // Guarded by the pool.
+    private int referenceCount;
+
+    private Entry(Object key, Closeable client, long estimatedBytes) {
+      this.key = key;
+      this.client = client;
+      this.estimatedBytes = estimatedBytes;
+    }
+  }
+
+  /** A reference to a pooled client, which must be released once it is no longer used. */
+  public static final class Lease<D extends Closeable> {
+    private final DetectorPool pool;
+    private final Entry entry;
+    private final D client;
+
+    @GuardedBy("this")
+    private boolean isReleased;
+
+    private Lease(DetectorPool pool, Entry entry, D client) {
+      this.pool = pool;
+      this.entry = entry;
+      this.client = client;
+    }
+
+    public D get() {
+      return client;
+    }
+
+    /** Gives the client back to the pool. Further calls have no effect. */
+    public void release() {
+      synchronized (this) {
+        if (isReleased) {
+          return;
+        }
+        isReleased = true;
+      }
+      pool.release(entry);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Single-slot mailbox handing the latest frame from a producer to a consumer without locking.
+ *
+ * <p>A producer replaces whatever is in the slot and gets the replaced, never consumed, item back
+ * so that it can be released. A consumer atomically takes the item out of the slot. Neither side
+ * ever blocks, so the camera thread can keep delivering frames while detection is running.
+ *
+ * @param <T> The type of the frame held in the mailbox.
+ */
+public final class FrameMailbox<T> {
+
+  private final AtomicReference<T> slot = new AtomicReference<>();
+
+  /**
+   * Puts a frame into the mailbox.
+   *
+   * @return the frame that was replaced and will never be consumed, or null if the slot was empty
+   */
+  @Nullable
+  public T offer(@NonNull T frame) {
+    return slot.getAndSet(frame);
+  }
+
+  /** Takes the frame out of the mailbox, or returns null if there is none. */
+  @Nullable
+  public T poll() {
+    // Read first, so that polling an empty mailbox does not write to the shared cache line.
+    if (slot.get() == null) {
+      return null;
+    }
+    return slot.getAndSet(null);
+  }
+
+  public boolean isEmpty() {
+    return slot.get() == null;
+  }
+}
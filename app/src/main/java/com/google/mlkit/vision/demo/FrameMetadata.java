@@ -16,12 +16,32 @@
 
 package com.google.mlkit.vision.demo;
 
+import android.graphics.Rect;
+import androidx.annotation.Nullable;
+
 /** Describing a frame info. */
 public class FrameMetadata {
 
+  /** Where a frame comes from. */
+  public enum Source {
+    UNKNOWN,
+    CAMERA1,
+    CAMERAX,
+    VIDEO,
+    STILL_IMAGE
+  }
+
+  /** Value of {@link #getPresentationTimeUs()} for frames without a presentation time. */
+  public static final long NO_PRESENTATION_TIME = -1;
+
   private final int width;
   private final int height;
   private final int rotation;
+  private final long sequenceNumber;
+  private final long captureTimeNs;
+  private final long presentationTimeUs;
+  private final Source source;
+  @Nullable private final Rect cropRect;
 
   public int getWidth() {
     return width;
@@ -35,10 +55,76 @@ public class FrameMetadata {
     return rotation;
   }
 
-  private FrameMetadata(int width, int height, int rotation) {
+  /**
+   * Returns the number of the frame within its source. Numbers increase by one for every frame the
+   * source produced, so gaps show frames which were dropped before reaching the detector.
+   */
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  /**
+   * Returns the {@link android.os.SystemClock#elapsedRealtimeNanos()} at which the source produced
+   * the frame, or 0 if unknown.
+   */
+  public long getCaptureTimeNs() {
+    return captureTimeNs;
+  }
+
+  /**
+   * Returns the timestamp assigned to the frame by the camera or the video, in microseconds, or
+   * {@link #NO_PRESENTATION_TIME}.
+   */
+  public long getPresentationTimeUs() {
+    return presentationTimeUs;
+  }
+
+  public Source getSource() {
+    return source;
+  }
+
+  /**
+   * Returns the region of the frame the detector should run on, or null for the whole frame.
+   *
+   * <p>The rectangle is in the coordinates of the upright frame, i.e. after applying {@link
+   * #getRotation()}, which are the coordinates detection results and {@link GraphicOverlay} use.
+   * Results of a cropped frame are relative to the top left corner of the rectangle.
+   */
+  @Nullable
+  public Rect getCropRect() {
+    return cropRect == null ? null : new Rect(cropRect);
+  }
+
+  /** Returns a builder initialized with the values of this metadata. */
+  public Builder toBuilder() {
+    return new Builder()
+        .setWidth(width)
+        .setHeight(height)
+        .setRotation(rotation)
+        .setSequenceNumber(sequenceNumber)
+        .setCaptureTimeNs(captureTimeNs)
+        .setPresentationTimeUs(presentationTimeUs)
+        .setSource(source)
+        .setCropRect(cropRect);
+  }
+
+  private FrameMetadata(
+      int width,
+      int height,
+      int rotation,
+      long sequenceNumber,
+      long captureTimeNs,
+      long presentationTimeUs,
+      Source source,
+      @Nullable Rect cropRect) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
+    this.sequenceNumber = sequenceNumber;
+    this.captureTimeNs = captureTimeNs;
+    this.presentationTimeUs = presentationTimeUs;
+    this.source = source;
+    this.cropRect = cropRect;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -47,6 +133,11 @@ public class FrameMetadata {
     private int width;
     private int height;
     private int rotation;
+    private long sequenceNumber;
+    private long captureTimeNs;
+    private long presentationTimeUs = NO_PRESENTATION_TIME;
+    private Source source = Source.UNKNOWN;
+    @Nullable private Rect cropRect;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -63,8 +154,41 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setSequenceNumber(long sequenceNumber) {
+      this.sequenceNumber = sequenceNumber;
+      return this;
+    }
+
+    public Builder setCaptureTimeNs(long captureTimeNs) {
+      this.captureTimeNs = captureTimeNs;
+      return this;
+    }
+
+    public Builder setPresentationTimeUs(long presentationTimeUs) {
+      this.presentationTimeUs = presentationTimeUs;
+      return this;
+    }
+
+    public Builder setSource(Source source) {
+      this.source = source;
+      return this;
+    }
+
+    public Builder setCropRect(@Nullable Rect cropRect) {
+      this.cropRect = cropRect == null ? null : new Rect(cropRect);
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation);
+      return new FrameMetadata(
+          width,
+          height,
+          rotation,
+          sequenceNumber,
+          captureTimeNs,
+          presentationTimeUs,
+          source,
+          cropRect);
     }
   }
 }
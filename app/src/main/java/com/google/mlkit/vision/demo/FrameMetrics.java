@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.SystemClock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what happens to the frames of a processor: how many were produced by the source, admitted
+ * to the detector, completed, and dropped on the way, by reason. It also keeps the time from its
+ * creation, i.e. the creation of the processor, until the first frame completed, which includes
+ * loading the model and any warm-up.
+ *
+ * <p>Frames the source discarded before handing them over are not reported directly. They are
+ * inferred from gaps in {@link FrameMetadata#getSequenceNumber()}, which every source increments
+ * for every frame it produces.
+ *
+ * <p>All methods may be called from any thread.
+ */
+public final class FrameMetrics {
+
+  /** Why a frame was dropped. */
+  public enum DropReason {
+    /** The source replaced the frame with a newer one before handing it to the processor. */
+    SOURCE_BUSY,
+    /** The frame scheduler policy rejected the frame. */
+    NOT_ADMITTED,
+    /** A newer frame replaced the frame while it was waiting for the detector. */
+    REPLACED,
+    /** The processor was stopped before the frame was processed. */
+    SHUTDOWN,
+    /** The detector failed on the frame. */
+    DETECTOR_FAILED,
+    /** The result arrived after the result of a newer frame had already been drawn. */
+    LATE
+  }
+
+  private final AtomicLong producedCount = new AtomicLong();
+  private final AtomicLong admittedCount = new AtomicLong();
+  private final AtomicLong completedCount = new AtomicLong();
+  private final AtomicLongArray droppedCounts = new AtomicLongArray(DropReason.values().length);
+  private final AtomicLong lastSequenceNumber = new AtomicLong(-1);
+  private final long creationTimeNs = SystemClock.elapsedRealtimeNanos();
+  private final AtomicLong timeToFirstResultMs = new AtomicLong(-1);
+
+  /** Records a frame handed to the processor, and the frames the source skipped before it. */
+  public void onFrameProduced(FrameMetadata frameMetadata) {
+    long sequenceNumber = frameMetadata.getSequenceNumber();
+    long previous = lastSequenceNumber.getAndSet(sequenceNumber);
+    // A sequence number going backwards means the source was restarted, nothing got lost then.
+    long skipped = previous >= 0 && sequenceNumber > previous ? sequenceNumber - previous - 1 : 0;
+    if (skipped > 0) {
+      producedCount.addAndGet(skipped);
+      droppedCounts.addAndGet(DropReason.SOURCE_BUSY.ordinal(), skipped);
+    }
+    producedCount.incrementAndGet();
+  }
+
+  /** Records a frame whose detection has started. */
+  public void onFrameAdmitted() {
+    admittedCount.incrementAndGet();
+  }
+
+  /** Records a frame whose results have been drawn. Returns true for the first such frame. */
+  public boolean onFrameCompleted() {
+    if (completedCount.incrementAndGet() > 1) {
+      return false;
+    }
+    timeToFirstResultMs.set((SystemClock.elapsedRealtimeNanos() - creationTimeNs) / 1_000_000);
+    return true;
+  }
+
+  public void onFrameDropped(DropReason reason) {
+    droppedCounts.incrementAndGet(reason.ordinal());
+  }
+
+  public Snapshot snapshot() {
+    long[] dropped = new long[droppedCounts.length()];
+    for (int i = 0; i < dropped.length; i++) {
+      dropped[i] = droppedCounts.get(i);
+    }
+    return new Snapshot(
+        producedCount.get(),
+        admittedCount.get(),
+        completedCount.get(),
+        dropped,
+        timeToFirstResultMs.get());
+  }
+
+  /** Immutable view of {@link FrameMetrics} at a point in time. */
+  public static class Snapshot {
+    private final long producedCount;
+    private final long admittedCount;
+    private final long completedCount;
+    private final long[] droppedCounts;
+    private final long timeToFirstResultMs;
+
+    private Snapshot(
+        long producedCount,
+        long admittedCount,
+        long completedCount,
+        long[] droppedCounts,
+        long timeToFirstResultMs) {
+      this.producedCount = producedCount;
+      this.admittedCount = admittedCount;
+      this.completedCount = completedCount;
+      this.droppedCounts = droppedCounts;
+      this.timeToFirstResultMs = timeToFirstResultMs;
+    }
+
+    public long getProducedCount() {
+      return producedCount;
+    }
+
+    public long getAdmittedCount() {
+      return admittedCount;
+    }
+
+    public long getCompletedCount() {
+      return completedCount;
+    }
+
+    public long getDroppedCount(DropReason reason) {
+      return droppedCounts[reason.ordinal()];
+    }
+
+    /**
+     * Returns the time from the creation of the processor until the results of its first frame
+     * were drawn, or -1 if no frame has completed yet.
+     */
+    public long getTimeToFirstResultMs() {
+      return timeToFirstResultMs;
+    }
+
+    public long getDroppedCount() {
+      long total = 0;
+      for (long count : droppedCounts) {
+        total += count;
+      }
+      return total;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder =
+          new StringBuilder()
+              .append("produced=")
+              .append(producedCount)
+              .append(", admitted=")
+              .append(admittedCount)
+              .append(", completed=")
+              .append(completedCount)
+              .append(", dropped=")
+              .append(getDroppedCount());
+      for (DropReason reason : DropReason.values()) {
+        long count = droppedCounts[reason.ordinal()];
+        if (count > 0) {
+          builder.append(", ").append(reason).append('=').append(count);
+        }
+      }
+      if (timeToFirstResultMs >= 0) {
+        builder.append(", time to first result=").append(timeToFirstResultMs).append(" ms");
+      }
+      return builder.toString();
+    }
+  }
+}
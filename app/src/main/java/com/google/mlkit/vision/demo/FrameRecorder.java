@@ -0,0 +1,205 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends raw frames and their {@link FrameMetadata} to a file, so that they can be replayed later
+ * with {@link ReplayFrameSource}.
+ *
+ * <p>The file starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per frame:
+ * its length in bytes, not counting the length itself, the {@link ImageFormat}, width, height,
+ * rotation and {@link FrameMetadata.Source} ordinal as ints, the sequence number, capture time and
+ * presentation time as longs, and the pixel data. All values are big endian.
+ *
+ * <p>The file is written through memory mapped regions of {@link #MAPPING_REGION_BYTES}, so that
+ * recording a frame is a copy into memory rather than a system call. Recording stops once the file
+ * would exceed its maximum size. All methods may be called from any thread.
+ */
+public final class FrameRecorder implements Closeable {
+
+  public static final int MAGIC = 0x4d4c4652; // "MLFR"
+  public static final int VERSION = 1;
+  public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+
+  static final int FILE_HEADER_BYTES = 8;
+  // Format, width, height, rotation, source, sequence number, capture and presentation time.
+  static final int RECORD_HEADER_BYTES = 5 * 4 + 3 * 8;
+
+  private static final long MAPPING_REGION_BYTES = 16L * 1024 * 1024;
+  private static final String DIRECTORY_NAME = "recordings";
+  private static final String FILE_EXTENSION = ".frames";
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final long maxBytes;
+
+  // Region the next record is written to, starting at the end of the last record.
+  @GuardedBy("this")
+  @Nullable
+  private MappedByteBuffer region;
+
+  // Bytes of the file which hold complete records.
+  @GuardedBy("this")
+  private long size;
+
+  @GuardedBy("this")
+  private int frameCount;
+
+  @GuardedBy("this")
+  private boolean isClosed;
+
+  public FrameRecorder(File file) throws IOException {
+    this(file, DEFAULT_MAX_BYTES);
+  }
+
+  /** Creates the file, replacing any existing file. */
+  public FrameRecorder(File file, long maxBytes) throws IOException {
+    this.file = new RandomAccessFile(file, "rw");
+    channel = this.file.getChannel();
+    this.maxBytes = maxBytes;
+    synchronized (this) {
+      channel.truncate(0);
+      ensureCapacity(FILE_HEADER_BYTES);
+      region.putInt(MAGIC).putInt(VERSION);
+      size = FILE_HEADER_BYTES;
+    }
+  }
+
+  /** Returns a new file in the recordings directory of the app's external files directory. */
+  public static File createRecordingFile(Context context) throws IOException {
+    File directory = new File(context.getExternalFilesDir(null), DIRECTORY_NAME);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Can not create " + directory);
+    }
+    return new File(directory, "frames_" + System.currentTimeMillis() + FILE_EXTENSION);
+  }
+
+  /** Returns the most recently written recording, or null if there is none. */
+  @Nullable
+  public static File getLatestRecordingFile(Context context) {
+    File[] files = new File(context.getExternalFilesDir(null), DIRECTORY_NAME).listFiles();
+    File latest = null;
+    if (files != null) {
+      for (File candidate : files) {
+        if (candidate.getName().endsWith(FILE_EXTENSION)
+            && (latest == null || candidate.lastModified() > latest.lastModified())) {
+          latest = candidate;
+        }
+      }
+    }
+    return latest;
+  }
+
+  /**
+   * Appends a frame. Only the bytes of a single frame of the given format and size are written,
+   * starting at the position of {@code data}, which is left unchanged.
+   *
+   * @param format an {@link ImageFormat} with a fixed number of bits per pixel, e.g. {@link
+   *     ImageFormat#NV21}
+   * @return false if the frame was not written because the recorder is full or closed
+   */
+  public synchronized boolean record(ByteBuffer data, int format, FrameMetadata frameMetadata)
+      throws IOException {
+    if (isClosed) {
+      return false;
+    }
+    int dataBytes = getFrameBytes(format, frameMetadata.getWidth(), frameMetadata.getHeight());
+    if (data.remaining() < dataBytes) {
+      throw new IllegalArgumentException(
+          "Frame needs " + dataBytes + " bytes, only " + data.remaining() + " given");
+    }
+    int recordBytes = 4 + RECORD_HEADER_BYTES + dataBytes;
+    if (size + recordBytes > maxBytes) {
+      return false;
+    }
+    ensureCapacity(recordBytes);
+    ByteBuffer frameData = data.duplicate();
+    frameData.limit(frameData.position() + dataBytes);
+    region
+        .putInt(recordBytes - 4)
+        .putInt(format)
+        .putInt(frameMetadata.getWidth())
+        .putInt(frameMetadata.getHeight())
+        .putInt(frameMetadata.getRotation())
+        .putInt(frameMetadata.getSource().ordinal())
+        .putLong(frameMetadata.getSequenceNumber())
+        .putLong(frameMetadata.getCaptureTimeNs())
+        .putLong(frameMetadata.getPresentationTimeUs())
+        .put(frameData);
+    size += recordBytes;
+    frameCount++;
+    return true;
+  }
+
+  /** Returns the number of frames recorded so far. */
+  public synchronized int getFrameCount() {
+    return frameCount;
+  }
+
+  static int getFrameBytes(int format, int width, int height) {
+    int bitsPerPixel = ImageFormat.getBitsPerPixel(format);
+    if (bitsPerPixel <= 0) {
+      throw new IllegalArgumentException("Unsupported image format " + format);
+    }
+    return (int) ((long) width * height * bitsPerPixel / 8);
+  }
+
+  /** Maps a new region at the end of the records if the current one has no room for the bytes. */
+  @GuardedBy("this")
+  private void ensureCapacity(int bytes) throws IOException {
+    if (region != null && region.remaining() >= bytes) {
+      return;
+    }
+    if (region != null) {
+      region.force();
+    }
+    // Never map past the maximum size, callers check that the bytes fit.
+    long regionBytes = Math.max(Math.min(MAPPING_REGION_BYTES, maxBytes - size), bytes);
+    region = channel.map(FileChannel.MapMode.READ_WRITE, size, regionBytes);
+  }
+
+  /** Flushes the records and cuts the file to their size. Further frames are not recorded. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    isClosed = true;
+    try {
+      if (region != null) {
+        region.force();
+        region = null;
+      }
+      // Mapping extends the file past the last record.
+      channel.truncate(size);
+    } finally {
+      file.close();
+    }
+  }
+}
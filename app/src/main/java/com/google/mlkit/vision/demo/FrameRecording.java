@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Frames read from a file written by {@link FrameRecorder}.
+ *
+ * <p>The file is memory mapped, so frames are not copied into the heap and opening a recording
+ * only reads the record headers. A record cut short, e.g. because the app was killed while
+ * recording, ends the recording.
+ */
+public final class FrameRecording {
+
+  private static final String TAG = "FrameRecording";
+
+  private final List<Frame> frames;
+
+  private FrameRecording(List<Frame> frames) {
+    this.frames = frames;
+  }
+
+  public static FrameRecording open(File file) throws IOException {
+    MappedByteBuffer buffer;
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      FileChannel channel = randomAccessFile.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Recording too large: " + file);
+      }
+      // The mapping stays valid after the file is closed.
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (buffer.remaining() < FrameRecorder.FILE_HEADER_BYTES
+        || buffer.getInt() != FrameRecorder.MAGIC) {
+      throw new IOException("Not a frame recording: " + file);
+    }
+    int version = buffer.getInt();
+    if (version != FrameRecorder.VERSION) {
+      throw new IOException("Unsupported recording version " + version + ": " + file);
+    }
+
+    List<Frame> frames = new ArrayList<>();
+    FrameMetadata.Source[] sources = FrameMetadata.Source.values();
+    while (buffer.remaining() >= 4) {
+      int recordBytes = buffer.getInt();
+      if (recordBytes < FrameRecorder.RECORD_HEADER_BYTES || recordBytes > buffer.remaining()) {
+        Log.w(TAG, "Recording ends with an incomplete frame: " + file);
+        break;
+      }
+      int recordEnd = buffer.position() + recordBytes;
+      int format = buffer.getInt();
+      int width = buffer.getInt();
+      int height = buffer.getInt();
+      int rotation = buffer.getInt();
+      int sourceOrdinal = buffer.getInt();
+      FrameMetadata frameMetadata =
+          new FrameMetadata.Builder()
+              .setWidth(width)
+              .setHeight(height)
+              .setRotation(rotation)
+              .setSource(
+                  sourceOrdinal >= 0 && sourceOrdinal < sources.length
+                      ? sources[sourceOrdinal]
+                      : FrameMetadata.Source.UNKNOWN)
+              .setSequenceNumber(buffer.getLong())
+              .setCaptureTimeNs(buffer.getLong())
+              .setPresentationTimeUs(buffer.getLong())
+              .build();
+      ByteBuffer data = buffer.duplicate();
+      data.limit(recordEnd);
+      frames.add(new Frame(format, frameMetadata, data.slice().asReadOnlyBuffer()));
+      buffer.position(recordEnd);
+    }
+    return new FrameRecording(Collections.unmodifiableList(frames));
+  }
+
+  public int getFrameCount() {
+    return frames.size();
+  }
+
+  public Frame getFrame(int index) {
+    return frames.get(index);
+  }
+
+  /** A recorded frame. */
+  public static final class Frame {
+    private final int format;
+    private final FrameMetadata frameMetadata;
+    private final ByteBuffer data;
+
+    private Frame(int format, FrameMetadata frameMetadata, ByteBuffer data) {
+      this.format = format;
+      this.frameMetadata = frameMetadata;
+      this.data = data;
+    }
+
+    /** Returns the {@link android.graphics.ImageFormat} of the data. */
+    public int getFormat() {
+      return format;
+    }
+
+    /** Returns the metadata as recorded, including the original capture time. */
+    public FrameMetadata getFrameMetadata() {
+      return frameMetadata;
+    }
+
+    /** Returns a new read only buffer over the pixel data of the frame. */
+    public ByteBuffer getData() {
+      return data.duplicate();
+    }
+  }
+}
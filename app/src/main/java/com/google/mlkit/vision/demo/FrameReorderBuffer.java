@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.NonNull;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Delivers the results of frames processed concurrently in the order the frames were captured.
+ *
+ * <p>A frame is registered with {@link #onFrameStarted(long)} right before its detector runs. When
+ * the frame completes, its result is held back until all older frames still in flight have
+ * completed as well. A result arriving after the result of a newer frame has already been
+ * delivered is late and dropped, so the overlay never jumps back in time.
+ *
+ * <p>{@link #onFrameStarted(long)} may be called from any thread; {@link #onFrameCompleted} must
+ * always be called from the same thread, which is also the thread results are delivered on.
+ */
+public final class FrameReorderBuffer {
+
+  private final ConcurrentSkipListSet<Long> framesInFlight = new ConcurrentSkipListSet<>();
+  // Completed results waiting for older frames, keyed by frame sequence number.
+  private final TreeMap<Long, Runnable> heldResults = new TreeMap<>();
+  private long lastDeliveredSequenceNumber = -1;
+
+  /** Registers a frame whose result is going to be passed to {@link #onFrameCompleted}. */
+  public void onFrameStarted(long frameSequenceNumber) {
+    framesInFlight.add(frameSequenceNumber);
+  }
+
+  /**
+   * Hands over the result of a frame. {@code delivery} runs once all older frames in flight have
+   * completed, or never if the result is late.
+   *
+   * @return false if the result is late and has been dropped
+   */
+  public boolean onFrameCompleted(long frameSequenceNumber, @NonNull Runnable delivery) {
+    framesInFlight.remove(frameSequenceNumber);
+    boolean isLate = frameSequenceNumber < lastDeliveredSequenceNumber;
+    if (!isLate) {
+      heldResults.put(frameSequenceNumber, delivery);
+    }
+
+    while (!heldResults.isEmpty()) {
+      long next = heldResults.firstKey();
+      Long oldestInFlight = framesInFlight.isEmpty() ? null : framesInFlight.first();
+      if (oldestInFlight != null && oldestInFlight < next) {
+        break;
+      }
+      Map.Entry<Long, Runnable> entry = heldResults.pollFirstEntry();
+      lastDeliveredSequenceNumber = next;
+      entry.getValue().run();
+    }
+    return !isLate;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.demo.FrameMetrics.DropReason;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which incoming frames are handed to the detector and which ones are dropped.
+ *
+ * <p>At most {@link #getMaxFramesInFlight()} frames are processed at a time, one unless
+ * configured otherwise with {@link #withMaxFramesInFlight(int)}. Submitted frames first pass the
+ * admission gate of the selected {@link Policy} and are then held in a bounded pending queue.
+ * When the queue is full the oldest pending frame is dropped, so the detector always continues
+ * with the most recent frames. Policies keeping a single pending frame use a lock-free {@link
+ * FrameMailbox}.
+ *
+ * <p>The same scheduler is used for every input path of {@link
+ * com.google.mlkit.vision.demo.java.VisionProcessorBase}, so Camera1, CameraX and video frames
+ * are all dropped the same way under load. Still images are not part of a stream and are always
+ * processed, see {@link #processNow}.
+ */
+public final class FrameScheduler {
+
+  /** Admission policies supported by {@link FrameScheduler}. */
+  public enum Policy {
+    /** Keeps only the most recent pending frame. */
+    KEEP_LATEST,
+    /** Keeps up to N pending frames and drops the oldest one on overflow. */
+    BOUNDED_QUEUE,
+    /** Admits every Nth submitted frame and keeps the most recent one of those. */
+    EVERY_NTH_FRAME,
+    /** Admits frames no faster than a target rate and keeps the most recent one of those. */
+    TARGET_FPS
+  }
+
+  /** A frame that can either be processed or dropped by the scheduler. */
+  public interface Frame {
+    /**
+     * Starts processing this frame. The caller must eventually call {@link
+     * FrameScheduler#onFrameComplete()}, also when processing fails.
+     */
+    void process();
+
+    /** Releases the resources held by a frame which is never going to be processed. */
+    void drop(DropReason reason);
+  }
+
+  private final Policy policy;
+  private final int queueCapacity;
+  private final int frameInterval;
+  private final long minFrameIntervalMs;
+  private final int maxFramesInFlight;
+
+  // Single-slot policies hand frames over through this mailbox, so submitting a frame from the
+  // camera thread never waits on the thread completing the previous frame.
+  private final FrameMailbox<Frame> latestFrame = new FrameMailbox<>();
+
+  // Only used by BOUNDED_QUEUE.
+  private final Object lock = new Object();
+
+  @GuardedBy("lock")
+  private final ArrayDeque<Frame> pendingFrames = new ArrayDeque<>();
+
+  private final AtomicInteger framesInFlight = new AtomicInteger();
+  private final AtomicLong submittedFrameCount = new AtomicLong();
+  private final AtomicLong lastAdmittedFrameMs = new AtomicLong(Long.MIN_VALUE);
+  private volatile boolean isShutdown;
+
+  private FrameScheduler(
+      Policy policy,
+      int queueCapacity,
+      int frameInterval,
+      long minFrameIntervalMs,
+      int maxFramesInFlight) {
+    this.policy = policy;
+    this.queueCapacity = queueCapacity;
+    this.frameInterval = frameInterval;
+    this.minFrameIntervalMs = minFrameIntervalMs;
+    this.maxFramesInFlight = maxFramesInFlight;
+  }
+
+  /** Creates a scheduler which always continues with the most recent frame. */
+  public static FrameScheduler keepLatest() {
+    return new FrameScheduler(Policy.KEEP_LATEST, 1, 1, 0, 1);
+  }
+
+  /** Creates a scheduler which queues up to {@code capacity} frames. */
+  public static FrameScheduler boundedQueue(int capacity) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+    return new FrameScheduler(Policy.BOUNDED_QUEUE, capacity, 1, 0, 1);
+  }
+
+  /** Creates a scheduler which only considers every {@code n}th submitted frame. */
+  public static FrameScheduler everyNthFrame(int n) {
+    Preconditions.checkArgument(n > 0, "n must be positive");
+    return new FrameScheduler(Policy.EVERY_NTH_FRAME, 1, n, 0, 1);
+  }
+
+  /** Creates a scheduler which admits at most {@code fps} frames per second. */
+  public static FrameScheduler targetFps(float fps) {
+    Preconditions.checkArgument(fps > 0, "fps must be positive");
+    return new FrameScheduler(Policy.TARGET_FPS, 1, 1, (long) (1000 / fps), 1);
+  }
+
+  /**
+   * Returns a scheduler with the same policy which keeps up to {@code depth} frames in flight.
+   * Pipelining frames keeps the CPU busy while the detector of an earlier frame is still running,
+   * at the price of more memory held by frames in flight.
+   */
+  public FrameScheduler withMaxFramesInFlight(int depth) {
+    Preconditions.checkArgument(depth > 0, "depth must be positive");
+    return new FrameScheduler(policy, queueCapacity, frameInterval, minFrameIntervalMs, depth);
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int getMaxFramesInFlight() {
+    return maxFramesInFlight;
+  }
+
+  /**
+   * Submits a frame. The frame is either processed right away on the calling thread, kept pending
+   * until a frame in flight completes, or dropped.
+   */
+  public void submit(@NonNull Frame frame) {
+    if (isShutdown) {
+      frame.drop(DropReason.SHUTDOWN);
+      return;
+    }
+    if (!isAdmitted(SystemClock.elapsedRealtime())) {
+      frame.drop(DropReason.NOT_ADMITTED);
+      return;
+    }
+
+    Frame dropped;
+    if (queueCapacity == 1) {
+      dropped = latestFrame.offer(frame);
+    } else {
+      synchronized (lock) {
+        pendingFrames.addLast(frame);
+        dropped = pendingFrames.size() > queueCapacity ? pendingFrames.pollFirst() : null;
+      }
+    }
+    // Frames are released and processed outside of any lock, as both may call back into the
+    // scheduler.
+    if (dropped != null) {
+      dropped.drop(DropReason.REPLACED);
+    }
+    processNextIfIdle();
+  }
+
+  /**
+   * Processes a frame right away on the calling thread, bypassing the admission gate and the
+   * pending queue. The frame counts as in flight like any other, so {@link #onFrameComplete()}
+   * must be called for it as well, but it may exceed {@link #getMaxFramesInFlight()} while it is.
+   * Frames are only dropped once the scheduler is shut down.
+   */
+  public void processNow(@NonNull Frame frame) {
+    if (isShutdown) {
+      frame.drop(DropReason.SHUTDOWN);
+      return;
+    }
+    framesInFlight.incrementAndGet();
+    process(frame);
+  }
+
+  /** Marks a frame in flight as completed and starts processing the next pending frame. */
+  public void onFrameComplete() {
+    framesInFlight.decrementAndGet();
+    processNextIfIdle();
+  }
+
+  /** Drops all pending frames and rejects every frame submitted afterwards. */
+  public void shutdown() {
+    isShutdown = true;
+    Frame frame;
+    while ((frame = pollPendingFrame()) != null) {
+      frame.drop(DropReason.SHUTDOWN);
+    }
+  }
+
+  private void processNextIfIdle() {
+    // Whoever reserves an in-flight slot takes the next frame. If the pending frame vanished in the
+    // mean time, give the slot back and check again, since a producer may have offered a new frame
+    // right after our poll and lost the race for the slot against us.
+    while (tryReserveFrameSlot()) {
+      Frame next = pollPendingFrame();
+      if (next != null && !isShutdown) {
+        // Keep going, further pending frames may fit into the remaining slots.
+        process(next);
+        continue;
+      }
+      if (next != null) {
+        next.drop(DropReason.SHUTDOWN);
+      }
+      framesInFlight.decrementAndGet();
+      if (!hasPendingFrame()) {
+        return;
+      }
+    }
+  }
+
+  private boolean tryReserveFrameSlot() {
+    while (true) {
+      int count = framesInFlight.get();
+      if (count >= maxFramesInFlight) {
+        return false;
+      }
+      if (framesInFlight.compareAndSet(count, count + 1)) {
+        return true;
+      }
+    }
+  }
+
+  @Nullable
+  private Frame pollPendingFrame() {
+    if (queueCapacity == 1) {
+      return latestFrame.poll();
+    }
+    synchronized (lock) {
+      return pendingFrames.pollFirst();
+    }
+  }
+
+  private boolean hasPendingFrame() {
+    if (queueCapacity == 1) {
+      return !latestFrame.isEmpty();
+    }
+    synchronized (lock) {
+      return !pendingFrames.isEmpty();
+    }
+  }
+
+  private boolean isAdmitted(long nowMs) {
+    switch (policy) {
+      case EVERY_NTH_FRAME:
+        return submittedFrameCount.getAndIncrement() % frameInterval == 0;
+      case TARGET_FPS:
+        long lastMs = lastAdmittedFrameMs.get();
+        if (lastMs != Long.MIN_VALUE && nowMs - lastMs < minFrameIntervalMs) {
+          return false;
+        }
+        // Only one of several concurrent producers wins the slot of this interval.
+        return lastAdmittedFrameMs.compareAndSet(lastMs, nowMs);
+      case KEEP_LATEST:
+      case BOUNDED_QUEUE:
+      default:
+        return true;
+    }
+  }
+
+  private void process(Frame frame) {
+    try {
+      frame.process();
+    } catch (RuntimeException e) {
+      // Do not stall the pipeline if a frame fails before its detector task is created.
+      onFrameComplete();
+      throw e;
+    }
+  }
+}
@@ -21,6 +21,8 @@ import android.graphics.Canvas;
 import android.graphics.Matrix;
 import android.util.AttributeSet;
 import android.view.View;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
 import com.google.common.base.Preconditions;
 import java.util.ArrayList;
 import java.util.List;
@@ -46,7 +48,18 @@ import java.util.List;
  */
 public class GraphicOverlay extends View {
   private final Object lock = new Object();
-  private final List<Graphic> graphics = new ArrayList<>();
+  private List<Graphic> graphics = new ArrayList<>();
+  // Graphics of the next frame while they are built off the main thread, see beginUpdate().
+  @GuardedBy("lock")
+  @Nullable
+  private List<Graphic> pendingGraphics;
+  // The thread building the pending graphics.
+  @GuardedBy("lock")
+  @Nullable
+  private Thread updateThread;
+  // Whether another thread cleared the overlay since beginUpdate().
+  @GuardedBy("lock")
+  private boolean isUpdateDiscarded;
   // Matrix for transforming from image coordinates to overlay view coordinates.
   private final Matrix transformationMatrix = new Matrix();
 
@@ -63,6 +76,11 @@ public class GraphicOverlay extends View {
   private float postScaleHeightOffset;
   private boolean isImageFlipped;
   private boolean needUpdateTransformation = true;
+  // Sequence number of the frame whose graphics are currently shown, used to trace drawing.
+  private volatile long frameSequenceNumber = -1;
+  // Position of the detector input within the image for graphics created now, see setImageOffset.
+  private volatile int imageOffsetX;
+  private volatile int imageOffsetY;
 
   /**
    * Base class for a custom graphics object to be rendered within the graphic overlay. Subclass
@@ -71,9 +89,14 @@ public class GraphicOverlay extends View {
    */
   public abstract static class Graphic {
     private GraphicOverlay overlay;
+    private final int imageOffsetX;
+    private final int imageOffsetY;
+    @Nullable private Matrix offsetTransformationMatrix;
 
     public Graphic(GraphicOverlay overlay) {
       this.overlay = overlay;
+      this.imageOffsetX = overlay.imageOffsetX;
+      this.imageOffsetY = overlay.imageOffsetY;
     }
 
     /**
@@ -91,6 +114,12 @@ public class GraphicOverlay extends View {
      */
     public abstract void draw(Canvas canvas);
 
+    /**
+     * Called once the graphic has been removed from the overlay and will not be drawn anymore, e.g.
+     * to give resources it holds back to a pool. May be called from any thread.
+     */
+    protected void onRemoved() {}
+
     /** Adjusts the supplied value from the image scale to the view scale. */
     public float scale(float imagePixel) {
       return imagePixel * overlay.scaleFactor;
@@ -110,9 +139,9 @@ public class GraphicOverlay extends View {
      */
     public float translateX(float x) {
       if (overlay.isImageFlipped) {
-        return overlay.getWidth() - (scale(x) - overlay.postScaleWidthOffset);
+        return overlay.getWidth() - (scale(x + imageOffsetX) - overlay.postScaleWidthOffset);
       } else {
-        return scale(x) - overlay.postScaleWidthOffset;
+        return scale(x + imageOffsetX) - overlay.postScaleWidthOffset;
       }
     }
 
@@ -120,14 +149,22 @@ public class GraphicOverlay extends View {
      * Adjusts the y coordinate from the image's coordinate system to the view coordinate system.
      */
     public float translateY(float y) {
-      return scale(y) - overlay.postScaleHeightOffset;
+      return scale(y + imageOffsetY) - overlay.postScaleHeightOffset;
     }
 
     /**
      * Returns a {@link Matrix} for transforming from image coordinates to overlay view coordinates.
      */
     public Matrix getTransformationMatrix() {
-      return overlay.transformationMatrix;
+      if (imageOffsetX == 0 && imageOffsetY == 0) {
+        return overlay.transformationMatrix;
+      }
+      if (offsetTransformationMatrix == null) {
+        offsetTransformationMatrix = new Matrix();
+      }
+      offsetTransformationMatrix.set(overlay.transformationMatrix);
+      offsetTransformationMatrix.preTranslate(imageOffsetX, imageOffsetY);
+      return offsetTransformationMatrix;
     }
 
     public void postInvalidate() {
@@ -142,27 +179,108 @@ public class GraphicOverlay extends View {
             needUpdateTransformation = true);
   }
 
-  /** Removes all graphics from the overlay. */
+  /**
+   * Starts building the graphics of the next frame on the calling thread. Until {@link
+   * #commitUpdate()} is called on the same thread, {@link #add}, {@link #remove} and {@link #clear}
+   * called by this thread only change the pending graphics while the view keeps drawing the
+   * previous ones. This lets a background thread construct all graphics of a frame and hand them
+   * over with a single swap.
+   *
+   * <p>Other threads keep changing the drawn graphics. If one of them calls {@link #clear} in the
+   * meantime, the pending graphics are discarded as well, and the update shows nothing.
+   */
+  public void beginUpdate() {
+    synchronized (lock) {
+      pendingGraphics = new ArrayList<>();
+      updateThread = Thread.currentThread();
+      isUpdateDiscarded = false;
+    }
+  }
+
+  /** Replaces the drawn graphics with the ones collected since {@link #beginUpdate()}. */
+  public void commitUpdate() {
+    List<Graphic> removedGraphics;
+    boolean isDiscarded;
+    synchronized (lock) {
+      if (!isUpdatingOnCurrentThread()) {
+        return;
+      }
+      isDiscarded = isUpdateDiscarded;
+      if (isDiscarded) {
+        removedGraphics = pendingGraphics;
+      } else {
+        removedGraphics = graphics;
+        graphics = pendingGraphics;
+      }
+      pendingGraphics = null;
+      updateThread = null;
+    }
+    if (!isDiscarded) {
+      postInvalidate();
+    }
+    notifyRemoved(removedGraphics);
+  }
+
+  /**
+   * Removes all graphics from the overlay. Called by another thread than the one updating the
+   * overlay, this also discards the graphics of the update.
+   */
   public void clear() {
+    List<Graphic> removedGraphics;
+    boolean isPending;
     synchronized (lock) {
-      graphics.clear();
+      isPending = isUpdatingOnCurrentThread();
+      if (isPending) {
+        removedGraphics = pendingGraphics;
+        pendingGraphics = new ArrayList<>();
+      } else {
+        removedGraphics = graphics;
+        graphics = new ArrayList<>();
+        if (pendingGraphics != null) {
+          removedGraphics.addAll(pendingGraphics);
+          pendingGraphics = new ArrayList<>();
+          isUpdateDiscarded = true;
+        }
+      }
     }
-    postInvalidate();
+    if (!isPending) {
+      postInvalidate();
+    }
+    notifyRemoved(removedGraphics);
   }
 
   /** Adds a graphic to the overlay. */
   public void add(Graphic graphic) {
     synchronized (lock) {
-      graphics.add(graphic);
+      (isUpdatingOnCurrentThread() ? pendingGraphics : graphics).add(graphic);
     }
   }
 
   /** Removes a graphic from the overlay. */
   public void remove(Graphic graphic) {
+    boolean isPending;
+    boolean isRemoved;
     synchronized (lock) {
-      graphics.remove(graphic);
+      isPending = isUpdatingOnCurrentThread();
+      isRemoved = (isPending ? pendingGraphics : graphics).remove(graphic);
+    }
+    if (!isPending) {
+      postInvalidate();
+    }
+    if (isRemoved) {
+      graphic.onRemoved();
+    }
+  }
+
+  @GuardedBy("lock")
+  private boolean isUpdatingOnCurrentThread() {
+    return pendingGraphics != null && updateThread == Thread.currentThread();
+  }
+
+  private static void notifyRemoved(List<Graphic> removedGraphics) {
+    for (Graphic graphic : removedGraphics) {
+      graphic.onRemoved();
     }
-    postInvalidate();
   }
 
   /**
@@ -186,6 +304,22 @@ public class GraphicOverlay extends View {
     postInvalidate();
   }
 
+  /**
+   * Sets where the image the detector ran on starts within the image set with {@link
+   * #setImageSourceInfo}, when the detector only saw a crop of it. Graphics created afterwards
+   * shift their coordinates by this offset, so results of the crop are drawn at their place in
+   * the full image. Reset it to 0, 0 once the graphics of the crop are created.
+   */
+  public void setImageOffset(int imageOffsetX, int imageOffsetY) {
+    this.imageOffsetX = imageOffsetX;
+    this.imageOffsetY = imageOffsetY;
+  }
+
+  /** Sets the sequence number of the frame the current graphics belong to. */
+  public void setFrameSequenceNumber(long frameSequenceNumber) {
+    this.frameSequenceNumber = frameSequenceNumber;
+  }
+
   public int getImageWidth() {
     return imageWidth;
   }
@@ -228,6 +362,8 @@ public class GraphicOverlay extends View {
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
 
+    PipelineTracer tracer = PipelineTracer.getInstance();
+    long drawStartNs = tracer.beginSection(PipelineTracer.Stage.OVERLAY_DRAW);
     synchronized (lock) {
       updateTransformationIfNeeded();
 
@@ -235,5 +371,6 @@ public class GraphicOverlay extends View {
         graphic.draw(canvas);
       }
     }
+    tracer.endSection(frameSequenceNumber, PipelineTracer.Stage.OVERLAY_DRAW, drawStartNs);
   }
 }
@@ -20,6 +20,8 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.mlkit.vision.demo.FrameMetrics.DropReason;
 
 /** Graphic instance for rendering inference info (latency, FPS, resolution) in an overlay view. */
 public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
@@ -34,6 +36,14 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
 
   // Only valid when a stream of input images is being processed. Null for single image mode.
   @Nullable private final Integer framesPerSecond;
+  // Latency percentiles, null until the processor has taken its first snapshot.
+  @Nullable private final LatencyHistogram.Snapshot frameLatencySnapshot;
+  @Nullable private final LatencyHistogram.Snapshot detectorLatencySnapshot;
+  // Frame counters of the processor, null if not tracked.
+  @Nullable private final FrameMetrics.Snapshot frameMetricsSnapshot;
+  // Latency percentiles of single detectors, e.g. those of a composite processor. Replaced as a
+  // whole on every update, so that draw() reads a consistent list without taking the lock.
+  private volatile ImmutableList<String> detectorLatencyLines = ImmutableList.of();
   private boolean showLatencyInfo = true;
 
   public InferenceInfoGraphic(
@@ -41,11 +51,25 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
       long frameLatency,
       long detectorLatency,
       @Nullable Integer framesPerSecond) {
+    this(overlay, frameLatency, detectorLatency, framesPerSecond, null, null, null);
+  }
+
+  public InferenceInfoGraphic(
+      GraphicOverlay overlay,
+      long frameLatency,
+      long detectorLatency,
+      @Nullable Integer framesPerSecond,
+      @Nullable LatencyHistogram.Snapshot frameLatencySnapshot,
+      @Nullable LatencyHistogram.Snapshot detectorLatencySnapshot,
+      @Nullable FrameMetrics.Snapshot frameMetricsSnapshot) {
     super(overlay);
     this.overlay = overlay;
     this.frameLatency = frameLatency;
     this.detectorLatency = detectorLatency;
     this.framesPerSecond = framesPerSecond;
+    this.frameLatencySnapshot = frameLatencySnapshot;
+    this.detectorLatencySnapshot = detectorLatencySnapshot;
+    this.frameMetricsSnapshot = frameMetricsSnapshot;
     textPaint = new Paint();
     textPaint.setColor(TEXT_COLOR);
     textPaint.setTextSize(TEXT_SIZE);
@@ -53,6 +77,15 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
     postInvalidate();
   }
 
+  /** Adds the latency percentiles of the detector called {@code name} below the other info. */
+  public synchronized void addDetectorLatency(String name, LatencyHistogram.Snapshot snapshot) {
+    detectorLatencyLines =
+        ImmutableList.<String>builder()
+            .addAll(detectorLatencyLines)
+            .add(name + " " + formatPercentiles(snapshot))
+            .build();
+  }
+
   /** Creates an {@link InferenceInfoGraphic} to only display image size. */
   public InferenceInfoGraphic(GraphicOverlay overlay) {
     this(overlay, 0, 0, null);
@@ -60,7 +93,7 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
   }
 
   @Override
-  public synchronized void draw(Canvas canvas) {
+  public void draw(Canvas canvas) {
     float x = TEXT_SIZE * 0.5f;
     float y = TEXT_SIZE * 1.5f;
 
@@ -85,5 +118,66 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
     }
     canvas.drawText(
         "Detector latency: " + detectorLatency + " ms", x, y + TEXT_SIZE * 2, textPaint);
+
+    if (frameLatencySnapshot != null) {
+      canvas.drawText(
+          "Frame " + formatPercentiles(frameLatencySnapshot), x, y + TEXT_SIZE * 3, textPaint);
+    }
+    if (detectorLatencySnapshot != null) {
+      canvas.drawText(
+          "Detector " + formatPercentiles(detectorLatencySnapshot),
+          x,
+          y + TEXT_SIZE * 4,
+          textPaint);
+    }
+    if (frameMetricsSnapshot != null) {
+      canvas.drawText(
+          "Frames produced/admitted/completed: "
+              + frameMetricsSnapshot.getProducedCount()
+              + "/"
+              + frameMetricsSnapshot.getAdmittedCount()
+              + "/"
+              + frameMetricsSnapshot.getCompletedCount(),
+          x,
+          y + TEXT_SIZE * 5,
+          textPaint);
+      canvas.drawText(
+          "Dropped source/policy/replaced/late/shutdown/failed: "
+              + frameMetricsSnapshot.getDroppedCount(DropReason.SOURCE_BUSY)
+              + "/"
+              + frameMetricsSnapshot.getDroppedCount(DropReason.NOT_ADMITTED)
+              + "/"
+              + frameMetricsSnapshot.getDroppedCount(DropReason.REPLACED)
+              + "/"
+              + frameMetricsSnapshot.getDroppedCount(DropReason.LATE)
+              + "/"
+              + frameMetricsSnapshot.getDroppedCount(DropReason.SHUTDOWN)
+              + "/"
+              + frameMetricsSnapshot.getDroppedCount(DropReason.DETECTOR_FAILED),
+          x,
+          y + TEXT_SIZE * 6,
+          textPaint);
+      canvas.drawText(
+          "Time to first result: " + frameMetricsSnapshot.getTimeToFirstResultMs() + " ms",
+          x,
+          y + TEXT_SIZE * 7,
+          textPaint);
+    }
+    int row = frameMetricsSnapshot != null ? 8 : 5;
+    for (String line : detectorLatencyLines) {
+      canvas.drawText(line, x, y + TEXT_SIZE * row++, textPaint);
+    }
+  }
+
+  private static String formatPercentiles(LatencyHistogram.Snapshot snapshot) {
+    return "p50/p90/p99/p99.9: "
+        + snapshot.getP50Us() / 1000
+        + "/"
+        + snapshot.getP90Us() / 1000
+        + "/"
+        + snapshot.getP99Us() / 1000
+        + "/"
+        + snapshot.getP999Us() / 1000
+        + " ms";
   }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies into fixed log-linear buckets, so that percentiles can be reported without
+ * keeping individual samples.
+ *
+ * <p>Values are recorded in microseconds. Every power of two is split into {@code 16} linear
+ * sub-buckets, which bounds the relative error of a reported percentile to about 6%. The largest
+ * power of two covered is 2^{@code MAX_EXPONENT} us, so the largest bucket spans 31 * 2^27 us to
+ * 2^32 us (about 69 to 72 minutes), and values of 2^32 us and above are clamped into it.
+ *
+ * <p>{@link #record(long)} never allocates and may be called from any thread. {@link #snapshot()}
+ * copies the current counts into an immutable {@link Snapshot}.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 31;
+  private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  /** Records one latency value in microseconds. */
+  public void record(long valueUs) {
+    counts.incrementAndGet(bucketIndex(valueUs));
+  }
+
+  /** Records the time elapsed between two {@code elapsedRealtimeNanos} timestamps. */
+  public void recordNanos(long startNs, long endNs) {
+    record((endNs - startNs) / 1000);
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+  }
+
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy);
+  }
+
+  private static int bucketIndex(long valueUs) {
+    if (valueUs < SUB_BUCKET_COUNT) {
+      return (int) Math.max(valueUs, 0);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(valueUs);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (valueUs >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  /** Returns the value in the middle of the given bucket. */
+  private static long bucketMidpoint(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+    return lowerBound + ((1L << shift) >> 1);
+  }
+
+  /** Immutable view of a {@link LatencyHistogram} at a point in time. */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long totalCount;
+
+    private Snapshot(long[] counts) {
+      this.counts = counts;
+      long total = 0;
+      for (long count : counts) {
+        total += count;
+      }
+      this.totalCount = total;
+    }
+
+    public long getCount() {
+      return totalCount;
+    }
+
+    /**
+     * Returns the latency in microseconds below which the given percentage of all recorded values
+     * fall, or 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (totalCount == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return bucketMidpoint(i);
+        }
+      }
+      return bucketMidpoint(counts.length - 1);
+    }
+
+    public long getP50Us() {
+      return getValueAtPercentile(50);
+    }
+
+    public long getP90Us() {
+      return getValueAtPercentile(90);
+    }
+
+    public long getP99Us() {
+      return getValueAtPercentile(99);
+    }
+
+    public long getP999Us() {
+      return getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "n=%d, p50=%.1f ms, p90=%.1f ms, p99=%.1f ms, p99.9=%.1f ms",
+          totalCount,
+          getP50Us() / 1000f,
+          getP90Us() / 1000f,
+          getP99Us() / 1000f,
+          getP999Us() / 1000f);
+    }
+  }
+}
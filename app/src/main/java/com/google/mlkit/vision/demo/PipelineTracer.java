@@ -0,0 +1,216 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.os.Build.VERSION;
+import android.os.Build.VERSION_CODES;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records how long every frame spends in each stage of the vision pipeline.
+ *
+ * <p>Each section is emitted as an {@link android.os.Trace} section, so it shows up in systrace and
+ * Perfetto. While recording is enabled, sections are also stamped into a preallocated ring buffer
+ * keyed by frame sequence number, which can be written out as Chrome trace-event JSON (load it in
+ * chrome://tracing or ui.perfetto.dev) without attaching a profiler.
+ *
+ * <p>Recording a section never allocates. The ring buffer keeps the most recent {@link #CAPACITY}
+ * sections; older ones are overwritten.
+ */
+public final class PipelineTracer {
+
+  /** The stages of the pipeline a frame goes through. */
+  public enum Stage {
+    NV21_COPY("nv21Copy"),
+    BITMAP_CONVERSION("bitmapConversion"),
+    DETECTOR("detector"),
+    GRAPHICS("graphics"),
+    ON_SUCCESS("onSuccess"),
+    OVERLAY_DRAW("overlayDraw");
+
+    private final String sectionName;
+
+    Stage(String sectionName) {
+      this.sectionName = sectionName;
+    }
+
+    public String getSectionName() {
+      return sectionName;
+    }
+  }
+
+  public static final int CAPACITY = 8192;
+
+  private static final String TAG = "PipelineTracer";
+  private static final PipelineTracer INSTANCE = new PipelineTracer();
+
+  // Writes the dumps, off the thread stopping the pipeline.
+  private static final Executor DUMP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+  private final AtomicLong nextEvent = new AtomicLong();
+  // Sections before this one were dumped or cleared.
+  private final AtomicLong firstEvent = new AtomicLong();
+  private final long[] frameSequenceNumbers = new long[CAPACITY];
+  private final byte[] stages = new byte[CAPACITY];
+  private final int[] threadIds = new int[CAPACITY];
+  private final long[] startTimesNs = new long[CAPACITY];
+  private final long[] endTimesNs = new long[CAPACITY];
+
+  private volatile boolean isRecording;
+
+  private PipelineTracer() {}
+
+  public static PipelineTracer getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Enables or disables recording into the ring buffer. Trace sections are always emitted.
+   *
+   * <p>The tracer is shared by the whole process, so this is set once by the activity running the
+   * pipeline, not by the processors.
+   */
+  public void setRecording(boolean isRecording) {
+    this.isRecording = isRecording;
+  }
+
+  public boolean isRecording() {
+    return isRecording;
+  }
+
+  /**
+   * Begins a synchronous section on the calling thread. Must be closed by {@link #endSection} on
+   * the same thread.
+   *
+   * @return the start timestamp to pass to {@link #endSection}
+   */
+  public long beginSection(Stage stage) {
+    Trace.beginSection(stage.sectionName);
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  public void endSection(long frameSequenceNumber, Stage stage, long startNs) {
+    Trace.endSection();
+    record(frameSequenceNumber, stage, startNs, SystemClock.elapsedRealtimeNanos());
+  }
+
+  /**
+   * Begins a section which may end on a different thread, such as a detector task.
+   *
+   * @return the start timestamp to pass to {@link #endAsyncSection}
+   */
+  public long beginAsyncSection(long frameSequenceNumber, Stage stage) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.beginAsyncSection(stage.sectionName, (int) frameSequenceNumber);
+    }
+    return SystemClock.elapsedRealtimeNanos();
+  }
+
+  public void endAsyncSection(long frameSequenceNumber, Stage stage, long startNs) {
+    if (VERSION.SDK_INT >= VERSION_CODES.Q) {
+      Trace.endAsyncSection(stage.sectionName, (int) frameSequenceNumber);
+    }
+    record(frameSequenceNumber, stage, startNs, SystemClock.elapsedRealtimeNanos());
+  }
+
+  private void record(long frameSequenceNumber, Stage stage, long startNs, long endNs) {
+    if (!isRecording) {
+      return;
+    }
+    int slot = (int) (nextEvent.getAndIncrement() & (CAPACITY - 1));
+    frameSequenceNumbers[slot] = frameSequenceNumber;
+    stages[slot] = (byte) stage.ordinal();
+    threadIds[slot] = Process.myTid();
+    startTimesNs[slot] = startNs;
+    endTimesNs[slot] = endNs;
+  }
+
+  /** Discards all recorded sections. */
+  public void clear() {
+    firstEvent.set(nextEvent.get());
+  }
+
+  /**
+   * Writes the recorded sections as Chrome trace-event JSON.
+   *
+   * <p>Sections recorded while the trace is written may show up torn or be missing; stop recording
+   * first for an exact dump.
+   */
+  public void writeChromeTrace(Writer writer) throws IOException {
+    long end = nextEvent.get();
+    writeChromeTrace(writer, Math.max(firstEvent.get(), end - CAPACITY), end);
+  }
+
+  private void writeChromeTrace(Writer writer, long start, long end) throws IOException {
+    Stage[] allStages = Stage.values();
+    int pid = Process.myPid();
+
+    writer.write("{\"traceEvents\":[");
+    for (long event = start; event < end; event++) {
+      int slot = (int) (event & (CAPACITY - 1));
+      if (event != start) {
+        writer.write(',');
+      }
+      writer.write("\n{\"name\":\"");
+      writer.write(allStages[stages[slot]].sectionName);
+      writer.write("\",\"cat\":\"pipeline\",\"ph\":\"X\",\"pid\":");
+      writer.write(Integer.toString(pid));
+      writer.write(",\"tid\":");
+      writer.write(Integer.toString(threadIds[slot]));
+      writer.write(",\"ts\":");
+      writer.write(Long.toString(startTimesNs[slot] / 1000));
+      writer.write(",\"dur\":");
+      writer.write(Long.toString((endTimesNs[slot] - startTimesNs[slot]) / 1000));
+      writer.write(",\"args\":{\"frame\":");
+      writer.write(Long.toString(frameSequenceNumbers[slot]));
+      writer.write("}}");
+    }
+    writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+  }
+
+  /**
+   * Writes the sections recorded so far to {@code file} on a background thread, logs where the
+   * trace can be found, and discards them, so that the next dump only contains later sections.
+   *
+   * <p>Sections recorded after this call are not part of the dump, but may overwrite sections of it
+   * before they are written if more than {@link #CAPACITY} of them are recorded in the meantime.
+   */
+  public void dumpChromeTrace(File file) {
+    long end = nextEvent.get();
+    long start = Math.max(firstEvent.getAndSet(end), end - CAPACITY);
+    DUMP_EXECUTOR.execute(
+        () -> {
+          try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            writeChromeTrace(writer, start, end);
+            Log.i(TAG, "Pipeline trace written to " + file.getAbsolutePath());
+          } catch (IOException e) {
+            Log.e(TAG, "Failed to write pipeline trace to " + file.getAbsolutePath(), e);
+          }
+        });
+  }
+}
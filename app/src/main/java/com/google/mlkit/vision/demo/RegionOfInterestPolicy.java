@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Rect;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides which region of a frame the detector runs on.
+ *
+ * <p>With a fixed region, e.g. the reticle of a barcode scanner, every frame is cropped to that
+ * region. Otherwise the region is tracked from the results: the detector sees the whole frame
+ * every {@code fullFrameInterval} frames, and in between only the area around what it found last,
+ * grown by a margin so that moving targets stay inside. Whenever nothing was found, the next frame
+ * is processed whole again.
+ *
+ * <p>A tracked region only applies to the stream it was found in. It is forgotten on {@link
+ * #reset()}, and when a frame shows that the stream restarted: its source or geometry changed, or
+ * it was captured before the first frame of the current stream. Regions reported for frames of an
+ * earlier stream are ignored.
+ *
+ * <p>All regions are in upright frame coordinates, see {@link FrameMetadata#getCropRect()}. All
+ * methods may be called from any thread.
+ */
+public final class RegionOfInterestPolicy {
+
+  public static final int DEFAULT_FULL_FRAME_INTERVAL = 10;
+  public static final float DEFAULT_MARGIN = 0.25f;
+
+  private final int fullFrameInterval;
+  private final float margin;
+
+  @GuardedBy("this")
+  @Nullable
+  private Rect fixedRegion;
+
+  @GuardedBy("this")
+  @Nullable
+  private Rect trackedRegion;
+
+  // Number of cropped frames since the last full frame.
+  @GuardedBy("this")
+  private int croppedFrameCount;
+
+  // First frame of the stream the tracked region belongs to, null until a frame follows a reset.
+  @GuardedBy("this")
+  @Nullable
+  private FrameMetadata streamStart;
+
+  public RegionOfInterestPolicy() {
+    this(DEFAULT_FULL_FRAME_INTERVAL, DEFAULT_MARGIN);
+  }
+
+  /**
+   * @param fullFrameInterval the whole frame is processed once every this many frames
+   * @param margin how much the tracked region is grown on each side, relative to its size
+   */
+  public RegionOfInterestPolicy(int fullFrameInterval, float margin) {
+    Preconditions.checkArgument(fullFrameInterval >= 1, "fullFrameInterval must be at least 1");
+    Preconditions.checkArgument(margin >= 0, "margin must not be negative");
+    this.fullFrameInterval = fullFrameInterval;
+    this.margin = margin;
+  }
+
+  /** Restricts detection to {@code region}, or goes back to tracking if it is null. */
+  public synchronized void setFixedRegion(@Nullable Rect region) {
+    fixedRegion = region == null ? null : new Rect(region);
+  }
+
+  /**
+   * Forgets the tracked region, e.g. because the camera was switched or another video was chosen.
+   * Regions reported afterwards for frames passed to {@link #getCropRect} before are ignored.
+   */
+  public synchronized void reset() {
+    streamStart = null;
+    trackedRegion = null;
+    croppedFrameCount = 0;
+  }
+
+  /**
+   * Reports the area covering the results of a frame, or null if nothing was found.
+   *
+   * <p>Results may arrive out of order when several frames are in flight; the area is still a good
+   * enough guess for the frames that follow.
+   */
+  public synchronized void onRegionDetected(FrameMetadata frameMetadata, @Nullable Rect region) {
+    if (streamStart == null || !isSameStream(streamStart, frameMetadata)) {
+      return;
+    }
+    trackedRegion = region == null || region.isEmpty() ? null : new Rect(region);
+  }
+
+  /**
+   * Returns the region the given frame should be cropped to, or null to process the whole frame.
+   * Must be called once for every frame sent to the detector.
+   */
+  @Nullable
+  public synchronized Rect getCropRect(FrameMetadata frameMetadata) {
+    if (streamStart == null || !isSameStream(streamStart, frameMetadata)) {
+      reset();
+      streamStart = frameMetadata;
+    }
+    boolean isRotated = frameMetadata.getRotation() == 90 || frameMetadata.getRotation() == 270;
+    int width = isRotated ? frameMetadata.getHeight() : frameMetadata.getWidth();
+    int height = isRotated ? frameMetadata.getWidth() : frameMetadata.getHeight();
+
+    Rect region;
+    if (fixedRegion != null) {
+      region = new Rect(fixedRegion);
+    } else {
+      if (trackedRegion == null || croppedFrameCount >= fullFrameInterval - 1) {
+        croppedFrameCount = 0;
+        return null;
+      }
+      croppedFrameCount++;
+      region = new Rect(trackedRegion);
+      int marginX = (int) (region.width() * margin);
+      int marginY = (int) (region.height() * margin);
+      region.inset(-marginX, -marginY);
+    }
+
+    if (!region.intersect(0, 0, width, height)
+        || (region.width() == width && region.height() == height)) {
+      return null;
+    }
+    return region;
+  }
+
+  /** Whether {@code frameMetadata} belongs to the stream which started with {@code start}. */
+  private static boolean isSameStream(FrameMetadata start, FrameMetadata frameMetadata) {
+    return frameMetadata.getSource() == start.getSource()
+        && frameMetadata.getWidth() == start.getWidth()
+        && frameMetadata.getHeight() == start.getHeight()
+        && frameMetadata.getRotation() == start.getRotation()
+        && frameMetadata.getSequenceNumber() >= start.getSequenceNumber()
+        && frameMetadata.getCaptureTimeNs() >= start.getCaptureTimeNs();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.mlkit.common.MlKitException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the frames of a {@link FrameRecording} to a {@link VisionImageProcessor}, the way {@link
+ * CameraSource} feeds camera frames.
+ *
+ * <p>Frames keep their recorded metadata, except for the capture time, which is moved to the
+ * moment of replay so that latencies are measured as for live frames. At {@link Speed#ORIGINAL}
+ * frames are submitted at the recorded capture times, which reproduces the load of the original
+ * session. At {@link Speed#MAXIMUM} a frame is submitted as soon as the previous one is completed
+ * or dropped, see {@link VisionImageProcessor#getPendingFrameCount()}, so every run sees the same
+ * frames in the same order and the processor never drops a frame for being busy. This makes runs
+ * before and after a change comparable.
+ */
+public final class ReplayFrameSource {
+
+  /** How fast frames are replayed. */
+  public enum Speed {
+    ORIGINAL,
+    MAXIMUM
+  }
+
+  private static final String TAG = "ReplayFrameSource";
+  private static final long PENDING_FRAME_POLL_INTERVAL_MS = 1;
+
+  private final FrameRecording recording;
+  private final Speed speed;
+
+  @GuardedBy("this")
+  @Nullable
+  private Thread replayThread;
+
+  public ReplayFrameSource(FrameRecording recording, Speed speed) {
+    this.recording = recording;
+    this.speed = speed;
+  }
+
+  /** Starts replaying all frames on a thread of its own. */
+  public synchronized void start(VisionImageProcessor processor, GraphicOverlay graphicOverlay) {
+    stop();
+    replayThread =
+        new Thread(
+            () -> {
+              try {
+                replay(processor, graphicOverlay);
+              } catch (InterruptedException e) {
+                Log.d(TAG, "Replay stopped.");
+              }
+            },
+            TAG);
+    replayThread.start();
+  }
+
+  /** Stops replaying and waits for the replay thread to finish. */
+  public synchronized void stop() {
+    if (replayThread == null) {
+      return;
+    }
+    replayThread.interrupt();
+    try {
+      replayThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    replayThread = null;
+  }
+
+  /**
+   * Replays all frames on the calling thread. Returns once the last frame was submitted, and at
+   * {@link Speed#MAXIMUM} once it was also completed or dropped.
+   */
+  @WorkerThread
+  public void replay(VisionImageProcessor processor, GraphicOverlay graphicOverlay)
+      throws InterruptedException {
+    if (recording.getFrameCount() == 0) {
+      return;
+    }
+    long startNs = SystemClock.elapsedRealtimeNanos();
+    long firstCaptureTimeNs = recording.getFrame(0).getFrameMetadata().getCaptureTimeNs();
+    for (int i = 0; i < recording.getFrameCount(); i++) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      FrameRecording.Frame frame = recording.getFrame(i);
+      if (frame.getFormat() != ImageFormat.NV21) {
+        Log.w(TAG, "Skipping frame in unsupported format " + frame.getFormat());
+        continue;
+      }
+      FrameMetadata recordedMetadata = frame.getFrameMetadata();
+      if (speed == Speed.ORIGINAL) {
+        long delayNs =
+            startNs
+                + (recordedMetadata.getCaptureTimeNs() - firstCaptureTimeNs)
+                - SystemClock.elapsedRealtimeNanos();
+        if (delayNs > 0) {
+          TimeUnit.NANOSECONDS.sleep(delayNs);
+        }
+      }
+      FrameMetadata frameMetadata =
+          recordedMetadata.toBuilder().setCaptureTimeNs(SystemClock.elapsedRealtimeNanos()).build();
+      try {
+        processor.processByteBuffer(frame.getData(), frameMetadata, graphicOverlay);
+      } catch (MlKitException e) {
+        Log.e(TAG, "Failed to process replayed frame " + recordedMetadata.getSequenceNumber(), e);
+      }
+      if (speed == Speed.MAXIMUM) {
+        awaitPendingFrames(processor);
+      }
+    }
+  }
+
+  private static void awaitPendingFrames(VisionImageProcessor processor)
+      throws InterruptedException {
+    while (processor.getPendingFrameCount() > 0) {
+      Thread.sleep(PENDING_FRAME_POLL_INTERVAL_MS);
+    }
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.util.Log;
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import com.google.common.base.Preconditions;
+
+/**
+ * Picks the detector input resolution from the detector latency, so that the detector keeps up
+ * with a target frame rate at the highest resolution the device can sustain.
+ *
+ * <p>The resolution is chosen from a fixed ladder of long edge sizes. Detector latencies are
+ * collected in windows of 15 frames. When the 90th percentile of a window exceeds the frame
+ * budget, the resolution steps down right away. It only steps up again after three consecutive
+ * windows stayed below half of the budget, since the next level costs up to about twice as much.
+ * The window following a change is ignored, as it still contains frames of the previous
+ * resolution. Together this keeps the resolution from oscillating between two levels.
+ */
+public final class ResolutionController {
+
+  /** Listener notified on the thread reporting latencies when the target size changes. */
+  public interface Listener {
+    void onTargetLongEdgeChanged(int targetLongEdge);
+  }
+
+  public static final float DEFAULT_TARGET_FPS = 20;
+
+  private static final String TAG = "ResolutionController";
+  private static final int WINDOW_SIZE = 15;
+  private static final int FAST_WINDOWS_TO_STEP_UP = 3;
+  private static final int[] LONG_EDGE_LADDER = {240, 320, 480, 640, 800, 960, 1280};
+  private static final double STEP_UP_BUDGET_FRACTION = 0.5;
+
+  private final long frameBudgetUs;
+  private final LatencyHistogram windowLatencyHistogram = new LatencyHistogram();
+
+  @GuardedBy("this")
+  private int level;
+
+  @GuardedBy("this")
+  private int windowFrameCount;
+
+  @GuardedBy("this")
+  private int fastWindowCount;
+
+  @GuardedBy("this")
+  private boolean skipNextWindow;
+
+  @Nullable private volatile Listener listener;
+  private volatile int targetLongEdge;
+
+  /**
+   * @param targetFps the frame rate the detector should sustain
+   * @param initialLongEdge the size to start from, rounded to the nearest level of the ladder
+   */
+  public ResolutionController(float targetFps, int initialLongEdge) {
+    Preconditions.checkArgument(targetFps > 0, "targetFps must be positive");
+    frameBudgetUs = (long) (1_000_000 / targetFps);
+    level = nearestLevel(initialLongEdge);
+    targetLongEdge = LONG_EDGE_LADDER[level];
+  }
+
+  public void setListener(@Nullable Listener listener) {
+    this.listener = listener;
+  }
+
+  /** Returns the long edge, in pixels, the detector input should be scaled to. */
+  public int getTargetLongEdge() {
+    return targetLongEdge;
+  }
+
+  /** Reports the detector latency of a frame processed at the current target size. */
+  public void onFrameProcessed(long detectorLatencyUs) {
+    int newLongEdge;
+    synchronized (this) {
+      windowLatencyHistogram.record(detectorLatencyUs);
+      if (++windowFrameCount < WINDOW_SIZE) {
+        return;
+      }
+      long p90Us = windowLatencyHistogram.snapshot().getP90Us();
+      windowLatencyHistogram.reset();
+      windowFrameCount = 0;
+      if (skipNextWindow) {
+        skipNextWindow = false;
+        return;
+      }
+
+      int newLevel = level;
+      if (p90Us > frameBudgetUs) {
+        fastWindowCount = 0;
+        newLevel = Math.max(0, level - 1);
+      } else if (p90Us < frameBudgetUs * STEP_UP_BUDGET_FRACTION) {
+        if (++fastWindowCount >= FAST_WINDOWS_TO_STEP_UP) {
+          fastWindowCount = 0;
+          newLevel = Math.min(LONG_EDGE_LADDER.length - 1, level + 1);
+        }
+      } else {
+        fastWindowCount = 0;
+      }
+      if (newLevel == level) {
+        return;
+      }
+      level = newLevel;
+      skipNextWindow = true;
+      newLongEdge = LONG_EDGE_LADDER[newLevel];
+      targetLongEdge = newLongEdge;
+      Log.d(TAG, "Detector p90 " + p90Us / 1000 + " ms, target long edge now " + newLongEdge);
+    }
+
+    Listener currentListener = listener;
+    if (currentListener != null) {
+      currentListener.onTargetLongEdgeChanged(newLongEdge);
+    }
+  }
+
+  private static int nearestLevel(int longEdge) {
+    int nearest = 0;
+    for (int i = 1; i < LONG_EDGE_LADDER.length; i++) {
+      if (Math.abs(LONG_EDGE_LADDER[i] - longEdge)
+          < Math.abs(LONG_EDGE_LADDER[nearest] - longEdge)) {
+        nearest = i;
+      }
+    }
+    return nearest;
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts a frame into its final ARGB pixels in a single pass, rotating it upright, mirroring or
+ * flipping it, and scaling it to the target size while writing.
+ *
+ * <p>Every output pixel covers a box of the input. When downscaling, luma, or RGB for RGBA input,
+ * is averaged over the box, while chroma is sampled once at the center of the box, so every input
+ * byte is read at most once. When upscaling, the nearest input pixel is taken. NV21 colors follow
+ * {@link YuvToArgbConverter}.
+ *
+ * <p>Like {@link YuvToArgbConverter}, input without an accessible array and the pixels of a bitmap
+ * go through buffers kept per thread, so converting a frame allocates nothing once a thread has
+ * converted a frame of the same size.
+ */
+public final class ScalingFrameConverter {
+
+  private static final int RGBA_BYTES_PER_PIXEL = 4;
+
+  /** Buffers reused by the conversions of a thread. */
+  private static final class Scratch {
+    private byte[] input = new byte[0];
+    private int[] columnStart = new int[0];
+    private int[] columnEnd = new int[0];
+    private int[] rowStart = new int[0];
+    private int[] rowEnd = new int[0];
+  }
+
+  private static final ThreadLocal<Scratch> SCRATCH =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
+  private ScalingFrameConverter() {}
+
+  /**
+   * Converts an NV21 frame into {@code out}, which receives {@code outWidth * outHeight} pixels of
+   * the upright, mirrored or flipped and scaled image row by row. The frame starts at the position
+   * of {@code nv21}, which is left unchanged.
+   *
+   * @param rotationDegrees the clockwise rotation which makes the frame upright, one of 0, 90, 180
+   *     and 270
+   * @param mirror whether to mirror the upright image horizontally
+   * @param flip whether to flip the upright image vertically
+   */
+  public static void nv21ToArgb(
+      ByteBuffer nv21,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      boolean flip,
+      int outWidth,
+      int outHeight,
+      int[] out) {
+    Scratch scratch = SCRATCH.get();
+    int size = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    byte[] data;
+    int offset;
+    if (nv21.hasArray()) {
+      data = nv21.array();
+      offset = nv21.arrayOffset() + nv21.position();
+    } else {
+      scratch.input = copy(nv21, size, scratch.input);
+      data = scratch.input;
+      offset = 0;
+    }
+    boolean isTransposed =
+        prepareBoxes(scratch, width, height, rotationDegrees, mirror, flip, outWidth, outHeight);
+    int vuOffset = offset + width * height;
+    int outIndex = 0;
+    for (int outY = 0; outY < outHeight; outY++) {
+      for (int outX = 0; outX < outWidth; outX++) {
+        int x0;
+        int x1;
+        int y0;
+        int y1;
+        if (isTransposed) {
+          x0 = scratch.rowStart[outY];
+          x1 = scratch.rowEnd[outY];
+          y0 = scratch.columnStart[outX];
+          y1 = scratch.columnEnd[outX];
+        } else {
+          x0 = scratch.columnStart[outX];
+          x1 = scratch.columnEnd[outX];
+          y0 = scratch.rowStart[outY];
+          y1 = scratch.rowEnd[outY];
+        }
+        int sum = 0;
+        for (int y = y0; y < y1; y++) {
+          int rowOffset = offset + y * width;
+          for (int x = x0; x < x1; x++) {
+            sum += data[rowOffset + x] & 0xff;
+          }
+        }
+        int luma = sum / ((x1 - x0) * (y1 - y0));
+        // The chroma sample covering the center of the box.
+        int vuIndex = vuOffset + ((y0 + y1 - 1) >> 2) * width + ((x0 + x1 - 1) >> 2) * 2;
+        out[outIndex++] =
+            YuvToArgbConverter.toArgb(luma, data[vuIndex + 1] & 0xff, data[vuIndex] & 0xff);
+      }
+    }
+  }
+
+  /**
+   * Converts an RGBA frame, 4 bytes per pixel in R, G, B, A order and rows of {@code width}
+   * pixels, e.g. as read by {@code glReadPixels}, into {@code out} like {@link #nv21ToArgb}. The
+   * alpha channel is ignored.
+   */
+  public static void rgbaToArgb(
+      ByteBuffer rgba,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      boolean flip,
+      int outWidth,
+      int outHeight,
+      int[] out) {
+    Scratch scratch = SCRATCH.get();
+    int rowBytes = width * RGBA_BYTES_PER_PIXEL;
+    byte[] data;
+    int offset;
+    if (rgba.hasArray()) {
+      data = rgba.array();
+      offset = rgba.arrayOffset() + rgba.position();
+    } else {
+      scratch.input = copy(rgba, rowBytes * height, scratch.input);
+      data = scratch.input;
+      offset = 0;
+    }
+    boolean isTransposed =
+        prepareBoxes(scratch, width, height, rotationDegrees, mirror, flip, outWidth, outHeight);
+    int outIndex = 0;
+    for (int outY = 0; outY < outHeight; outY++) {
+      for (int outX = 0; outX < outWidth; outX++) {
+        int x0;
+        int x1;
+        int y0;
+        int y1;
+        if (isTransposed) {
+          x0 = scratch.rowStart[outY];
+          x1 = scratch.rowEnd[outY];
+          y0 = scratch.columnStart[outX];
+          y1 = scratch.columnEnd[outX];
+        } else {
+          x0 = scratch.columnStart[outX];
+          x1 = scratch.columnEnd[outX];
+          y0 = scratch.rowStart[outY];
+          y1 = scratch.rowEnd[outY];
+        }
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        for (int y = y0; y < y1; y++) {
+          int index = offset + y * rowBytes + x0 * RGBA_BYTES_PER_PIXEL;
+          int rowEnd = offset + y * rowBytes + x1 * RGBA_BYTES_PER_PIXEL;
+          for (; index < rowEnd; index += RGBA_BYTES_PER_PIXEL) {
+            r += data[index] & 0xff;
+            g += data[index + 1] & 0xff;
+            b += data[index + 2] & 0xff;
+          }
+        }
+        int area = (x1 - x0) * (y1 - y0);
+        out[outIndex++] = 0xff000000 | ((r / area) << 16) | ((g / area) << 8) | (b / area);
+      }
+    }
+  }
+
+  /**
+   * Scales an NV21 frame down into {@code out}, which receives an NV21 frame of {@code outWidth *
+   * outHeight} pixels, both even. Luma is averaged and chroma sampled like in {@link #nv21ToArgb},
+   * but the frame is neither rotated nor converted, e.g. for a detector which takes NV21 input.
+   */
+  public static void scaleNv21(
+      ByteBuffer nv21, int width, int height, int outWidth, int outHeight, byte[] out) {
+    Scratch scratch = SCRATCH.get();
+    int size = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    byte[] data;
+    int offset;
+    if (nv21.hasArray()) {
+      data = nv21.array();
+      offset = nv21.arrayOffset() + nv21.position();
+    } else {
+      scratch.input = copy(nv21, size, scratch.input);
+      data = scratch.input;
+      offset = 0;
+    }
+    prepareBoxes(
+        scratch,
+        width,
+        height,
+        /* rotationDegrees= */ 0,
+        /* mirror= */ false,
+        /* flip= */ false,
+        outWidth,
+        outHeight);
+    int outIndex = 0;
+    for (int outY = 0; outY < outHeight; outY++) {
+      int y0 = scratch.rowStart[outY];
+      int y1 = scratch.rowEnd[outY];
+      for (int outX = 0; outX < outWidth; outX++) {
+        int x0 = scratch.columnStart[outX];
+        int x1 = scratch.columnEnd[outX];
+        int sum = 0;
+        for (int y = y0; y < y1; y++) {
+          int rowOffset = offset + y * width;
+          for (int x = x0; x < x1; x++) {
+            sum += data[rowOffset + x] & 0xff;
+          }
+        }
+        out[outIndex++] = (byte) (sum / ((x1 - x0) * (y1 - y0)));
+      }
+    }
+    // Every chroma sample of the output covers the boxes of 2x2 output pixels.
+    int vuOffset = offset + width * height;
+    for (int outY = 0; outY < outHeight; outY += 2) {
+      int y0 = scratch.rowStart[outY];
+      int y1 = scratch.rowEnd[outY + 1];
+      for (int outX = 0; outX < outWidth; outX += 2) {
+        int x0 = scratch.columnStart[outX];
+        int x1 = scratch.columnEnd[outX + 1];
+        int vuIndex = vuOffset + ((y0 + y1 - 1) >> 2) * width + ((x0 + x1 - 1) >> 2) * 2;
+        out[outIndex++] = data[vuIndex];
+        out[outIndex++] = data[vuIndex + 1];
+      }
+    }
+  }
+
+  /**
+   * Converts an NV21 frame into {@code bitmap}, an ARGB_8888 bitmap whose size is the target size.
+   */
+  public static void nv21ToBitmap(
+      ByteBuffer nv21,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      boolean flip,
+      Bitmap bitmap) {
+    int outWidth = bitmap.getWidth();
+    int outHeight = bitmap.getHeight();
+    int[] pixels = YuvToArgbConverter.getPixels(outWidth * outHeight);
+    nv21ToArgb(nv21, width, height, rotationDegrees, mirror, flip, outWidth, outHeight, pixels);
+    bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+  }
+
+  /**
+   * Converts an RGBA frame into {@code bitmap}, an ARGB_8888 bitmap whose size is the target size.
+   */
+  public static void rgbaToBitmap(
+      ByteBuffer rgba,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      boolean flip,
+      Bitmap bitmap) {
+    int outWidth = bitmap.getWidth();
+    int outHeight = bitmap.getHeight();
+    int[] pixels = YuvToArgbConverter.getPixels(outWidth * outHeight);
+    rgbaToArgb(rgba, width, height, rotationDegrees, mirror, flip, outWidth, outHeight, pixels);
+    bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+  }
+
+  /**
+   * Computes the input box of every output column and row. Rotations by 180 and 270 degrees are
+   * rotations by 0 and 90 degrees with the image mirrored and flipped. Columns map to input columns
+   * and rows to input rows, unless the result is true: then the frame is rotated by 90 degrees, and
+   * columns map to input rows and rows to input columns.
+   */
+  private static boolean prepareBoxes(
+      Scratch scratch,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      boolean flip,
+      int outWidth,
+      int outHeight) {
+    if (rotationDegrees == 180 || rotationDegrees == 270) {
+      mirror = !mirror;
+      flip = !flip;
+    }
+    boolean isTransposed = rotationDegrees == 90 || rotationDegrees == 270;
+    scratch.columnStart = ensureCapacity(scratch.columnStart, outWidth);
+    scratch.columnEnd = ensureCapacity(scratch.columnEnd, outWidth);
+    scratch.rowStart = ensureCapacity(scratch.rowStart, outHeight);
+    scratch.rowEnd = ensureCapacity(scratch.rowEnd, outHeight);
+    if (isTransposed) {
+      // The upright image is the input turned clockwise: its columns run along the input rows from
+      // the bottom, and its rows along the input columns.
+      computeBoxes(height, outWidth, !mirror, scratch.columnStart, scratch.columnEnd);
+      computeBoxes(width, outHeight, flip, scratch.rowStart, scratch.rowEnd);
+    } else {
+      computeBoxes(width, outWidth, mirror, scratch.columnStart, scratch.columnEnd);
+      computeBoxes(height, outHeight, flip, scratch.rowStart, scratch.rowEnd);
+    }
+    return isTransposed;
+  }
+
+  /**
+   * Splits {@code inputLength} input pixels into {@code outputLength} boxes of at least one pixel,
+   * counted from the end of the input if {@code isReversed}.
+   */
+  private static void computeBoxes(
+      int inputLength, int outputLength, boolean isReversed, int[] start, int[] end) {
+    for (int i = 0; i < outputLength; i++) {
+      int boxStart = (int) ((long) i * inputLength / outputLength);
+      int boxEnd = Math.max((int) ((long) (i + 1) * inputLength / outputLength), boxStart + 1);
+      if (isReversed) {
+        start[i] = inputLength - boxEnd;
+        end[i] = inputLength - boxStart;
+      } else {
+        start[i] = boxStart;
+        end[i] = boxEnd;
+      }
+    }
+  }
+
+  private static byte[] copy(ByteBuffer buffer, int size, byte[] scratch) {
+    byte[] bytes = scratch.length < size ? new byte[size] : scratch;
+    buffer.duplicate().get(bytes, 0, size);
+    return bytes;
+  }
+
+  private static int[] ensureCapacity(int[] values, int size) {
+    return values.length < size ? new int[size] : values;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import java.util.Locale;
+
+/**
+ * Measures how many frames per second complete, from the completion timestamps over sliding
+ * windows of 1 and 10 seconds.
+ *
+ * <p>Rates are recomputed whenever a frame is recorded and published as an immutable {@link Rates}
+ * object, so they can be read from any thread without locking. No timer thread is involved; the
+ * rates therefore only change when frames complete.
+ *
+ * <p>The last {@link #CAPACITY} timestamps are kept, so the 10 second rate saturates at about 200
+ * frames per second.
+ */
+public final class ThroughputMeter {
+
+  public static final int CAPACITY = 2048;
+
+  private static final long ONE_SECOND_NS = 1_000_000_000L;
+  private static final long TEN_SECONDS_NS = 10 * ONE_SECOND_NS;
+
+  @GuardedBy("this")
+  private final long[] timestampsNs = new long[CAPACITY];
+
+  // Number of timestamps recorded so far. The timestamp number i is at index i % CAPACITY.
+  @GuardedBy("this")
+  private long count;
+
+  // Number of the oldest timestamp within the 1 and 10 second windows.
+  @GuardedBy("this")
+  private long oneSecondTail;
+
+  @GuardedBy("this")
+  private long tenSecondTail;
+
+  @GuardedBy("this")
+  private long firstTimestampNs;
+
+  private volatile Rates rates = new Rates(0, 0, 0);
+
+  /** Records a frame completed at the given {@code elapsedRealtimeNanos} timestamp. */
+  public synchronized void record(long timestampNs) {
+    if (count == 0) {
+      firstTimestampNs = timestampNs;
+    }
+    timestampsNs[index(count)] = timestampNs;
+    count++;
+
+    long oldestKept = Math.max(0, count - CAPACITY);
+    oneSecondTail = advanceTail(Math.max(oneSecondTail, oldestKept), timestampNs - ONE_SECOND_NS);
+    tenSecondTail = advanceTail(Math.max(tenSecondTail, oldestKept), timestampNs - TEN_SECONDS_NS);
+
+    double instantaneousRate = 0;
+    if (count >= 2) {
+      long intervalNs = timestampNs - timestampsNs[index(count - 2)];
+      instantaneousRate = intervalNs > 0 ? (double) ONE_SECOND_NS / intervalNs : 0;
+    }
+    rates =
+        new Rates(
+            instantaneousRate,
+            rateOver(oneSecondTail, timestampNs, ONE_SECOND_NS),
+            rateOver(tenSecondTail, timestampNs, TEN_SECONDS_NS));
+  }
+
+  /** Returns the rates as of the most recently recorded frame. */
+  public Rates getRates() {
+    return rates;
+  }
+
+  @GuardedBy("this")
+  private long advanceTail(long tail, long windowStartNs) {
+    while (tail < count - 1 && timestampsNs[index(tail)] <= windowStartNs) {
+      tail++;
+    }
+    return tail;
+  }
+
+  @GuardedBy("this")
+  private double rateOver(long tail, long nowNs, long windowNs) {
+    long frames = count - tail;
+    if (nowNs - firstTimestampNs >= windowNs) {
+      return frames * (double) ONE_SECOND_NS / windowNs;
+    }
+    // Until a whole window has passed, measure between the first and the last frame instead.
+    long spanNs = nowNs - timestampsNs[index(tail)];
+    return frames >= 2 && spanNs > 0 ? (frames - 1) * (double) ONE_SECOND_NS / spanNs : 0;
+  }
+
+  private static int index(long number) {
+    return (int) (number & (CAPACITY - 1));
+  }
+
+  /** Frame rates published by a {@link ThroughputMeter}, in frames per second. */
+  public static final class Rates {
+    private final double instantaneousRate;
+    private final double oneSecondRate;
+    private final double tenSecondRate;
+
+    private Rates(double instantaneousRate, double oneSecondRate, double tenSecondRate) {
+      this.instantaneousRate = instantaneousRate;
+      this.oneSecondRate = oneSecondRate;
+      this.tenSecondRate = tenSecondRate;
+    }
+
+    /** Returns the rate derived from the interval between the last two frames. */
+    public double getInstantaneousRate() {
+      return instantaneousRate;
+    }
+
+    public double getOneSecondRate() {
+      return oneSecondRate;
+    }
+
+    public double getTenSecondRate() {
+      return tenSecondRate;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "instantaneous=%.1f fps, 1s=%.1f fps, 10s=%.1f fps",
+          instantaneousRate,
+          oneSecondRate,
+          tenSecondRate);
+    }
+  }
+}
@@ -18,9 +18,11 @@ package com.google.mlkit.vision.demo;
 
 import android.graphics.Bitmap;
 import android.os.Build.VERSION_CODES;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.camera.core.ImageProxy;
 import com.google.mlkit.common.MlKitException;
+import java.io.File;
 import java.nio.ByteBuffer;
 
 /** An interface to process the images with different vision detectors and custom image models. */
@@ -29,15 +31,72 @@ public interface VisionImageProcessor {
   /** Processes a bitmap image. */
   void processBitmap(Bitmap bitmap, GraphicOverlay graphicOverlay);
 
-  /** Processes ByteBuffer image data, e.g. used for Camera1 live preview case. */
+  /** Processes a bitmap frame of a stream, e.g. used for the video case. */
+  default void processBitmap(
+      Bitmap bitmap, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay) {
+    processBitmap(bitmap, graphicOverlay);
+  }
+
+  /**
+   * Processes ByteBuffer image data, e.g. used for Camera1 live preview case. Unless the processor
+   * accepted a listener with {@link #setOnByteBufferReleasedListener}, the caller may reuse {@code
+   * data} as soon as this method returns.
+   */
   void processByteBuffer(
       ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
       throws MlKitException;
 
+  /**
+   * Asks the processor to keep every buffer handed to {@link #processByteBuffer} until it no longer
+   * uses it, and then to tell {@code listener}. Processors which do not support this ignore the
+   * listener.
+   *
+   * @return whether the processor keeps buffers and calls the listener
+   */
+  default boolean setOnByteBufferReleasedListener(
+      @Nullable OnByteBufferReleasedListener listener) {
+    return false;
+  }
+
   /** Processes ImageProxy image data, e.g. used for CameraX live preview case. */
   @RequiresApi(VERSION_CODES.KITKAT)
   void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) throws MlKitException;
 
+  /**
+   * Tells the processor that the frames which follow do not continue the ones before, e.g. because
+   * the camera was switched or another video was chosen, so that nothing it learned from earlier
+   * frames, such as a region of interest, is applied to them.
+   */
+  default void onStreamRestarted() {}
+
+  /**
+   * Writes the pipeline trace recorded so far, see {@link PipelineTracer}, without stopping the
+   * processor.
+   *
+   * @return the file the trace is written to, or null if the processor records no trace
+   */
+  @Nullable
+  default File dumpPipelineTrace() {
+    return null;
+  }
+
   /** Stops the underlying machine learning model and release resources. */
   void stop();
+
+  /**
+   * Returns the number of submitted frames which were neither completed nor dropped yet, or -1 if
+   * the processor does not keep count.
+   */
+  default long getPendingFrameCount() {
+    return -1;
+  }
+
+  /** Learns when a buffer handed to the processor is no longer used, e.g. to reuse it. */
+  interface OnByteBufferReleasedListener {
+    /**
+     * Called once {@code data} has been processed or dropped, also for frames still in flight when
+     * the processor is stopped. May be called from any thread.
+     */
+    void onByteBufferReleased(ByteBuffer data);
+  }
 }
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import android.graphics.Bitmap;
+import android.media.Image.Plane;
+import android.os.Build.VERSION_CODES;
+import androidx.annotation.RequiresApi;
+import java.nio.ByteBuffer;
+
+/**
+ * Converts YUV 4:2:0 frames, NV21 or YUV_420_888, straight into ARGB pixels, rotating them upright
+ * and optionally mirroring them while writing. Colors follow full range BT.601, as used by the
+ * camera and by JPEG, in 16 bit fixed point.
+ *
+ * <p>Pixels are written into an {@code int[]} of the caller, or into a {@link Bitmap} through a
+ * buffer kept per thread, so converting a frame allocates nothing once a thread has converted a
+ * frame of the same size.
+ */
+public final class YuvToArgbConverter {
+
+  // Full range BT.601 coefficients, scaled by 2^16.
+  private static final int SHIFT = 16;
+  private static final int ROUNDING = 1 << (SHIFT - 1);
+  private static final int R_FROM_V = 91881; // 1.402
+  private static final int G_FROM_U = 22554; // 0.344136
+  private static final int G_FROM_V = 46802; // 0.714136
+  private static final int B_FROM_U = 116130; // 1.772
+
+  /** Buffers reused by the conversions of a thread. */
+  private static final class Scratch {
+    private byte[] y = new byte[0];
+    private byte[] u = new byte[0];
+    private byte[] v = new byte[0];
+    private int[] pixels = new int[0];
+  }
+
+  private static final ThreadLocal<Scratch> SCRATCH =
+      new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+          return new Scratch();
+        }
+      };
+
+  private YuvToArgbConverter() {}
+
+  /** Returns the width of a frame of the given size once it is rotated upright. */
+  public static int getUprightWidth(int width, int height, int rotationDegrees) {
+    return rotationDegrees == 90 || rotationDegrees == 270 ? height : width;
+  }
+
+  /** Returns the height of a frame of the given size once it is rotated upright. */
+  public static int getUprightHeight(int width, int height, int rotationDegrees) {
+    return rotationDegrees == 90 || rotationDegrees == 270 ? width : height;
+  }
+
+  /**
+   * Converts an NV21 frame into {@code out}, which receives the upright image row by row and must
+   * hold at least {@code width * height} pixels. The frame starts at the position of {@code nv21},
+   * which is left unchanged.
+   *
+   * @param rotationDegrees the clockwise rotation which makes the frame upright, one of 0, 90, 180
+   *     and 270
+   * @param mirror whether to mirror the upright image horizontally, e.g. for a front camera
+   */
+  public static void nv21ToArgb(
+      ByteBuffer nv21, int width, int height, int rotationDegrees, boolean mirror, int[] out) {
+    byte[] data;
+    int offset;
+    if (nv21.hasArray()) {
+      data = nv21.array();
+      offset = nv21.arrayOffset() + nv21.position();
+    } else {
+      Scratch scratch = SCRATCH.get();
+      int size = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+      scratch.y = ensureCapacity(scratch.y, size);
+      nv21.duplicate().get(scratch.y, 0, size);
+      data = scratch.y;
+      offset = 0;
+    }
+    int vuOffset = offset + width * height;
+    convertRows(
+        data,
+        offset,
+        width,
+        data,
+        vuOffset + 1,
+        data,
+        vuOffset,
+        width,
+        /* uvPixelStride= */ 2,
+        width,
+        height,
+        rotationDegrees,
+        mirror,
+        out,
+        /* rowStart= */ 0,
+        height);
+  }
+
+  /**
+   * Converts a YUV_420_888 image, given by its planes, into {@code out} like {@link #nv21ToArgb}.
+   * The planes are read in bulk, whatever their strides.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  public static void yuv420888ToArgb(
+      Plane[] planes, int width, int height, int rotationDegrees, boolean mirror, int[] out) {
+    Scratch scratch = SCRATCH.get();
+    scratch.y = copyPlane(planes[0].getBuffer(), scratch.y);
+    scratch.u = copyPlane(planes[1].getBuffer(), scratch.u);
+    scratch.v = copyPlane(planes[2].getBuffer(), scratch.v);
+    // YUV_420_888 guarantees that the U and V planes have the same strides.
+    convertRows(
+        scratch.y,
+        /* yOffset= */ 0,
+        planes[0].getRowStride(),
+        scratch.u,
+        /* uOffset= */ 0,
+        scratch.v,
+        /* vOffset= */ 0,
+        planes[1].getRowStride(),
+        planes[1].getPixelStride(),
+        width,
+        height,
+        rotationDegrees,
+        mirror,
+        out,
+        /* rowStart= */ 0,
+        height);
+  }
+
+  /**
+   * Converts an NV21 frame into {@code bitmap}, which must be an ARGB_8888 bitmap of the upright
+   * size of the frame.
+   */
+  public static void nv21ToBitmap(
+      ByteBuffer nv21, int width, int height, int rotationDegrees, boolean mirror, Bitmap bitmap) {
+    int[] pixels = getPixels(width * height);
+    nv21ToArgb(nv21, width, height, rotationDegrees, mirror, pixels);
+    setPixels(bitmap, pixels, width, height, rotationDegrees);
+  }
+
+  /**
+   * Converts a YUV_420_888 image into {@code bitmap}, which must be an ARGB_8888 bitmap of the
+   * upright size of the image.
+   */
+  @RequiresApi(VERSION_CODES.KITKAT)
+  public static void yuv420888ToBitmap(
+      Plane[] planes, int width, int height, int rotationDegrees, boolean mirror, Bitmap bitmap) {
+    int[] pixels = getPixels(width * height);
+    yuv420888ToArgb(planes, width, height, rotationDegrees, mirror, pixels);
+    setPixels(bitmap, pixels, width, height, rotationDegrees);
+  }
+
+  /**
+   * Converts the rows {@code rowStart} to {@code rowEnd} of a YUV 4:2:0 frame into the upright,
+   * optionally mirrored, ARGB image in {@code out}. The luma plane has a pixel stride of 1, the
+   * chroma planes share their strides and are subsampled by 2 in both directions. Rows may be
+   * converted in any order and concurrently, as each writes distinct pixels.
+   */
+  public static void convertRows(
+      byte[] y,
+      int yOffset,
+      int yRowStride,
+      byte[] u,
+      int uOffset,
+      byte[] v,
+      int vOffset,
+      int uvRowStride,
+      int uvPixelStride,
+      int width,
+      int height,
+      int rotationDegrees,
+      boolean mirror,
+      int[] out,
+      int rowStart,
+      int rowEnd) {
+    int outWidth = getUprightWidth(width, height, rotationDegrees);
+    for (int row = rowStart; row < rowEnd; row++) {
+      // Upright position of the first pixel of the row, and how it moves along the row.
+      int outX;
+      int outY;
+      int stepX;
+      int stepY;
+      switch (rotationDegrees) {
+        case 90:
+          outX = height - 1 - row;
+          outY = 0;
+          stepX = 0;
+          stepY = 1;
+          break;
+        case 180:
+          outX = width - 1;
+          outY = height - 1 - row;
+          stepX = -1;
+          stepY = 0;
+          break;
+        case 270:
+          outX = row;
+          outY = width - 1;
+          stepX = 0;
+          stepY = -1;
+          break;
+        default:
+          outX = 0;
+          outY = row;
+          stepX = 1;
+          stepY = 0;
+      }
+      if (mirror) {
+        outX = outWidth - 1 - outX;
+        stepX = -stepX;
+      }
+      int outIndex = outY * outWidth + outX;
+      int outStep = stepY * outWidth + stepX;
+
+      int yIndex = yOffset + row * yRowStride;
+      int uvRowStart = (row >> 1) * uvRowStride;
+      for (int x = 0; x < width; x++) {
+        int uvIndex = uvRowStart + (x >> 1) * uvPixelStride;
+        out[outIndex] =
+            toArgb(y[yIndex + x] & 0xff, u[uOffset + uvIndex] & 0xff, v[vOffset + uvIndex] & 0xff);
+        outIndex += outStep;
+      }
+    }
+  }
+
+  static int toArgb(int y, int u, int v) {
+    int luma = (y << SHIFT) + ROUNDING;
+    int cb = u - 128;
+    int cr = v - 128;
+    int r = clamp((luma + R_FROM_V * cr) >> SHIFT);
+    int g = clamp((luma - G_FROM_U * cb - G_FROM_V * cr) >> SHIFT);
+    int b = clamp((luma + B_FROM_U * cb) >> SHIFT);
+    return 0xff000000 | (r << 16) | (g << 8) | b;
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+
+  /** Returns this thread's pixel buffer, with room for at least {@code size} pixels. */
+  static int[] getPixels(int size) {
+    Scratch scratch = SCRATCH.get();
+    if (scratch.pixels.length < size) {
+      scratch.pixels = new int[size];
+    }
+    return scratch.pixels;
+  }
+
+  private static void setPixels(
+      Bitmap bitmap, int[] pixels, int width, int height, int rotationDegrees) {
+    int outWidth = getUprightWidth(width, height, rotationDegrees);
+    int outHeight = getUprightHeight(width, height, rotationDegrees);
+    bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+  }
+
+  private static byte[] copyPlane(ByteBuffer plane, byte[] scratch) {
+    ByteBuffer source = plane.duplicate();
+    source.rewind();
+    byte[] bytes = ensureCapacity(scratch, source.remaining());
+    source.get(bytes, 0, source.remaining());
+    return bytes;
+  }
+
+  private static byte[] ensureCapacity(byte[] bytes, int size) {
+    return bytes.length < size ? new byte[size] : bytes;
+  }
+}
@@ -20,11 +20,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.graphics.Point;
 import android.os.Build.VERSION;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
+import android.view.Display;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -56,7 +61,9 @@ import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraXViewModel;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.PipelineTracer;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.ResolutionController;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
@@ -101,6 +108,12 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
 
   private static final String STATE_SELECTED_MODEL = "selected_model";
 
+  // The default ImageAnalysis resolution is 640x480.
+  private static final int DEFAULT_ANALYSIS_LONG_EDGE = 640;
+  // Every rebind of the analysis use case restarts the capture session and skips frames, so
+  // resolution changes are applied at most this often.
+  private static final long MIN_ANALYSIS_REBIND_INTERVAL_MS = 3000;
+
   private PreviewView previewView;
   private GraphicOverlay graphicOverlay;
 
@@ -108,7 +121,13 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Nullable private Preview previewUseCase;
   @Nullable private ImageAnalysis analysisUseCase;
   @Nullable private VisionImageProcessor imageProcessor;
+  // Null unless adaptive resolution is enabled and no target resolution is set.
+  @Nullable private ResolutionController resolutionController;
   private boolean needUpdateGraphicOverlayImageSourceInfo;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final Runnable rebindAnalysisUseCaseRunnable = this::rebindAnalysisUseCase;
+  @Nullable private Size boundAnalysisTargetResolution;
+  private long lastAnalysisBindTimeMs;
 
   private String selectedModel = OBJECT_DETECTION;
   private int lensFacing = CameraSelector.LENS_FACING_BACK;
@@ -248,12 +267,15 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
   @Override
   public void onResume() {
     super.onResume();
+    PipelineTracer.getInstance()
+        .setRecording(PreferenceUtils.isPipelineTraceRecordingEnabled(this));
     bindAllCameraUseCases();
   }
 
   @Override
   protected void onPause() {
     super.onPause();
+    mainHandler.removeCallbacks(rebindAnalysisUseCaseRunnable);
     if (imageProcessor != null) {
       imageProcessor.stop();
     }
@@ -405,12 +427,69 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
       return;
     }
 
-    ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
     Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing);
-    if (targetResolution != null) {
-      builder.setTargetResolution(targetResolution);
+    if (targetResolution == null && PreferenceUtils.isAdaptiveResolutionEnabled(this)) {
+      if (resolutionController == null) {
+        resolutionController =
+            new ResolutionController(
+                ResolutionController.DEFAULT_TARGET_FPS, DEFAULT_ANALYSIS_LONG_EDGE);
+        // Reported on the result thread, while use cases may only be bound on the main thread.
+        resolutionController.setListener(
+            targetLongEdge -> runOnUiThread(this::scheduleAnalysisUseCaseRebind));
+      }
+    } else {
+      resolutionController = null;
+    }
+    if (imageProcessor instanceof VisionProcessorBase) {
+      VisionProcessorBase<?> processor = (VisionProcessorBase<?>) imageProcessor;
+      processor.setResolutionController(resolutionController);
+      if (PreferenceUtils.isDetectorWarmUpEnabled(this)) {
+        Size warmUpSize = getAnalysisTargetResolution();
+        processor.warmUp(warmUpSize.getWidth(), warmUpSize.getHeight());
+      }
+    }
+
+    bindImageAnalysis();
+  }
+
+  /**
+   * Rebinds the analysis use case once at least {@link #MIN_ANALYSIS_REBIND_INTERVAL_MS} have
+   * passed since it was last bound. Changes arriving in the meantime are coalesced into that
+   * rebind.
+   */
+  private void scheduleAnalysisUseCaseRebind() {
+    mainHandler.removeCallbacks(rebindAnalysisUseCaseRunnable);
+    long delayMs =
+        lastAnalysisBindTimeMs + MIN_ANALYSIS_REBIND_INTERVAL_MS - SystemClock.elapsedRealtime();
+    mainHandler.postDelayed(rebindAnalysisUseCaseRunnable, Math.max(0, delayMs));
+  }
+
+  /** Rebinds the analysis use case at the current target size, keeping the image processor. */
+  private void rebindAnalysisUseCase() {
+    if (cameraProvider == null || analysisUseCase == null || imageProcessor == null) {
+      return;
+    }
+    if (getAnalysisTargetResolution().equals(boundAnalysisTargetResolution)) {
+      // The controller went back to the bound size before the rebind was due.
+      return;
+    }
+    cameraProvider.unbind(analysisUseCase);
+    bindImageAnalysis();
+  }
+
+  private void bindImageAnalysis() {
+    ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
+    boundAnalysisTargetResolution = null;
+    if (PreferenceUtils.getCameraXTargetResolution(this, lensFacing) != null
+        || resolutionController != null) {
+      boundAnalysisTargetResolution = getAnalysisTargetResolution();
+      // Set explicitly, so that the rotation matches the display the size was oriented for.
+      builder
+          .setTargetRotation(getDisplayForAnalysis().getRotation())
+          .setTargetResolution(boundAnalysisTargetResolution);
     }
     analysisUseCase = builder.build();
+    lastAnalysisBindTimeMs = SystemClock.elapsedRealtime();
 
     needUpdateGraphicOverlayImageSourceInfo = true;
     analysisUseCase.setAnalyzer(
@@ -442,6 +521,41 @@ public final class CameraXLivePreviewActivity extends AppCompatActivity
     cameraProvider.bindToLifecycle(/* lifecycleOwner= */ this, cameraSelector, analysisUseCase);
   }
 
+  /**
+   * Returns the resolution the analysis use case asks for, which CameraX matches with the closest
+   * supported size. CameraX expects the size in the orientation of the target rotation, which
+   * defaults to the display rotation, so the adaptive size is portrait if the display currently is.
+   */
+  private Size getAnalysisTargetResolution() {
+    Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, lensFacing);
+    if (targetResolution != null) {
+      return targetResolution;
+    }
+    int longEdge =
+        resolutionController != null
+            ? resolutionController.getTargetLongEdge()
+            : DEFAULT_ANALYSIS_LONG_EDGE;
+    int shortEdge = longEdge * 3 / 4;
+    return isDisplayPortrait()
+        ? new Size(shortEdge, longEdge)
+        : new Size(longEdge, shortEdge);
+  }
+
+  /**
+   * Returns whether the display is taller than wide in its current rotation. The size reported by
+   * the display already includes the rotation, so this also holds for devices whose natural
+   * orientation is landscape.
+   */
+  private boolean isDisplayPortrait() {
+    Point size = new Point();
+    getDisplayForAnalysis().getRealSize(size);
+    return size.y > size.x;
+  }
+
+  private Display getDisplayForAnalysis() {
+    return getWindowManager().getDefaultDisplay();
+  }
+
   private String[] getRequiredPermissions() {
     try {
       PackageInfo info =
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.odml.image.MlImage;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.InferenceInfoGraphic;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs several detectors on the same frame.
+ *
+ * <p>Frames are scheduled, and cropped to the region of interest, once by the composite, which
+ * tracks the union of the regions found by the detectors. The given processors do not run a
+ * pipeline of their own, see {@link VisionProcessorBase#runAsSubProcessor}. Each admitted frame is
+ * converted into an {@link InputImage} or {@link MlImage} once and handed to all detectors
+ * concurrently. Their results are collected with {@link Tasks#whenAllComplete} and drawn in a
+ * single overlay pass, in the order the processors were given. A detector that fails does not hide
+ * the results of the others.
+ *
+ * <p>The detector latency reported by {@link VisionProcessorBase} is the combined latency, i.e. the
+ * time until the slowest detector finished. The latency of every single detector is kept in its own
+ * histogram, and shown below the combined one in the inference info.
+ */
+public class CompositeVisionProcessor extends VisionProcessorBase<List<Task<?>>> {
+
+  private static final String TAG = "CompositeProcessor";
+
+  // Per-detector timestamps are taken on the thread completing the detector task.
+  private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+  private final ImmutableList<VisionProcessorBase<?>> processors;
+  private final ImmutableList<LatencyHistogram> detectorLatencyHistograms;
+  // Refreshed once per second and shown with the inference info in between, null until then.
+  private final List<LatencyHistogram.Snapshot> detectorLatencySnapshots;
+  private long lastLogMs;
+
+  /**
+   * Creates a processor running the detectors of all given processors. The given processors are
+   * only used for their detectors, regions of interest and graphics, and are stopped together with
+   * this processor.
+   */
+  public CompositeVisionProcessor(Context context, List<VisionProcessorBase<?>> processors) {
+    super(context);
+    Preconditions.checkArgument(!processors.isEmpty(), "processors must not be empty");
+    this.processors = ImmutableList.copyOf(processors);
+    for (VisionProcessorBase<?> processor : processors) {
+      processor.runAsSubProcessor();
+    }
+    ImmutableList.Builder<LatencyHistogram> histograms = ImmutableList.builder();
+    for (int i = 0; i < processors.size(); i++) {
+      histograms.add(new LatencyHistogram());
+    }
+    detectorLatencyHistograms = histograms.build();
+    detectorLatencySnapshots = new ArrayList<>(Collections.nCopies(processors.size(), null));
+  }
+
+  @Override
+  public void stop() {
+    super.stop();
+    for (VisionProcessorBase<?> processor : processors) {
+      processor.stop();
+    }
+  }
+
+  @Override
+  protected Task<List<Task<?>>> detectInImage(InputImage image) {
+    List<Task<?>> tasks = new ArrayList<>(processors.size());
+    for (int i = 0; i < processors.size(); i++) {
+      tasks.add(timed(i, processors.get(i).runDetector(image)));
+    }
+    return Tasks.whenAllComplete(tasks);
+  }
+
+  @Override
+  protected Task<List<Task<?>>> detectInImage(MlImage image) {
+    List<Task<?>> tasks = new ArrayList<>(processors.size());
+    for (int i = 0; i < processors.size(); i++) {
+      tasks.add(timed(i, processors.get(i).runDetector(image)));
+    }
+    return Tasks.whenAllComplete(tasks);
+  }
+
+  private Task<?> timed(int index, Task<?> task) {
+    long startNs = SystemClock.elapsedRealtimeNanos();
+    return task.addOnCompleteListener(
+        DIRECT_EXECUTOR,
+        result ->
+            detectorLatencyHistograms
+                .get(index)
+                .recordNanos(startNs, SystemClock.elapsedRealtimeNanos()));
+  }
+
+  /**
+   * Returns the union of the regions of interest of all detectors which succeeded, or null if any
+   * of them reported none, as that detector found nothing or needs the whole frame, e.g. a
+   * segmenter.
+   */
+  @Override
+  @Nullable
+  protected Rect getRegionOfInterest(List<Task<?>> tasks) {
+    Rect union = null;
+    for (int i = 0; i < tasks.size(); i++) {
+      Task<?> task = tasks.get(i);
+      if (!task.isSuccessful()) {
+        continue;
+      }
+      Rect region = getDetectorRegionOfInterest(processors.get(i), task.getResult());
+      if (region == null) {
+        return null;
+      }
+      if (union == null) {
+        union = region;
+      } else {
+        union.union(region);
+      }
+    }
+    return union;
+  }
+
+  @SuppressWarnings("unchecked") // The result was produced by the same processor.
+  @Nullable
+  private static <T> Rect getDetectorRegionOfInterest(
+      VisionProcessorBase<T> processor, Object results) {
+    return processor.getRegionOfInterest((T) results);
+  }
+
+  @Override
+  protected void onSuccess(@NonNull List<Task<?>> tasks, @NonNull GraphicOverlay graphicOverlay) {
+    drawAllResults(tasks, /* frameMetadata= */ null, graphicOverlay);
+  }
+
+  @Override
+  protected void onSuccess(
+      @NonNull List<Task<?>> tasks,
+      @NonNull FrameMetadata frameMetadata,
+      @NonNull GraphicOverlay graphicOverlay) {
+    drawAllResults(tasks, frameMetadata, graphicOverlay);
+  }
+
+  private void drawAllResults(
+      List<Task<?>> tasks, @Nullable FrameMetadata frameMetadata, GraphicOverlay graphicOverlay) {
+    for (int i = 0; i < tasks.size(); i++) {
+      Task<?> task = tasks.get(i);
+      VisionProcessorBase<?> processor = processors.get(i);
+      if (task.isSuccessful()) {
+        drawResults(processor, task.getResult(), frameMetadata, graphicOverlay);
+      } else {
+        Exception e = task.getException();
+        processor.onFailure(e != null ? e : new IllegalStateException("Detection was cancelled"));
+      }
+    }
+
+    long nowMs = SystemClock.elapsedRealtime();
+    if (nowMs - lastLogMs >= 1000) {
+      lastLogMs = nowMs;
+      for (int i = 0; i < processors.size(); i++) {
+        LatencyHistogram.Snapshot snapshot = detectorLatencyHistograms.get(i).snapshot();
+        detectorLatencySnapshots.set(i, snapshot);
+        Log.d(TAG, getDetectorName(i) + " latency: " + snapshot);
+      }
+    }
+  }
+
+  @Override
+  protected void addInferenceInfo(@NonNull InferenceInfoGraphic inferenceInfoGraphic) {
+    for (int i = 0; i < processors.size(); i++) {
+      LatencyHistogram.Snapshot snapshot = detectorLatencySnapshots.get(i);
+      if (snapshot != null) {
+        inferenceInfoGraphic.addDetectorLatency(getDetectorName(i), snapshot);
+      }
+    }
+  }
+
+  private String getDetectorName(int index) {
+    return processors.get(index).getClass().getSimpleName();
+  }
+
+  @SuppressWarnings("unchecked") // The result was produced by the same processor.
+  private static <T> void drawResults(
+      VisionProcessorBase<T> processor,
+      Object results,
+      @Nullable FrameMetadata frameMetadata,
+      GraphicOverlay graphicOverlay) {
+    if (frameMetadata != null) {
+      processor.onSuccess((T) results, frameMetadata, graphicOverlay);
+    } else {
+      processor.onSuccess((T) results, graphicOverlay);
+    }
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Composite detection failed " + e);
+  }
+
+  @Override
+  protected boolean isMlImageEnabled(Context context) {
+    for (VisionProcessorBase<?> processor : processors) {
+      if (!processor.isMlImageEnabled(context)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the latency distribution of the detector at {@code index}. */
+  public LatencyHistogram.Snapshot getDetectorLatencySnapshot(int index) {
+    return detectorLatencyHistograms.get(index).snapshot();
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.android.odml.image.MlImage;
+import com.google.mlkit.common.MlKitException;
+import com.google.mlkit.vision.common.InputImage;
+
+/**
+ * Runs inference on a frame for a {@link VisionProcessorBase}.
+ *
+ * <p>Processors run their own detector from {@link VisionProcessorBase#detectInImage} by default.
+ * A detector set with {@link VisionProcessorBase#setDetector} takes its place, which lets the
+ * pipeline around the detector run with a fake one, e.g. to measure it without inference.
+ *
+ * @param <T> The type of the detected feature.
+ */
+public interface FrameDetector<T> {
+
+  Task<T> process(InputImage image);
+
+  default Task<T> process(MlImage image) {
+    return Tasks.forException(
+        new MlKitException(
+            "MlImage is currently not demonstrated for this feature",
+            MlKitException.INVALID_ARGUMENT));
+  }
+}
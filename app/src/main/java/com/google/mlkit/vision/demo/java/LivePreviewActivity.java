@@ -32,6 +32,7 @@ import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 import android.widget.ToggleButton;
+import androidx.annotation.Nullable;
 import androidx.core.app.ActivityCompat;
 import androidx.core.app.ActivityCompat.OnRequestPermissionsResultCallback;
 import androidx.core.content.ContextCompat;
@@ -39,7 +40,9 @@ import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSourcePreview;
+import com.google.mlkit.vision.demo.FrameRecorder;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.PipelineTracer;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
@@ -57,6 +60,7 @@ import com.google.mlkit.vision.objects.defaults.ObjectDetectorOptions;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /** Live preview demo for ML Kit APIs. */
@@ -77,6 +81,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   private static final String CUSTOM_AUTOML_LABELING = "Custom AutoML Image Labeling (Flower)";
   private static final String POSE_DETECTION = "Pose Detection";
   private static final String SELFIE_SEGMENTATION = "Selfie Segmentation";
+  private static final String FACE_POSE_SEGMENTATION = "Face + Pose + Segmentation";
 
   private static final String TAG = "LivePreviewActivity";
   private static final int PERMISSION_REQUESTS = 1;
@@ -85,6 +90,8 @@ public final class LivePreviewActivity extends AppCompatActivity
   private CameraSourcePreview preview;
   private GraphicOverlay graphicOverlay;
   private String selectedModel = OBJECT_DETECTION;
+  // Records the camera frames while the activity is resumed, null if recording is off.
+  @Nullable private FrameRecorder frameRecorder;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -115,6 +122,7 @@ public final class LivePreviewActivity extends AppCompatActivity
     options.add(CUSTOM_AUTOML_LABELING);
     options.add(POSE_DETECTION);
     options.add(SELFIE_SEGMENTATION);
+    options.add(FACE_POSE_SEGMENTATION);
 
     // Creating adapter for spinner
     ArrayAdapter<String> dataAdapter = new ArrayAdapter<>(this, R.layout.spinner_style, options);
@@ -274,6 +282,23 @@ public final class LivePreviewActivity extends AppCompatActivity
         case SELFIE_SEGMENTATION:
           cameraSource.setMachineLearningFrameProcessor(new SegmenterProcessor(this));
           break;
+        case FACE_POSE_SEGMENTATION:
+          // The segmentation mask is drawn first, so that faces and poses stay visible on top.
+          cameraSource.setMachineLearningFrameProcessor(
+              new CompositeVisionProcessor(
+                  this,
+                  Arrays.asList(
+                      new SegmenterProcessor(this),
+                      new FaceDetectorProcessor(this),
+                      new PoseDetectorProcessor(
+                          this,
+                          PreferenceUtils.getPoseDetectorOptionsForLivePreview(this),
+                          PreferenceUtils.shouldShowPoseDetectionInFrameLikelihoodLivePreview(this),
+                          PreferenceUtils.shouldPoseDetectionVisualizeZ(this),
+                          PreferenceUtils.shouldPoseDetectionRescaleZForVisualization(this),
+                          /* runClassification = */ false,
+                          /* isStreamMode = */ true))));
+          break;
         default:
           Log.e(TAG, "Unknown model: " + model);
       }
@@ -301,6 +326,7 @@ public final class LivePreviewActivity extends AppCompatActivity
         if (graphicOverlay == null) {
           Log.d(TAG, "resume: graphOverlay is null");
         }
+        startFrameRecording();
         preview.start(cameraSource, graphicOverlay);
       } catch (IOException e) {
         Log.e(TAG, "Unable to start camera source.", e);
@@ -310,10 +336,40 @@ public final class LivePreviewActivity extends AppCompatActivity
     }
   }
 
+  private void startFrameRecording() {
+    if (!PreferenceUtils.isFrameRecordingEnabled(this) || frameRecorder != null) {
+      return;
+    }
+    try {
+      frameRecorder = new FrameRecorder(FrameRecorder.createRecordingFile(this));
+      cameraSource.setFrameRecorder(frameRecorder);
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to start frame recording.", e);
+    }
+  }
+
+  private void stopFrameRecording() {
+    if (frameRecorder == null) {
+      return;
+    }
+    if (cameraSource != null) {
+      cameraSource.setFrameRecorder(null);
+    }
+    try {
+      frameRecorder.close();
+      Log.d(TAG, "Recorded " + frameRecorder.getFrameCount() + " frames.");
+    } catch (IOException e) {
+      Log.e(TAG, "Unable to finish frame recording.", e);
+    }
+    frameRecorder = null;
+  }
+
   @Override
   public void onResume() {
     super.onResume();
     Log.d(TAG, "onResume");
+    PipelineTracer.getInstance()
+        .setRecording(PreferenceUtils.isPipelineTraceRecordingEnabled(this));
     createCameraSource(selectedModel);
     startCameraSource();
   }
@@ -323,6 +379,7 @@ public final class LivePreviewActivity extends AppCompatActivity
   protected void onPause() {
     super.onPause();
     preview.stop();
+    stopFrameRecording();
   }
 
   @Override
@@ -42,6 +42,7 @@ import com.google.android.gms.common.annotation.KeepName;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.BitmapUtils;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.PipelineTracer;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
@@ -175,6 +176,8 @@ public final class StillImageActivity extends AppCompatActivity {
   public void onResume() {
     super.onResume();
     Log.d(TAG, "onResume");
+    PipelineTracer.getInstance()
+        .setRecording(PreferenceUtils.isPipelineTraceRecordingEnabled(this));
     createImageProcessor();
     tryReloadAndDetectInImage();
   }
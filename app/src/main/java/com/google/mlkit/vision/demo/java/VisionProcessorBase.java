@@ -16,21 +16,19 @@
 
 package com.google.mlkit.vision.demo.java;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
-
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.os.Build.VERSION_CODES;
 import android.os.SystemClock;
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import android.util.Log;
 import android.widget.Toast;
-import androidx.annotation.GuardedBy;
 import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 
@@ -44,20 +42,36 @@ import com.google.android.odml.image.MediaMlImageBuilder;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.BitmapPool;
 import com.google.mlkit.vision.demo.BitmapUtils;
+import com.google.mlkit.vision.demo.ByteBufferPool;
 import com.google.mlkit.vision.demo.CameraImageGraphic;
 import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FrameMetrics;
+import com.google.mlkit.vision.demo.FrameMetrics.DropReason;
+import com.google.mlkit.vision.demo.FrameReorderBuffer;
+import com.google.mlkit.vision.demo.FrameScheduler;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.InferenceInfoGraphic;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.PipelineTracer;
+import com.google.mlkit.vision.demo.PipelineTracer.Stage;
+import com.google.mlkit.vision.demo.RegionOfInterestPolicy;
+import com.google.mlkit.vision.demo.ResolutionController;
 import com.google.mlkit.vision.demo.ScopedExecutor;
+import com.google.mlkit.vision.demo.ThroughputMeter;
 import com.google.mlkit.vision.demo.VisionImageProcessor;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Abstract base class for vision frame processors. Subclasses need to implement {@link
@@ -71,130 +85,449 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   protected static final String MANUAL_TESTING_LOG = "LogTagForTest";
   private static final String TAG = "VisionProcessorBase";
 
+  // Shared by all processors. Runs latency bookkeeping, onSuccess and graphic construction so that
+  // the main thread only has to draw the finished graphics.
+  private static final Executor RESULT_EXECUTOR = Executors.newSingleThreadExecutor();
+  // Starts the frames which were pending when an earlier frame completed, so that their conversion
+  // and detector submission neither wait for nor hold up the drawing on the result thread.
+  private static final Executor FRAME_EXECUTOR = Executors.newSingleThreadExecutor();
+  // Runs the blank frames of warmUp(), off the main thread and off the result thread.
+  private static final Executor WARM_UP_EXECUTOR = Executors.newSingleThreadExecutor();
+  private static final int WARM_UP_FRAME_COUNT = 2;
+
   private final ActivityManager activityManager;
-  private final Timer fpsTimer = new Timer();
+  // Provides the preview bitmaps of camera frames, which go back once they are no longer drawn.
+  private final BitmapPool bitmapPool;
+  // Provides the NV21 copies of CameraX frames, which go back once the detector is done.
+  private final ByteBufferPool bufferPool;
+  // Runs result processing on RESULT_EXECUTOR.
   private final ScopedExecutor executor;
+  // Runs UI work, such as toasts and the processing complete listener.
+  private final ScopedExecutor mainExecutor;
 
   private OnProcessingCompleteListener onProcessingCompleteListener;
+  @Nullable private volatile OnBitmapReleasedListener onBitmapReleasedListener;
+  @Nullable private volatile OnByteBufferReleasedListener onByteBufferReleasedListener;
+  // Whether buffers handed over with a release listener may be written to, e.g. cropped in place.
+  private volatile boolean areByteBuffersWritable = true;
 
   // Whether this processor is already shut down
-  private boolean isShutdown;
-
-  // Used to calculate latency, running in the same thread, no sync needed.
-  private int numRuns = 0;
-  private long totalFrameMs = 0;
-  private long maxFrameMs = 0;
-  private long minFrameMs = Long.MAX_VALUE;
-  private long totalDetectorMs = 0;
-  private long maxDetectorMs = 0;
-  private long minDetectorMs = Long.MAX_VALUE;
-
-  // Frame count that have been processed so far in an one second interval to calculate FPS.
-  private int frameProcessedInOneSecondInterval = 0;
-  private int framesPerSecond = 0;
-
-  // To keep the latest images and its metadata.
-  @GuardedBy("this")
-  private ByteBuffer latestImage;
-
-  @GuardedBy("this")
-  private FrameMetadata latestImageMetaData;
-  // To keep the images and metadata in process.
-  @GuardedBy("this")
-  private ByteBuffer processingImage;
-
-  @GuardedBy("this")
-  private FrameMetadata processingMetaData;
+  private volatile boolean isShutdown;
+
+  // Latency distribution of whole frames and of the detector alone, since this processor started.
+  private final LatencyHistogram frameLatencyHistogram = new LatencyHistogram();
+  private final LatencyHistogram detectorLatencyHistogram = new LatencyHistogram();
+  // Refreshed once per second, shown by InferenceInfoGraphic in between.
+  @Nullable private LatencyHistogram.Snapshot frameLatencySnapshot;
+  @Nullable private LatencyHistogram.Snapshot detectorLatencySnapshot;
+  private final FrameMetrics frameMetrics = new FrameMetrics();
+  // Time from the capture of a frame until its graphics are handed to the overlay.
+  private final LatencyHistogram captureToOverlayLatencyHistogram = new LatencyHistogram();
+
+  // Frame rate computed from detection completion times, without a timer thread of its own.
+  private final ThroughputMeter throughputMeter = new ThroughputMeter();
+  // Only touched on the result executor.
+  private long lastStatsLogNs;
+  // Adapts the input resolution to the detector latency, null if the resolution is fixed.
+  @Nullable private volatile ResolutionController resolutionController;
+  // Picks the region of the frames the detector runs on, null to always run on whole frames.
+  @Nullable private volatile RegionOfInterestPolicy regionOfInterestPolicy;
+  // Replaces detectInImage() if set.
+  @Nullable private volatile FrameDetector<T> detector;
+
+  private FrameScheduler frameScheduler;
+
+  private final PipelineTracer tracer = PipelineTracer.getInstance();
+  // Numbers the admitted frames in order for reorderBuffer. Trace sections are keyed by the
+  // sequence number of the frame instead, which is shared with the frame source and the overlay.
+  private final AtomicLong nextAdmissionNumber = new AtomicLong();
+  // Numbers the frames handed in without FrameMetadata, i.e. still images and CameraX images.
+  private final AtomicLong nextProducedFrameSequenceNumber = new AtomicLong();
+  // Puts results back into capture order when the scheduler keeps several frames in flight.
+  private final FrameReorderBuffer reorderBuffer = new FrameReorderBuffer();
+  // Where the pipeline trace is written when this processor stops, null if tracing is off.
+  @Nullable private final File traceDirectory;
+  // False for the processors of a CompositeVisionProcessor, which owns the pipeline instead, see
+  // runAsSubProcessor().
+  private volatile boolean isPipelineOwner = true;
+
+  // Live frames are held back while the detector warms up, only the newest one is kept.
+  private final Object warmUpLock = new Object();
+
+  @GuardedBy("warmUpLock")
+  private boolean isWarmingUp;
+
+  @GuardedBy("warmUpLock")
+  @Nullable
+  private FrameScheduler.Frame heldFrame;
+
+  @GuardedBy("warmUpLock")
+  @Nullable
+  private FrameScheduler heldFrameScheduler;
 
   protected VisionProcessorBase(Context context) {
     activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-    executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
-    fpsTimer.scheduleAtFixedRate(
-        new TimerTask() {
-          @Override
-          public void run() {
-            framesPerSecond = frameProcessedInOneSecondInterval;
-            frameProcessedInOneSecondInterval = 0;
-          }
-        },
-        /* delay= */ 0,
-        /* period= */ 1000);
+    bitmapPool = BitmapPool.getInstance(context);
+    bufferPool = ByteBufferPool.getInstance(context);
+    executor = new ScopedExecutor(RESULT_EXECUTOR);
+    mainExecutor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
+    frameScheduler = PreferenceUtils.getFrameScheduler(context);
+    if (PreferenceUtils.isRegionOfInterestTrackingEnabled(context)) {
+      regionOfInterestPolicy = new RegionOfInterestPolicy();
+    }
+    // Whether the tracer records at all is up to the activity, see PipelineTracer#setRecording.
+    traceDirectory =
+        PreferenceUtils.isPipelineTraceRecordingEnabled(context)
+            ? context.getExternalFilesDir(null)
+            : null;
   }
 
   public void setOnProcessingCompleteListener(OnProcessingCompleteListener onProcessingCompleteListener) {
     this.onProcessingCompleteListener = onProcessingCompleteListener;
   }
 
+  /**
+   * Tells {@code onBitmapReleasedListener} about every bitmap handed to {@link
+   * #processBitmap(Bitmap, FrameMetadata, GraphicOverlay)} once the processor no longer uses it.
+   */
+  public void setOnBitmapReleasedListener(
+      @Nullable OnBitmapReleasedListener onBitmapReleasedListener) {
+    this.onBitmapReleasedListener = onBitmapReleasedListener;
+  }
+
+  /**
+   * Tells {@code onByteBufferReleasedListener} about every buffer handed to {@link
+   * #processByteBuffer} once the processor no longer uses it.
+   */
+  @Override
+  public boolean setOnByteBufferReleasedListener(
+      @Nullable OnByteBufferReleasedListener onByteBufferReleasedListener) {
+    this.onByteBufferReleasedListener = onByteBufferReleasedListener;
+    return true;
+  }
+
+  /**
+   * Tells whether buffers handed to {@link #processByteBuffer} with a release listener may be
+   * written to, e.g. cropped in place, which is the default. Callers which keep reading the
+   * buffers themselves, e.g. to process the last frame again, turn this off, and cropped frames
+   * are then copied.
+   */
+  public void setByteBuffersWritable(boolean areByteBuffersWritable) {
+    this.areByteBuffersWritable = areByteBuffersWritable;
+  }
+
+  /** Reports the detector latency of every frame to {@code resolutionController}. */
+  public void setResolutionController(@Nullable ResolutionController resolutionController) {
+    this.resolutionController = resolutionController;
+  }
+
+  /**
+   * Runs {@code detector} instead of {@link #detectInImage}, or the processor's own detector again
+   * if it is null.
+   */
+  public void setDetector(@Nullable FrameDetector<T> detector) {
+    this.detector = detector;
+  }
+
+  /**
+   * Crops stream frames which have no {@link FrameMetadata#getCropRect()} to the region picked by
+   * {@code regionOfInterestPolicy}, which learns about the detected regions from {@link
+   * #getRegionOfInterest}.
+   */
+  public void setRegionOfInterestPolicy(@Nullable RegionOfInterestPolicy regionOfInterestPolicy) {
+    this.regionOfInterestPolicy = regionOfInterestPolicy;
+  }
+
+  /**
+   * Runs the detector on a few blank frames of the given size on a background thread, so that the
+   * model is loaded and initialized before the first live frame arrives. Live frames handed to this
+   * processor in the meantime are held back, and only the newest of them is processed once the
+   * warm-up is over.
+   */
+  public Task<Void> warmUp(int width, int height) {
+    synchronized (warmUpLock) {
+      isWarmingUp = true;
+    }
+    // NV21 needs even dimensions.
+    int frameWidth = Math.max(2, width & ~1);
+    int frameHeight = Math.max(2, height & ~1);
+    return Tasks.call(
+        WARM_UP_EXECUTOR,
+        () -> {
+          try {
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            ByteBuffer blankFrame = createBlankNv21Frame(frameWidth, frameHeight);
+            for (int i = 0; i < WARM_UP_FRAME_COUNT && !isShutdown; i++) {
+              try {
+                Tasks.await(
+                    runDetector(
+                        InputImage.fromByteBuffer(
+                            blankFrame,
+                            frameWidth,
+                            frameHeight,
+                            /* rotationDegrees= */ 0,
+                            InputImage.IMAGE_FORMAT_NV21)));
+              } catch (ExecutionException e) {
+                Log.w(TAG, "Warm-up detection failed", e);
+              }
+            }
+            Log.d(
+                TAG,
+                "Warm-up at "
+                    + frameWidth
+                    + "x"
+                    + frameHeight
+                    + " took "
+                    + (SystemClock.elapsedRealtimeNanos() - startNs) / 1_000_000
+                    + " ms");
+          } finally {
+            finishWarmUp();
+          }
+          return null;
+        });
+  }
+
+  private static ByteBuffer createBlankNv21Frame(int width, int height) {
+    byte[] frame = new byte[width * height * 3 / 2];
+    // Black luma, neutral chroma.
+    Arrays.fill(frame, width * height, frame.length, (byte) 128);
+    return ByteBuffer.wrap(frame);
+  }
+
+  private void finishWarmUp() {
+    FrameScheduler.Frame frame;
+    FrameScheduler scheduler;
+    synchronized (warmUpLock) {
+      isWarmingUp = false;
+      frame = heldFrame;
+      scheduler = heldFrameScheduler;
+      heldFrame = null;
+      heldFrameScheduler = null;
+    }
+    if (frame != null) {
+      scheduler.submit(frame);
+    }
+  }
+
+  /** Submits a frame to its scheduler, or holds it back while the detector warms up. */
+  private void submitFrame(FrameScheduler scheduler, FrameScheduler.Frame frame) {
+    boolean isHeld;
+    FrameScheduler.Frame replacedFrame = null;
+    synchronized (warmUpLock) {
+      isHeld = isWarmingUp;
+      if (isHeld) {
+        replacedFrame = heldFrame;
+        heldFrame = frame;
+        heldFrameScheduler = scheduler;
+      }
+    }
+    if (!isHeld) {
+      scheduler.submit(frame);
+    } else if (replacedFrame != null) {
+      replacedFrame.drop(DropReason.REPLACED);
+    }
+  }
+
+  /**
+   * Replaces the scheduler deciding which frames are processed. Frames still pending in the
+   * previous scheduler are dropped.
+   */
+  public void setFrameScheduler(@NonNull FrameScheduler frameScheduler) {
+    FrameScheduler previous = this.frameScheduler;
+    this.frameScheduler = frameScheduler;
+    previous.shutdown();
+  }
+
+  /** Returns the scheduler deciding which frames are processed. */
+  public FrameScheduler getFrameScheduler() {
+    return frameScheduler;
+  }
+
   // -----------------Code for processing single still image----------------------------------------
   @Override
   public void processBitmap(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+    processBitmap(
+        bitmap,
+        new FrameMetadata.Builder()
+            .setWidth(bitmap.getWidth())
+            .setHeight(bitmap.getHeight())
+            .setSequenceNumber(nextProducedFrameSequenceNumber.getAndIncrement())
+            .setCaptureTimeNs(SystemClock.elapsedRealtimeNanos())
+            .setSource(FrameMetadata.Source.STILL_IMAGE)
+            .build(),
+        graphicOverlay);
+  }
+
+  @Override
+  public void processBitmap(
+      Bitmap bitmap, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+    frameMetrics.onFrameProduced(frameMetadata);
+    FrameScheduler scheduler = frameScheduler;
+    FrameScheduler.Frame frame =
+        new FrameScheduler.Frame() {
+          @Override
+          public void process() {
+            processBitmapFrame(bitmap, frameMetadata, graphicOverlay, scheduler);
+          }
+
+          @Override
+          public void drop(DropReason reason) {
+            frameMetrics.onFrameDropped(reason);
+            notifyBitmapReleased(bitmap);
+          }
+        };
+    if (frameMetadata.getSource() == FrameMetadata.Source.STILL_IMAGE) {
+      // The user asked for this image, so it is neither held back by a warm-up nor dropped by the
+      // policy meant for streams.
+      scheduler.processNow(frame);
+    } else {
+      submitFrame(scheduler, frame);
+    }
+  }
+
+  private void processBitmapFrame(
+      Bitmap bitmap,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      FrameScheduler scheduler) {
+    long frameStartNs = SystemClock.elapsedRealtimeNanos();
+    long admissionNumber = nextAdmissionNumber.getAndIncrement();
+    if (isShutdown) {
+      frameMetrics.onFrameDropped(DropReason.SHUTDOWN);
+      scheduler.onFrameComplete();
+      notifyBitmapReleased(bitmap);
+      return;
+    }
+    frameMetrics.onFrameAdmitted();
+
+    FrameMetadata detectorFrameMetadata = resolveCropRect(frameMetadata, /* isNv21= */ false);
+    Rect cropRect = detectorFrameMetadata.getCropRect();
+    Bitmap detectorBitmap =
+        cropRect == null
+            ? bitmap
+            : Bitmap.createBitmap(
+                bitmap, cropRect.left, cropRect.top, cropRect.width(), cropRect.height());
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
-      MlImage mlImage = new BitmapMlImageBuilder(bitmap).build();
+      MlImage mlImage = new BitmapMlImageBuilder(detectorBitmap).build();
       requestDetectInImage(
-          mlImage,
-          graphicOverlay,
-          /* originalCameraImage= */ null,
-          /* shouldShowFps= */ false,
-          frameStartMs);
+              mlImage,
+              graphicOverlay,
+              /* originalCameraImage= */ null,
+              /* shouldShowFps= */ false,
+              detectorFrameMetadata,
+              frameStartNs,
+              admissionNumber,
+              scheduler)
+          .addOnCompleteListener(
+              mainExecutor,
+              results -> {
+                notifyProcessingComplete(bitmap);
+                notifyBitmapReleased(bitmap);
+              });
       mlImage.close();
 
       return;
     }
 
     requestDetectInImage(
-        InputImage.fromBitmap(bitmap, 0),
-        graphicOverlay,
-        /* originalCameraImage= */ null,
-        /* shouldShowFps= */ false,
-        frameStartMs);
+            InputImage.fromBitmap(detectorBitmap, 0),
+            graphicOverlay,
+            /* originalCameraImage= */ null,
+            /* shouldShowFps= */ false,
+            detectorFrameMetadata,
+            frameStartNs,
+            admissionNumber,
+            scheduler)
+        .addOnCompleteListener(
+            mainExecutor,
+            results -> {
+              notifyProcessingComplete(bitmap);
+              notifyBitmapReleased(bitmap);
+            });
   }
 
   // -----------------Code for processing live preview frame from Camera1 API-----------------------
   @Override
-  public synchronized void processByteBuffer(
+  public void processByteBuffer(
       ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    latestImage = data;
-    latestImageMetaData = frameMetadata;
-    if (processingImage == null && processingMetaData == null) {
-      processLatestImage(graphicOverlay);
-    }
-  }
+    frameMetrics.onFrameProduced(frameMetadata);
+    FrameScheduler scheduler = frameScheduler;
+    submitFrame(
+        scheduler,
+        new FrameScheduler.Frame() {
+          @Override
+          public void process() {
+            processImage(data, frameMetadata, graphicOverlay, scheduler);
+          }
 
-  private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-    processingImage = latestImage;
-    processingMetaData = latestImageMetaData;
-    latestImage = null;
-    latestImageMetaData = null;
-    if (processingImage != null && processingMetaData != null && !isShutdown) {
-      processImage(processingImage, processingMetaData, graphicOverlay);
-    }
+          @Override
+          public void drop(DropReason reason) {
+            frameMetrics.onFrameDropped(reason);
+            notifyByteBufferReleased(data);
+          }
+        });
   }
 
   private void processImage(
-      ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+      ByteBuffer data,
+      final FrameMetadata frameMetadata,
+      final GraphicOverlay graphicOverlay,
+      FrameScheduler scheduler) {
+    long frameStartNs = SystemClock.elapsedRealtimeNanos();
+    long admissionNumber = nextAdmissionNumber.getAndIncrement();
+    long sequenceNumber = frameMetadata.getSequenceNumber();
+    if (isShutdown) {
+      frameMetrics.onFrameDropped(DropReason.SHUTDOWN);
+      scheduler.onFrameComplete();
+      notifyByteBufferReleased(data);
+      return;
+    }
+    frameMetrics.onFrameAdmitted();
+
+    // Only frames which are admitted and drawn by the overlay are converted into a bitmap, see
+    // needsPreviewBitmap().
+    Bitmap bitmap = null;
+    if (needsPreviewBitmap(frameMetadata, graphicOverlay.getContext())) {
+      long conversionStartNs = tracer.beginSection(Stage.BITMAP_CONVERSION);
+      bitmap = BitmapUtils.getBitmap(data, frameMetadata, bitmapPool);
+      tracer.endSection(sequenceNumber, Stage.BITMAP_CONVERSION, conversionStartNs);
+    }
 
-    // If live viewport is on (that is the underneath surface view takes care of the camera preview
-    // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
-    Bitmap bitmap =
-        PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
-            ? null
-            : BitmapUtils.getBitmap(data, frameMetadata);
+    // Cropped after the preview bitmap has been taken from the whole frame. Only a buffer handed
+    // over with a release listener belongs to the processor and may be cropped in place, unless
+    // the caller keeps reading it. The caller may still be using any other buffer, e.g. a frame of
+    // a replayed recording, so the detector gets a pooled copy of its crop instead.
+    FrameMetadata detectorFrameMetadata = resolveCropRect(frameMetadata, /* isNv21= */ true);
+    ByteBuffer detectorData =
+        onByteBufferReleasedListener != null && areByteBuffersWritable
+            ? BitmapUtils.cropNv21(data, detectorFrameMetadata)
+            : BitmapUtils.cropNv21(data, detectorFrameMetadata, bufferPool);
+    ByteBuffer croppedCopy = detectorData != data ? detectorData : null;
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
       MlImage mlImage =
           new ByteBufferMlImageBuilder(
-                  data,
-                  frameMetadata.getWidth(),
-                  frameMetadata.getHeight(),
+                  detectorData,
+                  getDetectorInputWidth(detectorFrameMetadata),
+                  getDetectorInputHeight(detectorFrameMetadata),
                   MlImage.IMAGE_FORMAT_NV21)
               .setRotation(frameMetadata.getRotation())
               .build();
 
-      requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
-          .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+      requestDetectInImage(
+              mlImage,
+              graphicOverlay,
+              bitmap,
+              /* shouldShowFps= */ true,
+              detectorFrameMetadata,
+              frameStartNs,
+              admissionNumber,
+              scheduler)
+          .addOnCompleteListener(mainExecutor, results -> notifyProcessingComplete(null))
+          // Not bound to the scoped executor, so that the buffer is also released once the
+          // processor has been stopped.
+          .addOnCompleteListener(results -> releaseByteBuffers(data, croppedCopy));
 
       // This is optional. Java Garbage collection can also close it eventually.
       mlImage.close();
@@ -203,16 +536,40 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     requestDetectInImage(
             InputImage.fromByteBuffer(
-                data,
-                frameMetadata.getWidth(),
-                frameMetadata.getHeight(),
+                detectorData,
+                getDetectorInputWidth(detectorFrameMetadata),
+                getDetectorInputHeight(detectorFrameMetadata),
                 frameMetadata.getRotation(),
                 InputImage.IMAGE_FORMAT_NV21),
             graphicOverlay,
             bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
-        .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
+            detectorFrameMetadata,
+            frameStartNs,
+            admissionNumber,
+            scheduler)
+        .addOnCompleteListener(mainExecutor, results -> notifyProcessingComplete(null))
+        // Not bound to the scoped executor, so that the buffer is also released once the
+        // processor has been stopped.
+        .addOnCompleteListener(results -> releaseByteBuffers(data, croppedCopy));
+  }
+
+  /** Gives {@code data} back to its producer and {@code croppedCopy}, if any, to the pool. */
+  private void releaseByteBuffers(ByteBuffer data, @Nullable ByteBuffer croppedCopy) {
+    if (croppedCopy != null) {
+      bufferPool.release(croppedCopy);
+    }
+    notifyByteBufferReleased(data);
+  }
+
+  /**
+   * Whether the overlay draws {@code frameMetadata}'s frame itself. Camera frames are drawn unless
+   * the live viewport, i.e. the surface view underneath, shows the camera preview. Video frames
+   * given as buffers have no other preview.
+   */
+  private static boolean needsPreviewBitmap(FrameMetadata frameMetadata, Context context) {
+    return frameMetadata.getSource() == FrameMetadata.Source.VIDEO
+        || !PreferenceUtils.isCameraLiveViewportEnabled(context);
   }
 
   // -----------------Code for processing live preview frame from CameraX API-----------------------
@@ -220,15 +577,112 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
   @RequiresApi(VERSION_CODES.KITKAT)
   @ExperimentalGetImage
   public void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) {
-    long frameStartMs = SystemClock.elapsedRealtime();
+    FrameMetadata frameMetadata =
+        BitmapUtils.getFrameMetadata(image, nextProducedFrameSequenceNumber.getAndIncrement());
+    frameMetrics.onFrameProduced(frameMetadata);
+    FrameScheduler scheduler = frameScheduler;
+    submitFrame(
+        scheduler,
+        new FrameScheduler.Frame() {
+          @Override
+          public void process() {
+            processImageProxyFrame(image, frameMetadata, graphicOverlay, scheduler);
+          }
+
+          @Override
+          public void drop(DropReason reason) {
+            frameMetrics.onFrameDropped(reason);
+            // Dropped images must be closed as well, otherwise CameraX stops delivering frames.
+            image.close();
+          }
+        });
+  }
+
+  @RequiresApi(VERSION_CODES.KITKAT)
+  @ExperimentalGetImage
+  private void processImageProxyFrame(
+      ImageProxy image,
+      FrameMetadata frameMetadata,
+      GraphicOverlay graphicOverlay,
+      FrameScheduler scheduler) {
+    long frameStartNs = SystemClock.elapsedRealtimeNanos();
+    long admissionNumber = nextAdmissionNumber.getAndIncrement();
+    long sequenceNumber = frameMetadata.getSequenceNumber();
     if (isShutdown) {
+      frameMetrics.onFrameDropped(DropReason.SHUTDOWN);
       image.close();
+      scheduler.onFrameComplete();
       return;
     }
+    frameMetrics.onFrameAdmitted();
+
+    FrameMetadata detectorFrameMetadata = resolveCropRect(frameMetadata, /* isNv21= */ true);
+    boolean isCropped = detectorFrameMetadata.getCropRect() != null;
+    boolean needsBitmap =
+        !PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext());
 
     Bitmap bitmap = null;
-    if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
-      bitmap = BitmapUtils.getBitmap(image);
+    ByteBuffer nv21Buffer = null;
+    if (isCropped) {
+      long copyStartNs = tracer.beginSection(Stage.NV21_COPY);
+      nv21Buffer = BitmapUtils.getNv21Buffer(image, bufferPool);
+      tracer.endSection(sequenceNumber, Stage.NV21_COPY, copyStartNs);
+    }
+    if (needsBitmap) {
+      // Converted from the planes directly, unless the NV21 copy is needed anyway.
+      long conversionStartNs = tracer.beginSection(Stage.BITMAP_CONVERSION);
+      bitmap =
+          nv21Buffer != null
+              ? BitmapUtils.getBitmap(nv21Buffer, frameMetadata, bitmapPool)
+              : BitmapUtils.getBitmap(image, bitmapPool);
+      tracer.endSection(sequenceNumber, Stage.BITMAP_CONVERSION, conversionStartNs);
+    }
+
+    if (isCropped) {
+      // The media image can not be cropped, so the detector gets a cropped NV21 copy instead.
+      final ByteBuffer frameBuffer = nv21Buffer;
+      ByteBuffer detectorData = BitmapUtils.cropNv21(frameBuffer, detectorFrameMetadata);
+      int rotation = frameMetadata.getRotation();
+      int width = getDetectorInputWidth(detectorFrameMetadata);
+      int height = getDetectorInputHeight(detectorFrameMetadata);
+      Task<T> task;
+      if (isMlImageEnabled(graphicOverlay.getContext())) {
+        MlImage mlImage =
+            new ByteBufferMlImageBuilder(detectorData, width, height, MlImage.IMAGE_FORMAT_NV21)
+                .setRotation(rotation)
+                .build();
+        task =
+            requestDetectInImage(
+                mlImage,
+                graphicOverlay,
+                /* originalCameraImage= */ bitmap,
+                /* shouldShowFps= */ true,
+                detectorFrameMetadata,
+                frameStartNs,
+                admissionNumber,
+                scheduler);
+        mlImage.close();
+      } else {
+        task =
+            requestDetectInImage(
+                InputImage.fromByteBuffer(
+                    detectorData, width, height, rotation, InputImage.IMAGE_FORMAT_NV21),
+                graphicOverlay,
+                /* originalCameraImage= */ bitmap,
+                /* shouldShowFps= */ true,
+                detectorFrameMetadata,
+                frameStartNs,
+                admissionNumber,
+                scheduler);
+      }
+      task.addOnCompleteListener(
+          results -> {
+            image.close();
+            // The detector no longer reads the cropped copy, which shares its array.
+            bufferPool.release(frameBuffer);
+            notifyProcessingComplete(null);
+          });
+      return;
     }
 
     if (isMlImageEnabled(graphicOverlay.getContext())) {
@@ -242,13 +696,20 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
               graphicOverlay,
               /* originalCameraImage= */ bitmap,
               /* shouldShowFps= */ true,
-              frameStartMs)
+              frameMetadata,
+              frameStartNs,
+              admissionNumber,
+              scheduler)
           // When the image is from CameraX analysis use case, must call image.close() on received
           // images when finished using them. Otherwise, new images may not be received or the
           // camera may stall.
           // Currently MlImage doesn't support ImageProxy directly, so we still need to call
           // ImageProxy.close() here.
-          .addOnCompleteListener(results -> image.close());
+          .addOnCompleteListener(
+              results -> {
+                image.close();
+                notifyProcessingComplete(null);
+              });
       return;
     }
 
@@ -257,11 +718,18 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             graphicOverlay,
             /* originalCameraImage= */ bitmap,
             /* shouldShowFps= */ true,
-            frameStartMs)
+            frameMetadata,
+            frameStartNs,
+            admissionNumber,
+            scheduler)
         // When the image is from CameraX analysis use case, must call image.close() on received
         // images when finished using them. Otherwise, new images may not be received or the camera
         // may stall.
-        .addOnCompleteListener(results -> image.close());
+        .addOnCompleteListener(
+            results -> {
+              image.close();
+              notifyProcessingComplete(null);
+            });
   }
 
   // -----------------Common processing logic-------------------------------------------------------
@@ -270,9 +738,24 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      FrameMetadata frameMetadata,
+      long frameStartNs,
+      long admissionNumber,
+      FrameScheduler scheduler) {
+    long sequenceNumber = frameMetadata.getSequenceNumber();
+    long detectorStartNs = tracer.beginAsyncSection(sequenceNumber, Stage.DETECTOR);
+    Task<T> task = runDetector(image);
+    reorderBuffer.onFrameStarted(admissionNumber);
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameMetadata,
+        frameStartNs,
+        detectorStartNs,
+        admissionNumber,
+        scheduler);
   }
 
   private Task<T> requestDetectInImage(
@@ -280,9 +763,24 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
+      FrameMetadata frameMetadata,
+      long frameStartNs,
+      long admissionNumber,
+      FrameScheduler scheduler) {
+    long sequenceNumber = frameMetadata.getSequenceNumber();
+    long detectorStartNs = tracer.beginAsyncSection(sequenceNumber, Stage.DETECTOR);
+    Task<T> task = runDetector(image);
+    reorderBuffer.onFrameStarted(admissionNumber);
     return setUpListener(
-        detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+        task,
+        graphicOverlay,
+        originalCameraImage,
+        shouldShowFps,
+        frameMetadata,
+        frameStartNs,
+        detectorStartNs,
+        admissionNumber,
+        scheduler);
   }
 
   private Task<T> setUpListener(
@@ -290,109 +788,356 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
       final GraphicOverlay graphicOverlay,
       @Nullable final Bitmap originalCameraImage,
       boolean shouldShowFps,
-      long frameStartMs) {
-    final long detectorStartMs = SystemClock.elapsedRealtime();
+      FrameMetadata frameMetadata,
+      long frameStartNs,
+      long detectorStartNs,
+      long admissionNumber,
+      FrameScheduler scheduler) {
+    long sequenceNumber = frameMetadata.getSequenceNumber();
     return task.addOnSuccessListener(
             executor,
             results -> {
-              long endMs = SystemClock.elapsedRealtime();
-              long currentFrameLatencyMs = endMs - frameStartMs;
-              long currentDetectorLatencyMs = endMs - detectorStartMs;
-              if (numRuns >= 500) {
-                resetLatencyStats();
+              long endNs = SystemClock.elapsedRealtimeNanos();
+              tracer.endAsyncSection(sequenceNumber, Stage.DETECTOR, detectorStartNs);
+              long currentFrameLatencyMs = (endNs - frameStartNs) / 1_000_000;
+              long currentDetectorLatencyMs = (endNs - detectorStartNs) / 1_000_000;
+              throughputMeter.record(endNs);
+              ResolutionController controller = resolutionController;
+              if (controller != null) {
+                controller.onFrameProcessed((endNs - detectorStartNs) / 1000);
               }
-              numRuns++;
-              frameProcessedInOneSecondInterval++;
-              totalFrameMs += currentFrameLatencyMs;
-              maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
-              minFrameMs = min(currentFrameLatencyMs, minFrameMs);
-              totalDetectorMs += currentDetectorLatencyMs;
-              maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
-              minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
-
-              // Only log inference info once per second. When frameProcessedInOneSecondInterval is
-              // equal to 1, it means this is the first frame processed during the current second.
-              if (frameProcessedInOneSecondInterval == 1) {
-                Log.d(TAG, "Num of Runs: " + numRuns);
-                Log.d(
-                    TAG,
-                    "Frame latency: max="
-                        + maxFrameMs
-                        + ", min="
-                        + minFrameMs
-                        + ", avg="
-                        + totalFrameMs / numRuns);
+              RegionOfInterestPolicy policy = regionOfInterestPolicy;
+              if (policy != null && isStreamSource(frameMetadata)) {
+                policy.onRegionDetected(
+                    frameMetadata, toFrameRegion(getRegionOfInterest(results), frameMetadata));
+              }
+              frameLatencyHistogram.recordNanos(frameStartNs, endNs);
+              detectorLatencyHistogram.recordNanos(detectorStartNs, endNs);
+
+              // Only log inference info once per second.
+              if (endNs - lastStatsLogNs >= 1_000_000_000L) {
+                lastStatsLogNs = endNs;
+                frameLatencySnapshot = frameLatencyHistogram.snapshot();
+                detectorLatencySnapshot = detectorLatencyHistogram.snapshot();
+                Log.d(TAG, "Frame latency: " + frameLatencySnapshot);
+                Log.d(TAG, "Detector latency: " + detectorLatencySnapshot);
                 Log.d(
                     TAG,
-                    "Detector latency: max="
-                        + maxDetectorMs
-                        + ", min="
-                        + minDetectorMs
-                        + ", avg="
-                        + totalDetectorMs / numRuns);
+                    "Capture to overlay latency: " + captureToOverlayLatencyHistogram.snapshot());
+                Log.d(TAG, "Frames: " + frameMetrics.snapshot());
+                Log.d(TAG, "Throughput: " + throughputMeter.getRates());
                 MemoryInfo mi = new MemoryInfo();
                 activityManager.getMemoryInfo(mi);
                 long availableMegs = mi.availMem / 0x100000L;
                 Log.d(TAG, "Memory available in system: " + availableMegs + " MB");
               }
 
-              graphicOverlay.clear();
-              if (originalCameraImage != null) {
-                graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
-              }
-              VisionProcessorBase.this.onSuccess(results, graphicOverlay);
-              if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
-                graphicOverlay.add(
-                    new InferenceInfoGraphic(
-                        graphicOverlay,
-                        currentFrameLatencyMs,
-                        currentDetectorLatencyMs,
-                        shouldShowFps ? framesPerSecond : null));
+              // Results of frames processed concurrently are drawn in capture order.
+              boolean isInOrder =
+                  reorderBuffer.onFrameCompleted(
+                      admissionNumber,
+                      () ->
+                          drawResults(
+                              results,
+                              graphicOverlay,
+                              originalCameraImage,
+                              shouldShowFps,
+                              frameMetadata,
+                              currentFrameLatencyMs,
+                              currentDetectorLatencyMs));
+              if (!isInOrder) {
+                frameMetrics.onFrameDropped(DropReason.LATE);
+                releaseCameraImage(originalCameraImage);
               }
-              graphicOverlay.postInvalidate();
             })
         .addOnFailureListener(
             executor,
             e -> {
-              graphicOverlay.clear();
-              graphicOverlay.postInvalidate();
-              String error = "Failed to process. Error: " + e.getLocalizedMessage();
-              Toast.makeText(
-                      graphicOverlay.getContext(),
-                      error + "\nCause: " + e.getCause(),
-                      Toast.LENGTH_SHORT)
-                  .show();
-              Log.d(TAG, error);
-              e.printStackTrace();
-              VisionProcessorBase.this.onFailure(e);
+              tracer.endAsyncSection(sequenceNumber, Stage.DETECTOR, detectorStartNs);
+              frameMetrics.onFrameDropped(DropReason.DETECTOR_FAILED);
+              releaseCameraImage(originalCameraImage);
+              reorderBuffer.onFrameCompleted(
+                  admissionNumber,
+                  () -> {
+                    graphicOverlay.clear();
+                    String error = "Failed to process. Error: " + e.getLocalizedMessage();
+                    mainExecutor.execute(
+                        () ->
+                            Toast.makeText(
+                                    graphicOverlay.getContext(),
+                                    error + "\nCause: " + e.getCause(),
+                                    Toast.LENGTH_SHORT)
+                                .show());
+                    Log.d(TAG, error);
+                    e.printStackTrace();
+                    VisionProcessorBase.this.onFailure(e);
+                  });
             })
-            .addOnCompleteListener(executor, results ->{
-              if(onProcessingCompleteListener != null){
-                onProcessingCompleteListener.onProcessingComplete();
-              }
-            });
+        // Not bound to the scoped executor, the scheduler must learn about every completed frame
+        // even after this processor has been stopped.
+        .addOnCompleteListener(FRAME_EXECUTOR, results -> scheduler.onFrameComplete());
+  }
+
+  private void releaseCameraImage(@Nullable Bitmap originalCameraImage) {
+    if (originalCameraImage != null) {
+      bitmapPool.release(originalCameraImage);
+    }
+  }
+
+  private void drawResults(
+      T results,
+      GraphicOverlay graphicOverlay,
+      @Nullable Bitmap originalCameraImage,
+      boolean shouldShowFps,
+      FrameMetadata frameMetadata,
+      long currentFrameLatencyMs,
+      long currentDetectorLatencyMs) {
+    long sequenceNumber = frameMetadata.getSequenceNumber();
+    long graphicsStartNs = tracer.beginSection(Stage.GRAPHICS);
+    // Graphics are collected off the main thread and swapped in at once below.
+    graphicOverlay.beginUpdate();
+    graphicOverlay.setFrameSequenceNumber(sequenceNumber);
+    if (originalCameraImage != null) {
+      // The bitmap goes back to the pool once the graphics of a later frame replace it.
+      graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage, bitmapPool));
+    }
+    long onSuccessStartNs = tracer.beginSection(Stage.ON_SUCCESS);
+    // Results of a cropped frame are relative to the crop, their graphics are shifted back.
+    Rect cropRect = frameMetadata.getCropRect();
+    if (cropRect != null) {
+      graphicOverlay.setImageOffset(cropRect.left, cropRect.top);
+    }
+    try {
+      onSuccess(results, frameMetadata, graphicOverlay);
+    } finally {
+      if (cropRect != null) {
+        graphicOverlay.setImageOffset(0, 0);
+      }
+    }
+    tracer.endSection(sequenceNumber, Stage.ON_SUCCESS, onSuccessStartNs);
+    // Counted before the info is drawn, so that the first frame already shows its time to result.
+    if (frameMetrics.onFrameCompleted()) {
+      Log.d(
+          TAG, "Time to first result: " + frameMetrics.snapshot().getTimeToFirstResultMs() + " ms");
+    }
+    if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
+      InferenceInfoGraphic inferenceInfoGraphic =
+          new InferenceInfoGraphic(
+              graphicOverlay,
+              currentFrameLatencyMs,
+              currentDetectorLatencyMs,
+              shouldShowFps
+                  ? (int) Math.round(throughputMeter.getRates().getOneSecondRate())
+                  : null,
+              frameLatencySnapshot,
+              detectorLatencySnapshot,
+              frameMetrics.snapshot());
+      addInferenceInfo(inferenceInfoGraphic);
+      graphicOverlay.add(inferenceInfoGraphic);
+    }
+    tracer.endSection(sequenceNumber, Stage.GRAPHICS, graphicsStartNs);
+    graphicOverlay.commitUpdate();
+    if (frameMetadata.getCaptureTimeNs() > 0) {
+      captureToOverlayLatencyHistogram.recordNanos(
+          frameMetadata.getCaptureTimeNs(), SystemClock.elapsedRealtimeNanos());
+    }
+  }
+
+  /**
+   * Returns {@code frameMetadata} with the region the detector runs on, which is the crop rect set
+   * by the source or else the one picked by the region of interest policy, fitted to the frame.
+   * The policy only crops frames of streams; any other frame, such as a still image, is unrelated
+   * to the frames before it and resets the policy.
+   */
+  private FrameMetadata resolveCropRect(FrameMetadata frameMetadata, boolean isNv21) {
+    Rect cropRect = frameMetadata.getCropRect();
+    RegionOfInterestPolicy policy = regionOfInterestPolicy;
+    if (cropRect == null && policy != null) {
+      if (isStreamSource(frameMetadata)) {
+        cropRect = policy.getCropRect(frameMetadata);
+      } else {
+        policy.reset();
+      }
+    }
+    if (cropRect == null) {
+      return frameMetadata;
+    }
+
+    if (isNv21) {
+      cropRect = BitmapUtils.getNv21CropRect(cropRect, frameMetadata);
+    } else if (!cropRect.intersect(0, 0, frameMetadata.getWidth(), frameMetadata.getHeight())) {
+      cropRect.setEmpty();
+    }
+    return frameMetadata.toBuilder().setCropRect(cropRect.isEmpty() ? null : cropRect).build();
+  }
+
+  private static boolean isStreamSource(FrameMetadata frameMetadata) {
+    switch (frameMetadata.getSource()) {
+      case CAMERA1:
+      case CAMERAX:
+      case VIDEO:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /** Returns the width of the detector input, before it is rotated upright. */
+  private static int getDetectorInputWidth(FrameMetadata frameMetadata) {
+    Rect cropRect = frameMetadata.getCropRect();
+    if (cropRect == null) {
+      return frameMetadata.getWidth();
+    }
+    return isRotatedSideways(frameMetadata) ? cropRect.height() : cropRect.width();
+  }
+
+  /** Returns the height of the detector input, before it is rotated upright. */
+  private static int getDetectorInputHeight(FrameMetadata frameMetadata) {
+    Rect cropRect = frameMetadata.getCropRect();
+    if (cropRect == null) {
+      return frameMetadata.getHeight();
+    }
+    return isRotatedSideways(frameMetadata) ? cropRect.width() : cropRect.height();
+  }
+
+  private static boolean isRotatedSideways(FrameMetadata frameMetadata) {
+    return frameMetadata.getRotation() == 90 || frameMetadata.getRotation() == 270;
+  }
+
+  /** Maps a region of the detector input to the whole frame. */
+  @Nullable
+  private static Rect toFrameRegion(@Nullable Rect region, FrameMetadata frameMetadata) {
+    Rect cropRect = frameMetadata.getCropRect();
+    if (region != null && cropRect != null) {
+      region.offset(cropRect.left, cropRect.top);
+    }
+    return region;
+  }
+
+  private void notifyProcessingComplete(@Nullable Bitmap bitmap) {
+    if (onProcessingCompleteListener != null) {
+      onProcessingCompleteListener.onProcessingComplete(bitmap);
+    }
+  }
+
+  private void notifyBitmapReleased(Bitmap bitmap) {
+    OnBitmapReleasedListener listener = onBitmapReleasedListener;
+    if (listener != null) {
+      listener.onBitmapReleased(bitmap);
+    }
+  }
+
+  private void notifyByteBufferReleased(ByteBuffer data) {
+    OnByteBufferReleasedListener listener = onByteBufferReleasedListener;
+    if (listener != null) {
+      listener.onByteBufferReleased(data);
+    }
+  }
+
+  @Override
+  public void onStreamRestarted() {
+    RegionOfInterestPolicy policy = regionOfInterestPolicy;
+    if (policy != null) {
+      policy.reset();
+    }
   }
 
   @Override
   public void stop() {
     executor.shutdown();
+    mainExecutor.shutdown();
     isShutdown = true;
-    resetLatencyStats();
-    fpsTimer.cancel();
+    frameScheduler.shutdown();
+    dumpPipelineTrace();
+  }
+
+  /**
+   * Writes the pipeline trace recorded since the last dump to the app's external files directory,
+   * e.g. while the pipeline keeps running, see {@link PipelineTracer#dumpChromeTrace}. Does nothing
+   * unless trace recording is enabled and this processor owns the pipeline.
+   *
+   * @return the file the trace is written to in the background, or null if nothing is dumped
+   */
+  @Override
+  @Nullable
+  public File dumpPipelineTrace() {
+    if (traceDirectory == null || !isPipelineOwner) {
+      return null;
+    }
+    File file = new File(traceDirectory, "pipeline_trace_" + System.currentTimeMillis() + ".json");
+    tracer.dumpChromeTrace(file);
+    return file;
   }
 
-  private void resetLatencyStats() {
-    numRuns = 0;
-    totalFrameMs = 0;
-    maxFrameMs = 0;
-    minFrameMs = Long.MAX_VALUE;
-    totalDetectorMs = 0;
-    maxDetectorMs = 0;
-    minDetectorMs = Long.MAX_VALUE;
+  /**
+   * Makes this processor part of a {@link CompositeVisionProcessor}, which owns the pipeline: the
+   * composite schedules the frames, crops them to its region of interest and dumps the pipeline
+   * trace, and only hands the admitted frames to the detector of this processor, see {@link
+   * #runDetector}. The scheduler of this processor is shut down, so frames handed to it directly
+   * are dropped, and it no longer tracks a region of interest or reports to a resolution
+   * controller.
+   */
+  void runAsSubProcessor() {
+    isPipelineOwner = false;
+    frameScheduler.shutdown();
+    regionOfInterestPolicy = null;
+    resolutionController = null;
+  }
+
+  /** Returns the distribution of frame latencies, from frame arrival to detection result. */
+  public LatencyHistogram.Snapshot getFrameLatencySnapshot() {
+    return frameLatencyHistogram.snapshot();
+  }
+
+  /** Returns the distribution of latencies from frame capture until the graphics are ready. */
+  public LatencyHistogram.Snapshot getCaptureToOverlayLatencySnapshot() {
+    return captureToOverlayLatencyHistogram.snapshot();
+  }
+
+  /** Returns how many frames were produced, admitted, completed and dropped so far. */
+  public FrameMetrics.Snapshot getFrameMetricsSnapshot() {
+    return frameMetrics.snapshot();
+  }
+
+  @Override
+  public long getPendingFrameCount() {
+    FrameMetrics.Snapshot snapshot = frameMetrics.snapshot();
+    return snapshot.getProducedCount() - snapshot.getCompletedCount() - snapshot.getDroppedCount();
+  }
+
+  /** Returns the instantaneous, 1 second and 10 second rates of completed detections. */
+  public ThroughputMeter.Rates getThroughputRates() {
+    return throughputMeter.getRates();
+  }
+
+  /** Returns the distribution of detector latencies. */
+  public LatencyHistogram.Snapshot getDetectorLatencySnapshot() {
+    return detectorLatencyHistogram.snapshot();
+  }
+
+  /** Runs the detector of this processor, or the one set with {@link #setDetector}. */
+  Task<T> runDetector(InputImage image) {
+    FrameDetector<T> currentDetector = detector;
+    return currentDetector != null ? currentDetector.process(image) : detectInImage(image);
+  }
+
+  Task<T> runDetector(MlImage image) {
+    FrameDetector<T> currentDetector = detector;
+    return currentDetector != null ? currentDetector.process(image) : detectInImage(image);
   }
 
   protected abstract Task<T> detectInImage(InputImage image);
 
+  /**
+   * Returns a new rectangle covering everything found in {@code results}, in the coordinates of the
+   * detector input, or null if nothing was found. Used to track the region of interest; processors
+   * whose results have no location keep the default, which never restricts the region.
+   */
+  @Nullable
+  protected Rect getRegionOfInterest(T results) {
+    return null;
+  }
+
   protected Task<T> detectInImage(MlImage image) {
     return Tasks.forException(
         new MlKitException(
@@ -400,15 +1145,51 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             MlKitException.INVALID_ARGUMENT));
   }
 
+  /**
+   * Adds the graphics for the detection results to the overlay. Called on a background thread; the
+   * graphics are shown once this method returns.
+   */
   protected abstract void onSuccess(@NonNull T results, @NonNull GraphicOverlay graphicOverlay);
 
+  /**
+   * Same as {@link #onSuccess(Object, GraphicOverlay)}, for processors which need to know which
+   * frame the results belong to.
+   */
+  protected void onSuccess(
+      @NonNull T results,
+      @NonNull FrameMetadata frameMetadata,
+      @NonNull GraphicOverlay graphicOverlay) {
+    onSuccess(results, graphicOverlay);
+  }
+
   protected abstract void onFailure(@NonNull Exception e);
 
+  /**
+   * Adds processor specific info, such as the latencies of several detectors, to the inference info
+   * drawn with the results. Called on the same thread as {@link #onSuccess}.
+   */
+  protected void addInferenceInfo(@NonNull InferenceInfoGraphic inferenceInfoGraphic) {}
+
   protected boolean isMlImageEnabled(Context context) {
     return false;
   }
 
+  /** Listener notified on the main thread whenever processing of a frame has completed. */
   public interface OnProcessingCompleteListener{
-    void onProcessingComplete();
+    /**
+     * @param bitmap the processed bitmap if the frame was submitted via {@link
+     *     #processBitmap(Bitmap, GraphicOverlay)}, null otherwise
+     */
+    void onProcessingComplete(@Nullable Bitmap bitmap);
+  }
+
+  /** Learns when a bitmap handed to the processor is no longer used, e.g. to reuse it. */
+  public interface OnBitmapReleasedListener {
+    /**
+     * Called once {@code bitmap} has been processed or dropped, after {@link
+     * OnProcessingCompleteListener#onProcessingComplete}. May be called from any thread, and is not
+     * called for frames still in flight when the processor is stopped.
+     */
+    void onBitmapReleased(Bitmap bitmap);
   }
 }
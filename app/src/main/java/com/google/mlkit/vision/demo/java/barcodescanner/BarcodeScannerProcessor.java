@@ -18,13 +18,16 @@ package com.google.mlkit.vision.demo.java.barcodescanner;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.barcode.Barcode;
 import com.google.mlkit.vision.barcode.BarcodeScanner;
 import com.google.mlkit.vision.barcode.BarcodeScanning;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import java.util.List;
@@ -34,6 +37,10 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
 
   private static final String TAG = "BarcodeProcessor";
 
+  // Rough memory use of a loaded barcode scanner, counted against the DetectorPool budget.
+  private static final long ESTIMATED_SCANNER_BYTES = 2L * 1024 * 1024;
+
+  private final DetectorPool.Lease<BarcodeScanner> barcodeScannerLease;
   private final BarcodeScanner barcodeScanner;
 
   public BarcodeScannerProcessor(Context context) {
@@ -43,13 +50,20 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
     // new BarcodeScannerOptions.Builder()
     //     .setBarcodeFormats(Barcode.FORMAT_QR_CODE)
     //     .build();
-    barcodeScanner = BarcodeScanning.getClient();
+    // The scanner has default options, so it is keyed by the processor class.
+    barcodeScannerLease =
+        DetectorPool.getInstance(context)
+            .acquire(
+                BarcodeScannerProcessor.class,
+                ESTIMATED_SCANNER_BYTES,
+                BarcodeScanning::getClient);
+    barcodeScanner = barcodeScannerLease.get();
   }
 
   @Override
   public void stop() {
     super.stop();
-    barcodeScanner.close();
+    barcodeScannerLease.release();
   }
 
   @Override
@@ -57,6 +71,24 @@ public class BarcodeScannerProcessor extends VisionProcessorBase<List<Barcode>>
     return barcodeScanner.process(image);
   }
 
+  @Nullable
+  @Override
+  protected Rect getRegionOfInterest(List<Barcode> barcodes) {
+    Rect region = null;
+    for (Barcode barcode : barcodes) {
+      Rect boundingBox = barcode.getBoundingBox();
+      if (boundingBox == null) {
+        continue;
+      }
+      if (region == null) {
+        region = new Rect(boundingBox);
+      } else {
+        region.union(boundingBox);
+      }
+    }
+    return region;
+  }
+
   @Override
   protected void onSuccess(
       @NonNull List<Barcode> barcodes, @NonNull GraphicOverlay graphicOverlay) {
@@ -18,10 +18,13 @@ package com.google.mlkit.vision.demo.java.facedetector;
 
 import android.content.Context;
 import android.graphics.PointF;
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -38,19 +41,29 @@ public class FaceDetectorProcessor extends VisionProcessorBase<List<Face>> {
 
   private static final String TAG = "FaceDetectorProcessor";
 
+  // Rough memory use of a loaded face detector, counted against the DetectorPool budget.
+  private static final long ESTIMATED_DETECTOR_BYTES = 4L * 1024 * 1024;
+
+  private final DetectorPool.Lease<FaceDetector> detectorLease;
   private final FaceDetector detector;
 
   public FaceDetectorProcessor(Context context) {
     super(context);
     FaceDetectorOptions faceDetectorOptions = PreferenceUtils.getFaceDetectorOptions(context);
     Log.v(MANUAL_TESTING_LOG, "Face detector options: " + faceDetectorOptions);
-    detector = FaceDetection.getClient(faceDetectorOptions);
+    detectorLease =
+        DetectorPool.getInstance(context)
+            .acquire(
+                faceDetectorOptions,
+                ESTIMATED_DETECTOR_BYTES,
+                () -> FaceDetection.getClient(faceDetectorOptions));
+    detector = detectorLease.get();
   }
 
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    detectorLease.release();
   }
 
   @Override
@@ -58,6 +71,20 @@ public class FaceDetectorProcessor extends VisionProcessorBase<List<Face>> {
     return detector.process(image);
   }
 
+  @Nullable
+  @Override
+  protected Rect getRegionOfInterest(List<Face> faces) {
+    Rect region = null;
+    for (Face face : faces) {
+      if (region == null) {
+        region = new Rect(face.getBoundingBox());
+      } else {
+        region.union(face.getBoundingBox());
+      }
+    }
+    return region;
+  }
+
   @Override
   protected void onSuccess(@NonNull List<Face> faces, @NonNull GraphicOverlay graphicOverlay) {
     for (Face face : faces) {
@@ -21,6 +21,7 @@ import androidx.annotation.NonNull;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.label.ImageLabel;
@@ -34,17 +35,24 @@ public class LabelDetectorProcessor extends VisionProcessorBase<List<ImageLabel>
 
   private static final String TAG = "LabelDetectorProcessor";
 
+  // Rough memory use of a loaded image labeler, counted against the DetectorPool budget.
+  private static final long ESTIMATED_LABELER_BYTES = 8L * 1024 * 1024;
+
+  private final DetectorPool.Lease<ImageLabeler> imageLabelerLease;
   private final ImageLabeler imageLabeler;
 
   public LabelDetectorProcessor(Context context, ImageLabelerOptionsBase options) {
     super(context);
-    imageLabeler = ImageLabeling.getClient(options);
+    imageLabelerLease =
+        DetectorPool.getInstance(context)
+            .acquire(options, ESTIMATED_LABELER_BYTES, () -> ImageLabeling.getClient(options));
+    imageLabeler = imageLabelerLease.get();
   }
 
   @Override
   public void stop() {
     super.stop();
-    imageLabeler.close();
+    imageLabelerLease.release();
   }
 
   @Override
@@ -17,10 +17,13 @@
 package com.google.mlkit.vision.demo.java.objectdetector;
 
 import android.content.Context;
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.objects.DetectedObject;
@@ -34,17 +37,24 @@ public class ObjectDetectorProcessor extends VisionProcessorBase<List<DetectedOb
 
   private static final String TAG = "ObjectDetectorProcessor";
 
+  // Rough memory use of a loaded object detector, counted against the DetectorPool budget.
+  private static final long ESTIMATED_DETECTOR_BYTES = 8L * 1024 * 1024;
+
+  private final DetectorPool.Lease<ObjectDetector> detectorLease;
   private final ObjectDetector detector;
 
   public ObjectDetectorProcessor(Context context, ObjectDetectorOptionsBase options) {
     super(context);
-    detector = ObjectDetection.getClient(options);
+    detectorLease =
+        DetectorPool.getInstance(context)
+            .acquire(options, ESTIMATED_DETECTOR_BYTES, () -> ObjectDetection.getClient(options));
+    detector = detectorLease.get();
   }
 
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    detectorLease.release();
   }
 
   @Override
@@ -52,6 +62,20 @@ public class ObjectDetectorProcessor extends VisionProcessorBase<List<DetectedOb
     return detector.process(image);
   }
 
+  @Nullable
+  @Override
+  protected Rect getRegionOfInterest(List<DetectedObject> results) {
+    Rect region = null;
+    for (DetectedObject object : results) {
+      if (region == null) {
+        region = new Rect(object.getBoundingBox());
+      } else {
+        region.union(object.getBoundingBox());
+      }
+    }
+    return region;
+  }
+
   @Override
   protected void onSuccess(
       @NonNull List<DetectedObject> results, @NonNull GraphicOverlay graphicOverlay) {
@@ -22,6 +22,7 @@ import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.android.odml.image.MlImage;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.java.posedetector.classification.PoseClassifierProcessor;
@@ -39,6 +40,10 @@ public class PoseDetectorProcessor
     extends VisionProcessorBase<PoseDetectorProcessor.PoseWithClassification> {
   private static final String TAG = "PoseDetectorProcessor";
 
+  // Rough memory use of a loaded pose detector, counted against the DetectorPool budget.
+  private static final long ESTIMATED_DETECTOR_BYTES = 16L * 1024 * 1024;
+
+  private final DetectorPool.Lease<PoseDetector> detectorLease;
   private final PoseDetector detector;
 
   private final boolean showInFrameLikelihood;
@@ -81,7 +86,10 @@ public class PoseDetectorProcessor
     this.showInFrameLikelihood = showInFrameLikelihood;
     this.visualizeZ = visualizeZ;
     this.rescaleZForVisualization = rescaleZForVisualization;
-    detector = PoseDetection.getClient(options);
+    detectorLease =
+        DetectorPool.getInstance(context)
+            .acquire(options, ESTIMATED_DETECTOR_BYTES, () -> PoseDetection.getClient(options));
+    detector = detectorLease.get();
     this.runClassification = runClassification;
     this.isStreamMode = isStreamMode;
     this.context = context;
@@ -91,7 +99,7 @@ public class PoseDetectorProcessor
   @Override
   public void stop() {
     super.stop();
-    detector.close();
+    detectorLease.release();
   }
 
   @Override
@@ -21,6 +21,7 @@ import androidx.annotation.NonNull;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.preference.PreferenceUtils;
@@ -34,6 +35,10 @@ public class SegmenterProcessor extends VisionProcessorBase<SegmentationMask> {
 
   private static final String TAG = "SegmenterProcessor";
 
+  // Rough memory use of a loaded segmenter, counted against the DetectorPool budget.
+  private static final long ESTIMATED_SEGMENTER_BYTES = 8L * 1024 * 1024;
+
+  private final DetectorPool.Lease<Segmenter> segmenterLease;
   private final Segmenter segmenter;
 
   public SegmenterProcessor(Context context) {
@@ -50,10 +55,19 @@ public class SegmenterProcessor extends VisionProcessorBase<SegmentationMask> {
     }
 
     SelfieSegmenterOptions options = optionsBuilder.build();
-    segmenter = Segmentation.getClient(options);
+    segmenterLease =
+        DetectorPool.getInstance(context)
+            .acquire(options, ESTIMATED_SEGMENTER_BYTES, () -> Segmentation.getClient(options));
+    segmenter = segmenterLease.get();
     Log.d(TAG, "SegmenterProcessor created with option: " + options);
   }
 
+  @Override
+  public void stop() {
+    super.stop();
+    segmenterLease.release();
+  }
+
   @Override
   protected Task<SegmentationMask> detectInImage(InputImage image) {
     return segmenter.process(image);
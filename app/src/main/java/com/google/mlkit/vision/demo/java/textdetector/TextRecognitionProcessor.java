@@ -18,10 +18,13 @@ package com.google.mlkit.vision.demo.java.textdetector;
 
 import android.content.Context;
 import android.graphics.Point;
+import android.graphics.Rect;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import android.util.Log;
 import com.google.android.gms.tasks.Task;
 import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.DetectorPool;
 import com.google.mlkit.vision.demo.GraphicOverlay;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.text.Text;
@@ -36,17 +39,28 @@ public class TextRecognitionProcessor extends VisionProcessorBase<Text> {
 
   private static final String TAG = "TextRecProcessor";
 
+  // Rough memory use of a loaded text recognizer, counted against the DetectorPool budget.
+  private static final long ESTIMATED_RECOGNIZER_BYTES = 8L * 1024 * 1024;
+
+  private final DetectorPool.Lease<TextRecognizer> textRecognizerLease;
   private final TextRecognizer textRecognizer;
 
   public TextRecognitionProcessor(Context context) {
     super(context);
-    textRecognizer = TextRecognition.getClient();
+    // The recognizer has default options, so it is keyed by the processor class.
+    textRecognizerLease =
+        DetectorPool.getInstance(context)
+            .acquire(
+                TextRecognitionProcessor.class,
+                ESTIMATED_RECOGNIZER_BYTES,
+                TextRecognition::getClient);
+    textRecognizer = textRecognizerLease.get();
   }
 
   @Override
   public void stop() {
     super.stop();
-    textRecognizer.close();
+    textRecognizerLease.release();
   }
 
   @Override
@@ -54,6 +68,24 @@ public class TextRecognitionProcessor extends VisionProcessorBase<Text> {
     return textRecognizer.process(image);
   }
 
+  @Nullable
+  @Override
+  protected Rect getRegionOfInterest(Text text) {
+    Rect region = null;
+    for (Text.TextBlock block : text.getTextBlocks()) {
+      Rect boundingBox = block.getBoundingBox();
+      if (boundingBox == null) {
+        continue;
+      }
+      if (region == null) {
+        region = new Rect(boundingBox);
+      } else {
+        region.union(boundingBox);
+      }
+    }
+    return region;
+  }
+
   @Override
   protected void onSuccess(@NonNull Text text, @NonNull GraphicOverlay graphicOverlay) {
     Log.d(TAG, "On-device Text detection successful");
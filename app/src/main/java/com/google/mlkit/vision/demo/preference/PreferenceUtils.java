@@ -29,6 +29,7 @@ import com.google.common.base.Preconditions;
 import com.google.mlkit.common.model.LocalModel;
 import com.google.mlkit.vision.demo.CameraSource;
 import com.google.mlkit.vision.demo.CameraSource.SizePair;
+import com.google.mlkit.vision.demo.FrameScheduler;
 import com.google.mlkit.vision.demo.R;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.objects.ObjectDetectorOptionsBase.DetectorMode;
@@ -42,6 +43,9 @@ import com.google.mlkit.vision.pose.defaults.PoseDetectorOptions;
 public class PreferenceUtils {
 
   private static final int POSE_DETECTOR_PERFORMANCE_MODE_FAST = 1;
+  private static final int FRAME_SCHEDULER_QUEUE_CAPACITY = 3;
+  private static final int FRAME_SCHEDULER_FRAME_INTERVAL = 2;
+  private static final float FRAME_SCHEDULER_TARGET_FPS = 15;
 
   static void saveString(Context context, @StringRes int prefKeyId, @Nullable String value) {
     PreferenceManager.getDefaultSharedPreferences(context)
@@ -100,6 +104,18 @@ public class PreferenceUtils {
     return sharedPreferences.getBoolean(prefKey, false);
   }
 
+  public static boolean isPipelineTraceRecordingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_pipeline_trace);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isFrameRecordingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_frame_recording);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
   public static ObjectDetectorOptions getObjectDetectorOptionsForStillImage(Context context) {
     return getObjectDetectorOptions(
         context,
@@ -315,6 +331,59 @@ public class PreferenceUtils {
     return Integer.parseInt(sharedPreferences.getString(prefKey, String.valueOf(defaultValue)));
   }
 
+  /**
+   * Creates the {@link FrameScheduler} selected in the settings. All stream input paths of a
+   * processor share the returned scheduler, still images bypass its policy.
+   */
+  public static FrameScheduler getFrameScheduler(Context context) {
+    int depth =
+        getModeTypePreferenceValue(
+            context, R.string.pref_key_frame_scheduler_in_flight_depth, /* defaultValue= */ 1);
+    return getFrameSchedulerPolicy(context).withMaxFramesInFlight(depth);
+  }
+
+  private static FrameScheduler getFrameSchedulerPolicy(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_frame_scheduler_policy);
+    String policy =
+        sharedPreferences.getString(
+            prefKey, context.getString(R.string.pref_entry_values_frame_scheduler_keep_latest));
+    if (policy.equals(context.getString(R.string.pref_entry_values_frame_scheduler_bounded_queue))) {
+      return FrameScheduler.boundedQueue(FRAME_SCHEDULER_QUEUE_CAPACITY);
+    } else if (policy.equals(
+        context.getString(R.string.pref_entry_values_frame_scheduler_every_nth_frame))) {
+      return FrameScheduler.everyNthFrame(FRAME_SCHEDULER_FRAME_INTERVAL);
+    } else if (policy.equals(
+        context.getString(R.string.pref_entry_values_frame_scheduler_target_fps))) {
+      return FrameScheduler.targetFps(FRAME_SCHEDULER_TARGET_FPS);
+    }
+    return FrameScheduler.keepLatest();
+  }
+
+  public static boolean isAdaptiveResolutionEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_adaptive_resolution);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isDetectorWarmUpEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_detector_warm_up);
+    return sharedPreferences.getBoolean(prefKey, true);
+  }
+
+  public static boolean isRegionOfInterestTrackingEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_region_of_interest_tracking);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
+  public static boolean isVideoNv21InputEnabled(Context context) {
+    SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+    String prefKey = context.getString(R.string.pref_key_video_nv21_input);
+    return sharedPreferences.getBoolean(prefKey, false);
+  }
+
   public static boolean isCameraLiveViewportEnabled(Context context) {
     SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
     String prefKey = context.getString(R.string.pref_key_camera_live_viewport);
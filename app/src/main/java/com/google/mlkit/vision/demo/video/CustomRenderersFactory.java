@@ -162,9 +162,25 @@ public class CustomRenderersFactory extends DefaultRenderersFactory {
                                               Format format) throws ExoPlaybackException {
             if(videoFrameDataListener != null && codec != null){
                 CustomMediaCodecAdapter codecAdapter = (CustomMediaCodecAdapter) codec;
-                //Image image = codecAdapter.getOutputImage(bufferIndex);
-                //buffer = codec.getOutputBuffer(bufferIndex);
-                videoFrameDataListener.onFrame(buffer, codec.getOutputFormat(), format);
+                MediaFormat outputFormat = codec.getOutputFormat();
+                // The layout of flexible output is only known from the planes of its image.
+                boolean isReadAsImage = outputFormat.containsKey(MediaFormat.KEY_COLOR_FORMAT)
+                        && DecoderFrameConverter.isReadAsImage(
+                                outputFormat.getInteger(MediaFormat.KEY_COLOR_FORMAT));
+                Image image = isReadAsImage ? codecAdapter.getOutputImage(bufferIndex) : null;
+                if(image != null){
+                    try {
+                        videoFrameDataListener.onFrame(
+                                image, bufferPresentationTimeUs, outputFormat, format);
+                    }finally {
+                        image.close();
+                    }
+                }else{
+                    // Getting the image invalidates the buffer handed out before.
+                    if(isReadAsImage) buffer = codecAdapter.getOutputBuffer(bufferIndex);
+                    videoFrameDataListener.onFrame(
+                            buffer, bufferPresentationTimeUs, outputFormat, format);
+                }
             }
             boolean process = super.processOutputBuffer(
                     positionUs,
@@ -183,7 +199,13 @@ public class CustomRenderersFactory extends DefaultRenderersFactory {
     }
 
     public interface VideoFrameDataListener{
-        void onFrame(@Nullable ByteBuffer data, MediaFormat androidMediaFormat, Format playerFormat);
-        //void onFrame(Image image, MediaFormat androidMediaFormat, Format playerFormat);
+        void onFrame(@Nullable ByteBuffer data, long presentationTimeUs, MediaFormat androidMediaFormat,
+                     Format playerFormat);
+        /**
+         * Called instead of the buffer variant for output best read as an image, see {@link
+         * DecoderFrameConverter#isReadAsImage}. The image is closed once this returns.
+         */
+        void onFrame(Image image, long presentationTimeUs, MediaFormat androidMediaFormat,
+                     Format playerFormat);
     }
 }
@@ -0,0 +1,392 @@
+package com.google.mlkit.vision.demo.video;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodecInfo.CodecCapabilities;
+import android.media.MediaFormat;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.demo.BitmapUtils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the output buffers of a video decoder into NV21, following the color format, the stride,
+ * the slice height and the crop rectangle of its output format.
+ *
+ * Planar (I420) and semi-planar (NV12) output, including the vendor variants of these, is copied
+ * row by row straight out of the decoder buffer by {@link BitmapUtils#yuv420ToNv21}. Qualcomm
+ * output in 64x32 tiles is untiled tile row by tile row, also without copying the whole buffer
+ * first. COLOR_FormatYUV420Flexible output is best read as an {@link Image}, whose planes carry
+ * their own strides, see {@link #imageToNv21}. Read as a buffer, its layout is not part of the
+ * format and is only guessed from the chroma bytes, see {@link #isSemiPlanar}, which is best
+ * effort.
+ *
+ * Only the crop rectangle, rounded down to even sizes, ends up in the NV21 frame.
+ */
+public final class DecoderFrameConverter {
+    // Not in CodecCapabilities, or deprecated there, but still common on older devices.
+    private static final int COLOR_QCOM_FORMAT_YUV420_SEMI_PLANAR = 0x7fa30c00;
+    private static final int COLOR_QCOM_FORMAT_YUV420_PACKED_SEMI_PLANAR_64X32_TILE_2M8KA =
+            0x7fa30c03;
+    private static final int COLOR_QCOM_FORMAT_YUV420_SEMI_PLANAR_32M = 0x7fa30c04;
+    private static final int COLOR_TI_FORMAT_YUV420_PACKED_SEMI_PLANAR = 0x7f000100;
+
+    // The crop keys only got constants in API 33.
+    private static final String KEY_CROP_LEFT = "crop-left";
+    private static final String KEY_CROP_TOP = "crop-top";
+    private static final String KEY_CROP_RIGHT = "crop-right";
+    private static final String KEY_CROP_BOTTOM = "crop-bottom";
+
+    // Geometry of the Qualcomm tiled format: tiles of 64x32 bytes, and the chroma plane starting
+    // at a multiple of four tiles.
+    private static final int TILE_WIDTH = 64;
+    private static final int TILE_HEIGHT = 32;
+    private static final int TILE_SIZE = TILE_WIDTH * TILE_HEIGHT;
+    private static final int TILE_GROUP_SIZE = 4 * TILE_SIZE;
+
+    // Chroma rows sampled to tell the layout of flexible output apart.
+    private static final int LAYOUT_SAMPLE_ROWS = 4;
+
+    private enum Layout {PLANAR, SEMI_PLANAR, FLEXIBLE, TILED}
+
+    private final Layout layout;
+    private final int colorFormat;
+    private final int codedWidth;
+    private final int codedHeight;
+    private final int stride;
+    private final int sliceHeight;
+    private final int cropLeft;
+    private final int cropTop;
+    private final int width;
+    private final int height;
+
+    private DecoderFrameConverter(Layout layout, int colorFormat, int codedWidth, int codedHeight,
+                                  int stride, int sliceHeight, int cropLeft, int cropTop,
+                                  int width, int height){
+        this.layout = layout;
+        this.colorFormat = colorFormat;
+        this.codedWidth = codedWidth;
+        this.codedHeight = codedHeight;
+        this.stride = stride;
+        this.sliceHeight = sliceHeight;
+        this.cropLeft = cropLeft;
+        this.cropTop = cropTop;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Returns a converter for the buffers of a decoder with the given output format, or null if
+     * its color format is not supported.
+     */
+    @Nullable
+    public static DecoderFrameConverter create(MediaFormat format){
+        if(!format.containsKey(MediaFormat.KEY_COLOR_FORMAT)) return null;
+        int colorFormat = format.getInteger(MediaFormat.KEY_COLOR_FORMAT);
+        Layout layout = getLayout(colorFormat);
+        if(layout == null) return null;
+
+        int codedWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        int codedHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        int cropLeft = getInteger(format, KEY_CROP_LEFT, 0);
+        int cropTop = getInteger(format, KEY_CROP_TOP, 0);
+        int cropRight = getInteger(format, KEY_CROP_RIGHT, codedWidth - 1);
+        int cropBottom = getInteger(format, KEY_CROP_BOTTOM, codedHeight - 1);
+        // Chroma is shared by 2x2 pixels, so the crop has to start and end on even pixels.
+        cropLeft &= ~1;
+        cropTop &= ~1;
+        int width = (Math.min(cropRight + 1, codedWidth) - cropLeft) & ~1;
+        int height = (Math.min(cropBottom + 1, codedHeight) - cropTop) & ~1;
+        if(width <= 0 || height <= 0) return null;
+
+        // Some decoders leave the stride or the slice height out, or report 0.
+        int stride = getInteger(format, MediaFormat.KEY_STRIDE, 0);
+        int sliceHeight = getInteger(format, MediaFormat.KEY_SLICE_HEIGHT, 0);
+        if(colorFormat == COLOR_QCOM_FORMAT_YUV420_SEMI_PLANAR_32M){
+            if(stride < codedWidth) stride = align(codedWidth, 128);
+            if(sliceHeight < codedHeight) sliceHeight = align(codedHeight, 32);
+        }
+        if(stride < codedWidth) stride = codedWidth;
+        if(sliceHeight < codedHeight) sliceHeight = codedHeight;
+
+        return new DecoderFrameConverter(layout, colorFormat, codedWidth, codedHeight, stride,
+                sliceHeight, cropLeft, cropTop, width, height);
+    }
+
+    @Nullable
+    private static Layout getLayout(int colorFormat){
+        switch (colorFormat){
+            case CodecCapabilities.COLOR_FormatYUV420Planar:
+            case CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
+                return Layout.PLANAR;
+            case CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
+            case CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
+            case COLOR_QCOM_FORMAT_YUV420_SEMI_PLANAR:
+            case COLOR_QCOM_FORMAT_YUV420_SEMI_PLANAR_32M:
+            case COLOR_TI_FORMAT_YUV420_PACKED_SEMI_PLANAR:
+                return Layout.SEMI_PLANAR;
+            case CodecCapabilities.COLOR_FormatYUV420Flexible:
+                return Layout.FLEXIBLE;
+            case COLOR_QCOM_FORMAT_YUV420_PACKED_SEMI_PLANAR_64X32_TILE_2M8KA:
+                return Layout.TILED;
+            default:
+                return null;
+        }
+    }
+
+    private static int getInteger(MediaFormat format, String key, int defaultValue){
+        return format.containsKey(key) ? format.getInteger(key) : defaultValue;
+    }
+
+    private static int align(int value, int alignment){
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    public int getColorFormat(){
+        return colorFormat;
+    }
+
+    /**
+     * Whether the buffer layout is guessed from the frame content, as for flexible output read as
+     * a buffer. Such frames may come out garbled if the guess is wrong.
+     */
+    public boolean isLayoutGuessed(){
+        return layout == Layout.FLEXIBLE;
+    }
+
+    /** Whether output of the given color format should be read with {@link #imageToNv21}. */
+    public static boolean isReadAsImage(int colorFormat){
+        return colorFormat == CodecCapabilities.COLOR_FormatYUV420Flexible;
+    }
+
+    /**
+     * Returns the part of {@code image} copied by {@link #imageToNv21}, its crop rectangle with
+     * the edges rounded down to even pixels, or null if the image is not YUV 4:2:0 or the crop is
+     * empty.
+     */
+    @Nullable
+    public static Rect getNv21Crop(Image image){
+        if(image.getFormat() != ImageFormat.YUV_420_888) return null;
+        Rect crop = new Rect(image.getCropRect());
+        if(!crop.intersect(0, 0, image.getWidth(), image.getHeight())) return null;
+        // Chroma is shared by 2x2 pixels, so the crop has to start and end on even pixels.
+        crop.left &= ~1;
+        crop.top &= ~1;
+        crop.right = crop.left + (crop.width() & ~1);
+        crop.bottom = crop.top + (crop.height() & ~1);
+        return crop.isEmpty() ? null : crop;
+    }
+
+    /**
+     * Copies the {@code crop} rectangle of {@code image}, as returned by {@link #getNv21Crop},
+     * into {@code out} in NV21 layout, following the strides of the planes.
+     */
+    public static void imageToNv21(Image image, Rect crop, byte[] out){
+        int width = crop.width();
+        int height = crop.height();
+        if(out.length < width * height * 3 / 2){
+            throw new IllegalArgumentException("Output too small: " + out.length);
+        }
+        Image.Plane[] planes = image.getPlanes();
+        int yRowStride = planes[0].getRowStride();
+        // U and V share their strides in YUV_420_888.
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        int chromaOffset = crop.top / 2 * uvRowStride + crop.left / 2 * uvPixelStride;
+        BitmapUtils.yuv420ToNv21(
+                slice(planes[0].getBuffer(), crop.top * yRowStride + crop.left),
+                yRowStride,
+                slice(planes[1].getBuffer(), chromaOffset),
+                slice(planes[2].getBuffer(), chromaOffset),
+                uvRowStride,
+                uvPixelStride,
+                width,
+                height,
+                out);
+    }
+
+    /** Width of the NV21 frames, the width of the crop rectangle rounded down to even. */
+    public int getWidth(){
+        return width;
+    }
+
+    /** Height of the NV21 frames, the height of the crop rectangle rounded down to even. */
+    public int getHeight(){
+        return height;
+    }
+
+    /** Size in bytes of the NV21 frames. */
+    public int getNv21Size(){
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Copies the decoder buffer {@code data}, which starts at its position, into {@code out} in
+     * NV21 layout. The position of {@code data} is left unchanged.
+     *
+     * @return false if {@code data} is too small for the output format, in which case the content
+     *     of {@code out} is undefined
+     */
+    public boolean toNv21(ByteBuffer data, byte[] out){
+        if(out.length < getNv21Size()){
+            throw new IllegalArgumentException("Output too small: " + out.length);
+        }
+        switch (layout){
+            case TILED:
+                return untileToNv21(data, out);
+            case FLEXIBLE:
+                return planesToNv21(data, isSemiPlanar(data), out);
+            case SEMI_PLANAR:
+                return planesToNv21(data, /* isSemiPlanar= */ true, out);
+            default:
+                return planesToNv21(data, /* isSemiPlanar= */ false, out);
+        }
+    }
+
+    private boolean planesToNv21(ByteBuffer data, boolean isSemiPlanar, byte[] out){
+        int chromaStart = stride * sliceHeight;
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        int yStart = cropTop * stride + cropLeft;
+        int yEnd = yStart + (height - 1) * stride + width;
+        ByteBuffer u;
+        ByteBuffer v;
+        int uvRowStride;
+        int uvPixelStride;
+        if(isSemiPlanar){
+            int uStart = chromaStart + cropTop / 2 * stride + cropLeft;
+            // The last V byte closes the frame.
+            if(uStart + (chromaHeight - 1) * stride + 2 * chromaWidth > data.remaining()){
+                return false;
+            }
+            u = slice(data, uStart);
+            v = slice(data, uStart + 1);
+            uvRowStride = stride;
+            uvPixelStride = 2;
+        }else{
+            int chromaStride = stride / 2;
+            int chromaOffset = cropTop / 2 * chromaStride + cropLeft / 2;
+            int uStart = chromaStart + chromaOffset;
+            int vStart = chromaStart + chromaStride * (sliceHeight / 2) + chromaOffset;
+            if(vStart + (chromaHeight - 1) * chromaStride + chromaWidth > data.remaining()){
+                return false;
+            }
+            u = slice(data, uStart);
+            v = slice(data, vStart);
+            uvRowStride = chromaStride;
+            uvPixelStride = 1;
+        }
+        if(yEnd > data.remaining()) return false;
+        BitmapUtils.yuv420ToNv21(slice(data, yStart), stride, u, v, uvRowStride, uvPixelStride,
+                width, height, out);
+        return true;
+    }
+
+    /** Returns the part of {@code data} from {@code offset} bytes after its position on. */
+    private static ByteBuffer slice(ByteBuffer data, int offset){
+        ByteBuffer slice = data.duplicate();
+        slice.position(data.position() + offset);
+        return slice.slice();
+    }
+
+    /**
+     * Guesses whether flexible output read as a buffer is semi-planar. In semi-planar chroma every other byte belongs
+     * to the same plane, so for natural images bytes two apart differ less than neighbouring
+     * bytes, and the other way round for planar chroma. A few rows of the chroma area, which has
+     * the same size in both layouts, are sampled. Frames without color are semi-planar, the more
+     * common layout, which gives the same gray either way. This is a heuristic: frames with
+     * little chroma detail, or padding between the planes, may be taken for the wrong layout.
+     */
+    private boolean isSemiPlanar(ByteBuffer data){
+        int chromaStart = data.position() + stride * sliceHeight;
+        int chromaHeight = sliceHeight / 2;
+        if(chromaStart + chromaHeight * stride > data.limit()) return true;
+        long neighbourDifference = 0;
+        long pairDifference = 0;
+        for(int i = 1; i <= LAYOUT_SAMPLE_ROWS; i++){
+            int rowStart = chromaStart + chromaHeight * i / (LAYOUT_SAMPLE_ROWS + 1) * stride;
+            for(int x = 0; x + 2 < width / 2; x++){
+                int value = data.get(rowStart + x) & 0xff;
+                neighbourDifference += Math.abs((data.get(rowStart + x + 1) & 0xff) - value);
+                pairDifference += Math.abs((data.get(rowStart + x + 2) & 0xff) - value);
+            }
+        }
+        return neighbourDifference >= pairDifference;
+    }
+
+    /**
+     * Untiles Qualcomm's 64x32 tiled NV12 into NV21. Luma tiles are stored in a zig-zag order of
+     * pairs, see {@link #getTilePosition}, and the chroma tiles follow in the same order, each
+     * holding the chroma of two tile rows of luma. Only the rows and columns inside the crop
+     * rectangle are copied.
+     */
+    private boolean untileToNv21(ByteBuffer data, byte[] out){
+        int tileColumns = (codedWidth - 1) / TILE_WIDTH + 1;
+        int alignedTileColumns = (tileColumns + 1) & ~1;
+        int lumaTileRows = (codedHeight - 1) / TILE_HEIGHT + 1;
+        int chromaTileRows = (codedHeight / 2 - 1) / TILE_HEIGHT + 1;
+        int lumaSize = align(alignedTileColumns * lumaTileRows * TILE_SIZE, TILE_GROUP_SIZE);
+        int chromaSize = alignedTileColumns * chromaTileRows * TILE_SIZE;
+        if(lumaSize + chromaSize > data.remaining()) return false;
+
+        ByteBuffer source = data.duplicate();
+        int base = data.position();
+        int imageSize = width * height;
+        int cropRight = cropLeft + width;
+        int cropBottom = cropTop + height;
+        for(int tileY = 0; tileY < lumaTileRows; tileY++){
+            int tileTop = tileY * TILE_HEIGHT;
+            int tileHeight = Math.min(TILE_HEIGHT, codedHeight - tileTop);
+            if(tileTop >= cropBottom || tileTop + tileHeight <= cropTop) continue;
+            for(int tileX = 0; tileX < tileColumns; tileX++){
+                int tileLeft = tileX * TILE_WIDTH;
+                int left = Math.max(tileLeft, cropLeft);
+                int right = Math.min(tileLeft + TILE_WIDTH, cropRight);
+                if(left >= right) continue;
+                int lumaStart = base + left - tileLeft + TILE_SIZE
+                        * getTilePosition(tileX, tileY, alignedTileColumns, lumaTileRows);
+                int chromaStart = base + lumaSize + left - tileLeft + TILE_SIZE
+                        * getTilePosition(tileX, tileY / 2, alignedTileColumns, chromaTileRows)
+                        + (tileY & 1) * TILE_SIZE / 2;
+                for(int row = 0; row < tileHeight; row++){
+                    int y = tileTop + row;
+                    if(y < cropTop || y >= cropBottom) continue;
+                    source.position(lumaStart + row * TILE_WIDTH);
+                    source.get(out, (y - cropTop) * width + left - cropLeft, right - left);
+                }
+                for(int row = 0; row < tileHeight / 2; row++){
+                    int y = tileTop + 2 * row;
+                    if(y < cropTop || y >= cropBottom) continue;
+                    source.position(chromaStart + row * TILE_WIDTH);
+                    source.get(out, imageSize + (y - cropTop) / 2 * width + left - cropLeft,
+                            right - left);
+                }
+            }
+        }
+        // The tiles hold U before V.
+        for(int i = imageSize; i < imageSize + imageSize / 2; i += 2){
+            byte u = out[i];
+            out[i] = out[i + 1];
+            out[i + 1] = u;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the tile at the given tile column and row, for a plane which is
+     * {@code columns} tiles wide, an even number, and {@code rows} tiles high. Tiles are stored by
+     * pairs of rows, in a Z shape of four tiles at a time; a last single row is stored in order.
+     */
+    private static int getTilePosition(int x, int y, int columns, int rows){
+        int position = x + (y & ~1) * columns;
+        if((y & 1) != 0){
+            position += (x & ~3) + 2;
+        }else if((rows & 1) == 0 || y != rows - 1){
+            position += (x + 2) & ~3;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,26 @@
+package com.google.mlkit.vision.demo.video;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A backend converting NV21 frames into ARGB_8888 bitmaps, scaled to the size of the bitmap and
+ * kept in the orientation of the frame. {@link FrameConverters} creates the backends of the app,
+ * and {@link FrameConverterSelector} picks the fastest of them on the device.
+ *
+ * Implementations may be called from any thread, but only one thread at a time.
+ */
+public interface FrameConverter {
+    /** Stable name of the backend, under which the calibration stores its choice. */
+    String getName();
+
+    /**
+     * Converts the NV21 frame starting at the position of {@code nv21}, which is left unchanged,
+     * into {@code output}.
+     */
+    void convert(ByteBuffer nv21, int width, int height, Bitmap output);
+
+    /** Frees the resources of the backend, which must not be used afterwards. */
+    void release();
+}
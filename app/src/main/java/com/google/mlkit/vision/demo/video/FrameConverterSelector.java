@@ -0,0 +1,245 @@
+package com.google.mlkit.vision.demo.video;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.WorkerThread;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Picks the fastest {@link FrameConverter} for every frame size and bitmap size.
+ *
+ * Which backend is fastest depends on the device, so each backend converts a few synthetic frames
+ * of a size on a background thread, and the fastest one is used from then on, and remembered per
+ * size in shared preferences, which are cleared when the app runs on another device or system
+ * build. Until then frames are converted by the default backend.
+ *
+ * Timing the backends competes with the detector for the CPU and GPU, and skews the timings in
+ * turn, so sizes expected up front are calibrated with {@link #calibrate} before playback, and
+ * sizes first asked for during playback wait until the pipeline is idle, see {@link
+ * #setPipelineIdle}. Choices remembered from earlier runs are loaded right away.
+ */
+public final class FrameConverterSelector {
+    private static final String TAG = FrameConverterSelector.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "frame_converter_calibration";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    // Lets the JIT compile the conversion, and RenderScript set up, before it is timed.
+    private static final int WARM_UP_ITERATIONS = 3;
+    private static final int ITERATIONS = 5;
+
+    // Calibrations run one at a time, so that they do not skew each other's timings.
+    private static final ExecutorService CALIBRATION_EXECUTOR =
+            Executors.newSingleThreadExecutor();
+
+    private final Context context;
+
+    // Name of the fastest backend by calibration key.
+    @GuardedBy("this")
+    private final Map<String, String> choices = new HashMap<>();
+    // Keys whose calibration is pending, deferred or running.
+    @GuardedBy("this")
+    private final Set<String> pendingKeys = new HashSet<>();
+    // Calibrations waiting for the pipeline to be idle, by key.
+    @GuardedBy("this")
+    private final Map<String, Runnable> deferredCalibrations = new LinkedHashMap<>();
+    // Whether nothing is being played, as before playback starts.
+    @GuardedBy("this")
+    private boolean isPipelineIdle = true;
+    // Backends in use, by name.
+    @GuardedBy("this")
+    private final Map<String, FrameConverter> converters = new HashMap<>();
+    @GuardedBy("this")
+    private boolean isReleased;
+
+    public FrameConverterSelector(Context context){
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Calibrates the conversion of frames of {@code width x height} into bitmaps of
+     * {@code outputWidth x outputHeight} in the background, ahead of the first such frame.
+     * Should be called before playback starts. May be called from any thread.
+     */
+    public synchronized void calibrate(int width, int height, int outputWidth, int outputHeight){
+        checkNotReleased();
+        startCalibration(getKey(width, height, outputWidth, outputHeight), width, height,
+                outputWidth, outputHeight);
+    }
+
+    /**
+     * Tells whether the pipeline is idle, e.g. while playback is paused. Calibrations which need
+     * to time the backends wait until it is, although one already running is finished. May be
+     * called from any thread.
+     */
+    public synchronized void setPipelineIdle(boolean isIdle){
+        isPipelineIdle = isIdle;
+        if(!isIdle || isReleased) return;
+        for(Runnable calibration : deferredCalibrations.values()){
+            CALIBRATION_EXECUTOR.execute(calibration);
+        }
+        deferredCalibrations.clear();
+    }
+
+    /**
+     * Returns the backend to convert frames of {@code width x height} into bitmaps of
+     * {@code outputWidth x outputHeight}. Until the calibration of these sizes has finished, this
+     * is the default backend. May be called from any thread.
+     *
+     * @throws IllegalStateException if the selector is released
+     */
+    public synchronized FrameConverter getConverter(int width, int height, int outputWidth,
+                                                    int outputHeight){
+        checkNotReleased();
+        String key = getKey(width, height, outputWidth, outputHeight);
+        String name = choices.get(key);
+        if(name == null){
+            startCalibration(key, width, height, outputWidth, outputHeight);
+            name = FrameConverters.NAMES[0];
+        }
+        FrameConverter converter = converters.get(name);
+        if(converter == null){
+            converter = FrameConverters.create(context, name);
+            if(converter == null){
+                // Chosen on a build where it was available.
+                name = FrameConverters.NAMES[0];
+                choices.put(key, name);
+                converter = FrameConverters.create(context, name);
+            }
+            converters.put(name, converter);
+        }
+        return converter;
+    }
+
+    /**
+     * Releases all backends, after which the selector must not be used. Calibrations still
+     * running are finished and stored, deferred ones are dropped.
+     */
+    public synchronized void release(){
+        isReleased = true;
+        deferredCalibrations.clear();
+        for(FrameConverter converter : converters.values()){
+            converter.release();
+        }
+        converters.clear();
+    }
+
+    private static String getKey(int width, int height, int outputWidth, int outputHeight){
+        return width + "x" + height + ">" + outputWidth + "x" + outputHeight;
+    }
+
+    @GuardedBy("this")
+    private void checkNotReleased(){
+        if(isReleased) throw new IllegalStateException("Frame converter selector is released");
+    }
+
+    @GuardedBy("this")
+    private void startCalibration(String key, int width, int height, int outputWidth,
+                                  int outputHeight){
+        if(pendingKeys.add(key)){
+            CALIBRATION_EXECUTOR.execute(
+                    () -> loadOrCalibrate(key, width, height, outputWidth, outputHeight));
+        }
+    }
+
+    @WorkerThread
+    private void loadOrCalibrate(String key, int width, int height, int outputWidth,
+                                 int outputHeight){
+        SharedPreferences preferences =
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        if(!Build.FINGERPRINT.equals(preferences.getString(KEY_FINGERPRINT, null))){
+            preferences.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+        }
+        String name = preferences.getString(key, null);
+        if(name == null){
+            synchronized (this){
+                if(isReleased) return;
+                if(!isPipelineIdle){
+                    // Checked again once idle, as playback may have resumed in the meantime.
+                    deferredCalibrations.put(key, () -> loadOrCalibrate(
+                            key, width, height, outputWidth, outputHeight));
+                    return;
+                }
+            }
+            name = findFastestConverter(width, height, outputWidth, outputHeight);
+            preferences.edit().putString(key, name).apply();
+        }
+        synchronized (this){
+            choices.put(key, name);
+            pendingKeys.remove(key);
+        }
+    }
+
+    @WorkerThread
+    private String findFastestConverter(int width, int height, int outputWidth, int outputHeight){
+        ByteBuffer frame = createSyntheticFrame(width, height);
+        Bitmap output = Bitmap.createBitmap(outputWidth, outputHeight, Bitmap.Config.ARGB_8888);
+        String fastestName = FrameConverters.NAMES[0];
+        long fastestNs = Long.MAX_VALUE;
+        StringBuilder report = new StringBuilder();
+        for(String name : FrameConverters.NAMES){
+            FrameConverter converter = FrameConverters.create(context, name);
+            if(converter == null) continue;
+            try {
+                long medianNs = measure(converter, frame, width, height, output);
+                report.append(' ').append(name).append('=').append(medianNs / 1000).append("us");
+                if(medianNs < fastestNs){
+                    fastestNs = medianNs;
+                    fastestName = name;
+                }
+            }catch (RuntimeException e){
+                Log.w(TAG, "Frame converter " + name + " failed", e);
+            }finally {
+                converter.release();
+            }
+        }
+        output.recycle();
+        Log.d(TAG, "Calibrated " + width + "x" + height + " to " + outputWidth + "x" + outputHeight
+                + ":" + report + ", using " + fastestName);
+        return fastestName;
+    }
+
+    private static long measure(FrameConverter converter, ByteBuffer frame, int width, int height,
+                                Bitmap output){
+        for(int i = 0; i < WARM_UP_ITERATIONS; i++){
+            converter.convert(frame, width, height, output);
+        }
+        long[] durationsNs = new long[ITERATIONS];
+        for(int i = 0; i < ITERATIONS; i++){
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            converter.convert(frame, width, height, output);
+            durationsNs[i] = SystemClock.elapsedRealtimeNanos() - startNs;
+        }
+        Arrays.sort(durationsNs);
+        return durationsNs[ITERATIONS / 2];
+    }
+
+    /** Returns an NV21 frame of gradients, in an array of exactly its size like pooled frames. */
+    private static ByteBuffer createSyntheticFrame(int width, int height){
+        int lumaSize = width * height;
+        byte[] nv21 = new byte[lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+        for(int y = 0; y < height; y++){
+            for(int x = 0; x < width; x++){
+                nv21[y * width + x] = (byte) (x + y);
+            }
+        }
+        for(int i = lumaSize; i < nv21.length; i++){
+            nv21[i] = (byte) (i * 7);
+        }
+        return ByteBuffer.wrap(nv21);
+    }
+}
@@ -0,0 +1,213 @@
+package com.google.mlkit.vision.demo.video;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.demo.ScalingFrameConverter;
+import com.google.mlkit.vision.demo.YuvToArgbConverter;
+import com.google.mlkit.vision.demo.java.videoactivity.YuvToRgbConverter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link FrameConverter} backends of the app:
+ *
+ * {@link #SCALING} converts and scales in one pass with {@link ScalingFrameConverter}.
+ * {@link #JAVA} uses the fixed point kernel of {@link YuvToArgbConverter} on one thread,
+ * {@link #PARALLEL_JAVA} the same kernel on all cores through {@link ParallelYuvToRgbConverter},
+ * and {@link #RENDER_SCRIPT} the RenderScript intrinsic of {@link YuvToRgbConverter}. These three
+ * convert at the size of the frame, and a smaller bitmap is drawn from the full size one.
+ */
+public final class FrameConverters {
+    public static final String SCALING = "scaling";
+    public static final String JAVA = "java";
+    public static final String PARALLEL_JAVA = "parallel_java";
+    public static final String RENDER_SCRIPT = "render_script";
+
+    /** Names of all backends, the default one first. */
+    public static final String[] NAMES = {SCALING, JAVA, PARALLEL_JAVA, RENDER_SCRIPT};
+
+    private FrameConverters(){}
+
+    /**
+     * Creates the backend called {@code name}, or returns null if there is none by that name or
+     * it is not available on the device.
+     */
+    @Nullable
+    public static FrameConverter create(Context context, String name){
+        switch (name){
+            case SCALING:
+                return new ScalingConverter();
+            case JAVA:
+                return new JavaConverter();
+            case PARALLEL_JAVA:
+                return new ParallelJavaConverter();
+            case RENDER_SCRIPT:
+                try {
+                    return new RenderScriptConverter(context.getApplicationContext());
+                }catch (RuntimeException e){
+                    // RenderScript is deprecated and may be missing on some devices.
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    /** Hands out NV21 frames as arrays of exactly their size, for the converters taking arrays. */
+    private static final class FrameArray {
+        @Nullable private byte[] copy;
+
+        /**
+         * Returns the array of {@code nv21} if it holds just the frame, as those of the buffer
+         * pool do, and a copy kept for the next frames otherwise.
+         */
+        byte[] get(ByteBuffer nv21, int width, int height){
+            int size = width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+            if(nv21.hasArray() && nv21.arrayOffset() + nv21.position() == 0
+                    && nv21.array().length == size){
+                return nv21.array();
+            }
+            if(copy == null || copy.length != size) copy = new byte[size];
+            nv21.duplicate().get(copy, 0, size);
+            return copy;
+        }
+    }
+
+    private static final class ScalingConverter implements FrameConverter {
+        @Override
+        public String getName(){
+            return SCALING;
+        }
+
+        @Override
+        public void convert(ByteBuffer nv21, int width, int height, Bitmap output){
+            ScalingFrameConverter.nv21ToBitmap(nv21, width, height, /* rotationDegrees= */ 0,
+                    /* mirror= */ false, /* flip= */ false, output);
+        }
+
+        @Override
+        public void release(){ }
+    }
+
+    /**
+     * A backend which converts at the size of the frame. If the bitmap has another size, or the
+     * backend needs a bitmap of its own, the frame is converted into a full size bitmap first and
+     * drawn scaled into the output.
+     */
+    private abstract static class FullSizeConverter implements FrameConverter {
+        private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        private final Canvas canvas = new Canvas();
+        private final Rect outputRect = new Rect();
+        @Nullable private Bitmap frame;
+
+        @Override
+        public synchronized void convert(ByteBuffer nv21, int width, int height, Bitmap output){
+            if(!needsOwnBitmap() && output.getWidth() == width && output.getHeight() == height){
+                convertFullSize(nv21, width, height, output);
+                return;
+            }
+            if(frame == null || frame.getWidth() != width || frame.getHeight() != height){
+                if(frame != null) onFrameSizeChanged();
+                frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            convertFullSize(nv21, width, height, frame);
+            canvas.setBitmap(output);
+            outputRect.set(0, 0, output.getWidth(), output.getHeight());
+            canvas.drawBitmap(frame, null, outputRect, paint);
+            canvas.setBitmap(null);
+        }
+
+        /** Whether the backend always converts into the same bitmap. */
+        boolean needsOwnBitmap(){
+            return false;
+        }
+
+        /** Called before the bitmap of the backend is replaced by one of another size. */
+        void onFrameSizeChanged(){ }
+
+        /** Converts the frame into {@code output}, which has the size of the frame. */
+        abstract void convertFullSize(ByteBuffer nv21, int width, int height, Bitmap output);
+    }
+
+    private static final class JavaConverter extends FullSizeConverter {
+        @Override
+        public String getName(){
+            return JAVA;
+        }
+
+        @Override
+        void convertFullSize(ByteBuffer nv21, int width, int height, Bitmap output){
+            YuvToArgbConverter.nv21ToBitmap(nv21, width, height, /* rotationDegrees= */ 0,
+                    /* mirror= */ false, output);
+        }
+
+        @Override
+        public void release(){ }
+    }
+
+    private static final class ParallelJavaConverter extends FullSizeConverter {
+        private final ParallelYuvToRgbConverter converter = new ParallelYuvToRgbConverter();
+        private final FrameArray frameArray = new FrameArray();
+
+        @Override
+        public String getName(){
+            return PARALLEL_JAVA;
+        }
+
+        @Override
+        void convertFullSize(ByteBuffer nv21, int width, int height, Bitmap output){
+            converter.yuvToRgb(frameArray.get(nv21, width, height), width, height,
+                    /* rotationDegrees= */ 0, output);
+        }
+
+        @Override
+        public void release(){ }
+    }
+
+    private static final class RenderScriptConverter extends FullSizeConverter {
+        private final Context context;
+        private final FrameArray frameArray = new FrameArray();
+        // Its allocations are sized by the first frame and bound to the first bitmap, so it is
+        // created again whenever the frame size changes.
+        private YuvToRgbConverter converter;
+
+        private RenderScriptConverter(Context context){
+            this.context = context;
+            converter = new YuvToRgbConverter(context);
+        }
+
+        @Override
+        public String getName(){
+            return RENDER_SCRIPT;
+        }
+
+        @Override
+        boolean needsOwnBitmap(){
+            return true;
+        }
+
+        @Override
+        void onFrameSizeChanged(){
+            converter.release();
+            converter = new YuvToRgbConverter(context);
+        }
+
+        @Override
+        void convertFullSize(ByteBuffer nv21, int width, int height, Bitmap output){
+            // The input allocation takes arrays of exactly the frame size.
+            converter.yuvToRgb(frameArray.get(nv21, width, height), output, ImageFormat.NV21);
+        }
+
+        @Override
+        public synchronized void release(){
+            converter.release();
+        }
+    }
+}
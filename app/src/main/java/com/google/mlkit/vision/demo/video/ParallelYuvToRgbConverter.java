@@ -0,0 +1,97 @@
+package com.google.mlkit.vision.demo.video;
+
+import android.graphics.Bitmap;
+
+import com.google.mlkit.vision.demo.YuvToArgbConverter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure Java alternative to the RenderScript based YuvToRgbConverter, which converts NV21 frames
+ * to RGB on all cores.
+ *
+ * The frame is split into bands of rows which are converted in parallel on a fork-join pool, each
+ * band by the fixed point kernel of {@link YuvToArgbConverter}. Bands have an even number of rows,
+ * so no chroma row is shared between two bands.
+ */
+public class ParallelYuvToRgbConverter {
+    // Below this many rows per band, splitting costs more than it saves.
+    private static final int MIN_BAND_ROWS = 16;
+    // Bands per thread, so that threads which finish early can take over work of slower ones.
+    private static final int BANDS_PER_THREAD = 4;
+
+    private static final ForkJoinPool POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private int[] pixels = new int[0];
+
+    /**
+     * Converts an NV21 frame into {@code output}, an ARGB_8888 bitmap of the size of the frame
+     * once it is rotated upright.
+     */
+    public synchronized void yuvToRgb(byte[] nv21, int width, int height, int rotationDegrees,
+                                      Bitmap output){
+        int size = width * height;
+        if(pixels.length < size) pixels = new int[size];
+        yuvToArgb(nv21, width, height, rotationDegrees, /* mirror= */ false, pixels);
+        int outputWidth = YuvToArgbConverter.getUprightWidth(width, height, rotationDegrees);
+        int outputHeight = YuvToArgbConverter.getUprightHeight(width, height, rotationDegrees);
+        output.setPixels(pixels, 0, outputWidth, 0, 0, outputWidth, outputHeight);
+    }
+
+    /**
+     * Converts an NV21 frame into {@code out}, which receives the upright image row by row like
+     * {@link YuvToArgbConverter#nv21ToArgb}. Blocks until all bands are converted.
+     */
+    public static void yuvToArgb(byte[] nv21, int width, int height, int rotationDegrees,
+                                 boolean mirror, int[] out){
+        int bandCount = POOL.getParallelism() * BANDS_PER_THREAD;
+        int bandRows = Math.max(MIN_BAND_ROWS, (height + bandCount - 1) / bandCount);
+        POOL.invoke(new BandTask(nv21, width, height, rotationDegrees, mirror, out,
+                0, height, (bandRows + 1) & ~1));
+    }
+
+    private static class BandTask extends RecursiveAction {
+        private final byte[] nv21;
+        private final int width, height;
+        private final int rotationDegrees;
+        private final boolean mirror;
+        private final int[] out;
+        private final int rowStart, rowEnd;
+        private final int bandRows;
+
+        BandTask(byte[] nv21, int width, int height, int rotationDegrees, boolean mirror,
+                 int[] out, int rowStart, int rowEnd, int bandRows){
+            this.nv21 = nv21;
+            this.width = width;
+            this.height = height;
+            this.rotationDegrees = rotationDegrees;
+            this.mirror = mirror;
+            this.out = out;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = rowEnd - rowStart;
+            if(rows <= bandRows){
+                int vuOffset = width * height;
+                YuvToArgbConverter.convertRows(nv21, 0, width, nv21, vuOffset + 1, nv21, vuOffset,
+                        width, /* uvPixelStride= */ 2, width, height, rotationDegrees, mirror, out,
+                        rowStart, rowEnd);
+                return;
+            }
+            // Split at a whole number of bands, which keeps every band on even rows.
+            int middle = rowStart + (rows / bandRows / 2) * bandRows;
+            if(middle == rowStart) middle += bandRows;
+            invokeAll(
+                    new BandTask(nv21, width, height, rotationDegrees, mirror, out,
+                            rowStart, middle, bandRows),
+                    new BandTask(nv21, width, height, rotationDegrees, mirror, out,
+                            middle, rowEnd, bandRows));
+        }
+    }
+}
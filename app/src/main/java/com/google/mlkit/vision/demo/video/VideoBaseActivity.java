@@ -4,6 +4,7 @@ import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.View;
@@ -21,24 +22,36 @@ import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.ui.PlayerView;
 import com.google.mlkit.common.model.LocalModel;
+import com.google.mlkit.vision.demo.BitmapPool;
+import com.google.mlkit.vision.demo.ByteBufferPool;
+import com.google.mlkit.vision.demo.FrameMetadata;
 import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.PipelineTracer;
 import com.google.mlkit.vision.demo.R;
+import com.google.mlkit.vision.demo.ResolutionController;
 import com.google.mlkit.vision.demo.java.VisionProcessorBase;
 import com.google.mlkit.vision.demo.java.barcodescanner.BarcodeScannerProcessor;
 import com.google.mlkit.vision.demo.java.facedetector.FaceDetectorProcessor;
 import com.google.mlkit.vision.demo.java.labeldetector.LabelDetectorProcessor;
 import com.google.mlkit.vision.demo.java.segmenter.SegmenterProcessor;
 import com.google.mlkit.vision.demo.java.textdetector.TextRecognitionProcessor;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 import com.google.mlkit.vision.label.custom.CustomImageLabelerOptions;
 import com.google.mlkit.vision.label.defaults.ImageLabelerOptions;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public abstract class VideoBaseActivity extends AppCompatActivity{
     private static final String TAG = VideoBaseActivity.class.getSimpleName();
 
     private static final int REQUEST_CHOOSE_VIDEO = 1001;
+    private static final int DEFAULT_FRAME_LONG_EDGE = 500;
 
     private static final String FACE_DETECTION = "Face Detection";
     private static final String BARCODE_SCANNING = "Barcode Scanning";
@@ -57,15 +70,41 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
 
     private int frameWidth, frameHeight;
 
-    private boolean processing;
-    private boolean pending;
     private Bitmap lastFrame;
+    // The last NV21 frame, shared with the processor, which must not write to it. Only one of
+    // lastFrame and lastFrameBuffer is set.
+    @Nullable private ByteBuffer lastFrameBuffer;
+    private int lastFrameBufferWidth, lastFrameBufferHeight;
+    private long lastFramePresentationTimeUs;
+    private long lastFrameCaptureTimeNs;
+    // Number of the next frame produced by the player.
+    private long nextFrameSequenceNumber;
+    // Null if frames are always scaled to DEFAULT_FRAME_LONG_EDGE.
+    @Nullable private ResolutionController resolutionController;
+
+    private BitmapPool bitmapPool;
+    private ByteBufferPool bufferPool;
+    // Number of users of each frame, i.e. lastFrame, the processor and the subclass. A frame goes
+    // back to the pool once nobody uses it. Only used on the main thread.
+    private final Map<Bitmap, Integer> frameReferenceCounts = new IdentityHashMap<>();
+    // Same for the NV21 frames, i.e. lastFrameBuffer and the processors. Only used on the main
+    // thread.
+    private final Map<ByteBuffer, Integer> frameBufferReferenceCounts = new IdentityHashMap<>();
+    // Frames the current processor has not released yet.
+    private Set<Bitmap> framesInProcessor = newFrameSet();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_base_video);
 
+        bitmapPool = BitmapPool.getInstance(this);
+        bufferPool = ByteBufferPool.getInstance(this);
+
+        if(PreferenceUtils.isAdaptiveResolutionEnabled(this)){
+            resolutionController = new ResolutionController(
+                    ResolutionController.DEFAULT_TARGET_FPS, DEFAULT_FRAME_LONG_EDGE);
+        }
         player = createPlayer();
 
         playerView = findViewById(R.id.player_view);
@@ -86,6 +125,17 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
     protected abstract @NonNull SimpleExoPlayer createPlayer();
     protected abstract @Nullable View createVideoFrameView();
 
+    /**
+     * Returns the size frames should be scaled to before detection, which follows the detector
+     * latency if adaptive resolution is enabled. May be called from any thread.
+     */
+    protected Size getFrameSize(int width, int height){
+        ResolutionController controller = resolutionController;
+        int longEdge = controller != null
+                ? controller.getTargetLongEdge() : DEFAULT_FRAME_LONG_EDGE;
+        return getSizeForDesiredSize(width, height, longEdge);
+    }
+
     protected Size getSizeForDesiredSize(int width, int height, int desiredSize){
         int w, h;
         if(width > height){
@@ -98,35 +148,175 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
         return new Size(w, h);
     }
 
+    /**
+     * Hands the frame currently shown by the player to the current processor. Must be called on
+     * the main thread.
+     */
     protected void processFrame(Bitmap frame){
+        processFrame(frame, player.getCurrentPosition() * 1000, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Hands a frame to the current processor. Whether the frame is processed or dropped is decided
+     * by the processor's {@link com.google.mlkit.vision.demo.FrameScheduler}.
+     *
+     * @param presentationTimeUs the position of the frame within the video
+     * @param captureTimeNs the {@link SystemClock#elapsedRealtimeNanos()} at which the frame was
+     *     decoded
+     */
+    protected void processFrame(Bitmap frame, long presentationTimeUs, long captureTimeNs){
+        retainFrame(frame);
+        if(lastFrame != null) releaseFrame(lastFrame);
         lastFrame = frame;
+        if(lastFrameBuffer != null){
+            releaseRetainedFrameBuffer(lastFrameBuffer);
+            lastFrameBuffer = null;
+        }
+        lastFramePresentationTimeUs = presentationTimeUs;
+        lastFrameCaptureTimeNs = captureTimeNs;
+        long sequenceNumber = nextFrameSequenceNumber++;
         if(imageProcessor != null){
-            pending = processing;
-            if(!processing){
-                processing = true;
-                if(frameWidth != frame.getWidth() || frameHeight != frame.getHeight()){
-                    frameWidth = frame.getWidth();
-                    frameHeight = frame.getHeight();
-                    graphicOverlay.setImageSourceInfo(frameWidth, frameHeight, false);
-                }
-                imageProcessor.setOnProcessingCompleteListener(new VisionProcessorBase.OnProcessingCompleteListener() {
-                    @Override
-                    public void onProcessingComplete() {
-                        processing = false;
-                        onProcessComplete(frame);
-                        if(pending) processFrame(lastFrame);
-                    }
-                });
-                imageProcessor.processBitmap(frame, graphicOverlay);
-            }
+            FrameMetadata frameMetadata = createFrameMetadata(frame.getWidth(), frame.getHeight(),
+                    sequenceNumber, presentationTimeUs, captureTimeNs);
+            // Released again once the processor is done with the frame.
+            if(framesInProcessor.add(frame)) retainFrame(frame);
+            imageProcessor.processBitmap(frame, frameMetadata, graphicOverlay);
+        }
+    }
+
+    /**
+     * Hands an NV21 frame from {@link #acquireFrameBuffer(int, int)} to the current processor,
+     * which gives it to the detector as is and only converts it into a bitmap for the overlay if
+     * the frame gets processed. The buffer is kept as the last frame, to be processed again when
+     * the processor changes, and goes back to the pool once the processor is done with it and a
+     * newer frame replaced it. Must be called on the main thread.
+     *
+     * @see #processFrame(Bitmap, long, long)
+     */
+    protected void processFrame(ByteBuffer nv21, int width, int height, long presentationTimeUs,
+                                long captureTimeNs){
+        retainFrameBuffer(nv21);
+        if(lastFrameBuffer != null) releaseRetainedFrameBuffer(lastFrameBuffer);
+        lastFrameBuffer = nv21;
+        lastFrameBufferWidth = width;
+        lastFrameBufferHeight = height;
+        if(lastFrame != null){
+            releaseFrame(lastFrame);
+            lastFrame = null;
+        }
+        lastFramePresentationTimeUs = presentationTimeUs;
+        lastFrameCaptureTimeNs = captureTimeNs;
+        long sequenceNumber = nextFrameSequenceNumber++;
+        if(imageProcessor == null) return;
+        FrameMetadata frameMetadata = createFrameMetadata(width, height, sequenceNumber,
+                presentationTimeUs, captureTimeNs);
+        // Released again once the processor is done with the frame.
+        retainFrameBuffer(nv21);
+        imageProcessor.processByteBuffer(nv21, frameMetadata, graphicOverlay);
+    }
+
+    /** Hands the last frame to the current processor again, if there is one. Main thread only. */
+    private void reprocessLastFrame(){
+        if(lastFrame != null){
+            processFrame(lastFrame, lastFramePresentationTimeUs, lastFrameCaptureTimeNs);
+        }else if(lastFrameBuffer != null){
+            processFrame(lastFrameBuffer, lastFrameBufferWidth, lastFrameBufferHeight,
+                    lastFramePresentationTimeUs, lastFrameCaptureTimeNs);
+        }
+    }
+
+    private FrameMetadata createFrameMetadata(int width, int height, long sequenceNumber,
+                                              long presentationTimeUs, long captureTimeNs){
+        if(frameWidth != width || frameHeight != height){
+            frameWidth = width;
+            frameHeight = height;
+            graphicOverlay.setImageSourceInfo(frameWidth, frameHeight, false);
+        }
+        return new FrameMetadata.Builder()
+                .setWidth(width)
+                .setHeight(height)
+                .setSequenceNumber(sequenceNumber)
+                .setCaptureTimeNs(captureTimeNs)
+                .setPresentationTimeUs(presentationTimeUs)
+                .setSource(FrameMetadata.Source.VIDEO)
+                .build();
+    }
+
+    /**
+     * Called on the main thread once a frame has been processed.
+     *
+     * @param frame the processed bitmap, or null for frames given as NV21 buffers
+     */
+    protected void onProcessComplete(@Nullable Bitmap frame){ }
+
+    /**
+     * Returns a pooled bitmap to render the next frame into. Once handed to processFrame, it goes
+     * back to the pool when it has been processed and replaced by a newer frame, unless the
+     * subclass keeps it with {@link #retainFrame(Bitmap)}. May be called from any thread.
+     */
+    protected Bitmap acquireFrame(int width, int height){
+        return bitmapPool.acquire(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a pooled buffer of {@code width * height} pixels to copy the next frame into in
+     * NV21 layout, for {@link #processFrame(ByteBuffer, int, int, long, long)}. The caller gives it
+     * back with {@link #releaseFrameBuffer(ByteBuffer)} if the frame is not processed after all.
+     * May be called from any thread.
+     */
+    protected ByteBuffer acquireFrameBuffer(int width, int height){
+        return bufferPool.acquire(width * height * 3 / 2);
+    }
+
+    /** Gives back a buffer from {@link #acquireFrameBuffer(int, int)}. Any thread. */
+    protected void releaseFrameBuffer(ByteBuffer buffer){
+        bufferPool.release(buffer);
+    }
+
+    /** Keeps a frame out of the pool until {@link #releaseFrame(Bitmap)}. Main thread only. */
+    protected void retainFrame(Bitmap frame){
+        Integer count = frameReferenceCounts.get(frame);
+        frameReferenceCounts.put(frame, count == null ? 1 : count + 1);
+    }
+
+    /** Undoes {@link #retainFrame(Bitmap)}, the last release gives the frame back to the pool. */
+    protected void releaseFrame(Bitmap frame){
+        Integer count = frameReferenceCounts.get(frame);
+        if(count == null) return;
+        if(count > 1){
+            frameReferenceCounts.put(frame, count - 1);
+        }else{
+            frameReferenceCounts.remove(frame);
+            bitmapPool.release(frame);
         }
     }
 
-    protected void onProcessComplete(Bitmap frame){ }
+    private void retainFrameBuffer(ByteBuffer buffer){
+        Integer count = frameBufferReferenceCounts.get(buffer);
+        frameBufferReferenceCounts.put(buffer, count == null ? 1 : count + 1);
+    }
+
+    /** Undoes {@link #retainFrameBuffer}, the last release gives the buffer back to the pool. */
+    private void releaseRetainedFrameBuffer(ByteBuffer buffer){
+        Integer count = frameBufferReferenceCounts.get(buffer);
+        if(count == null) return;
+        if(count > 1){
+            frameBufferReferenceCounts.put(buffer, count - 1);
+        }else{
+            frameBufferReferenceCounts.remove(buffer);
+            bufferPool.release(buffer);
+        }
+    }
+
+    private static Set<Bitmap> newFrameSet(){
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
 
     @Override
     protected void onResume() {
         super.onResume();
+        PipelineTracer.getInstance().setRecording(
+                PreferenceUtils.isPipelineTraceRecordingEnabled(this));
         createImageProcessor();
     }
 
@@ -142,11 +332,16 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
         super.onDestroy();
         player.stop();
         player.release();
+        if(lastFrameBuffer != null){
+            releaseRetainedFrameBuffer(lastFrameBuffer);
+            lastFrameBuffer = null;
+        }
     }
 
     private void setupPlayer(Uri uri){
         MediaItem mediaItem = MediaItem.fromUri(uri);
         player.stop();
+        if(imageProcessor != null) imageProcessor.onStreamRestarted();
         player.setMediaItem(mediaItem);
         player.prepare();
         player.play();
@@ -193,7 +388,7 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
                             AdapterView<?> parentView, View selectedItemView, int pos, long id) {
                         selectedProcessor = parentView.getItemAtPosition(pos).toString();
                         createImageProcessor();
-                        if(lastFrame != null) processFrame(lastFrame);
+                        reprocessLastFrame();
                     }
 
                     @Override
@@ -241,6 +436,27 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
                     break;
                 default:
             }
+            if(imageProcessor != null){
+                imageProcessor.setOnProcessingCompleteListener(this::onProcessComplete);
+                // Frames released by an older processor are ignored, see stopImageProcessor().
+                Set<Bitmap> frames = framesInProcessor;
+                imageProcessor.setOnBitmapReleasedListener(frame -> runOnUiThread(() -> {
+                    if(frames.remove(frame)) releaseFrame(frame);
+                }));
+                // Buffers are released once the detector is done with them, so even those of
+                // older processors can go back to the pool. The processor must not crop them in
+                // place, as lastFrameBuffer is read again after a processor change.
+                imageProcessor.setOnByteBufferReleasedListener(
+                        buffer -> runOnUiThread(() -> releaseRetainedFrameBuffer(buffer)));
+                imageProcessor.setByteBuffersWritable(false);
+                imageProcessor.setResolutionController(resolutionController);
+                if(PreferenceUtils.isDetectorWarmUpEnabled(this)){
+                    // Until the first frame arrives, assume a 16:9 video.
+                    Size size = frameWidth > 0
+                            ? new Size(frameWidth, frameHeight) : getFrameSize(1280, 720);
+                    imageProcessor.warmUp(size.getWidth(), size.getHeight());
+                }
+            }
         } catch (Exception e) {
             Log.e(TAG, "Can not create image processor: " + selectedProcessor, e);
             Toast.makeText(
@@ -255,8 +471,15 @@ public abstract class VideoBaseActivity extends AppCompatActivity{
         if(imageProcessor != null){
             imageProcessor.stop();
             imageProcessor = null;
-            processing = false;
-            pending = false;
         }
+        // Frames still in flight may be read by the stopped detector, so they are left to the
+        // garbage collector instead of going back to the pool.
+        for(Bitmap frame : framesInProcessor){
+            Integer count = frameReferenceCounts.get(frame);
+            if(count == null) continue;
+            if(count > 1) frameReferenceCounts.put(frame, count - 1);
+            else frameReferenceCounts.remove(frame);
+        }
+        framesInProcessor = newFrameSet();
     }
 }
\ No newline at end of file
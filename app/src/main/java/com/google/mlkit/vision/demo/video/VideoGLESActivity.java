@@ -1,6 +1,7 @@
 package com.google.mlkit.vision.demo.video;
 
 import android.graphics.Bitmap;
+import android.util.Size;
 import android.view.View;
 
 import com.google.android.exoplayer2.SimpleExoPlayer;
@@ -30,4 +31,9 @@ public class VideoGLESActivity extends VideoBaseActivity implements GlPlayerRend
     public void onFrame(Bitmap bitmap) {
         processFrame(bitmap);
     }
+
+    @Override
+    public Size getFrameSize(int width, int height) {
+        return super.getFrameSize(width, height);
+    }
 }
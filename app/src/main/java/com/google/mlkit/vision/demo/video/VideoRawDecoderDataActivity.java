@@ -2,7 +2,10 @@ package com.google.mlkit.vision.demo.video;
 
 import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.media.Image;
 import android.media.MediaFormat;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.View;
@@ -12,23 +15,66 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
-import com.google.mlkit.vision.demo.java.videoactivity.YuvToRgbConverter;
+import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FrameRecorder;
+import com.google.mlkit.vision.demo.ScalingFrameConverter;
+import com.google.mlkit.vision.demo.preference.PreferenceUtils;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 public class VideoRawDecoderDataActivity extends VideoBaseActivity implements
         CustomRenderersFactory.VideoFrameDataListener{
+    private static final String TAG = VideoRawDecoderDataActivity.class.getSimpleName();
 
     private ImageView frameImageView;
-    private YuvToRgbConverter yuvToRgbConverter;
-    private int frameWidth, frameHeight;
+    // Picks the fastest backend to convert frames into bitmaps on this device.
+    private FrameConverterSelector frameConverterSelector;
+    // Whether frames go to the detector as NV21 buffers rather than bitmaps.
+    private volatile boolean isNv21InputEnabled;
+    // Color format last reported as unsupported, so that it is only logged once.
+    private int unsupportedColorFormat = -1;
+    // Whether guessing the layout of flexible output has been logged, so that it is only logged once.
+    private boolean isLayoutGuessLogged;
+    // The frame shown by frameImageView, kept out of the pool until the next one replaces it.
+    @Nullable private Bitmap shownFrame;
+    // Records the decoded frames while the activity is resumed, null if recording is off.
+    @Nullable private volatile FrameRecorder frameRecorder;
+    // Number of the next frame from the decoder, only used for recording.
+    private long nextDecodedFrameNumber;
 
     @NonNull
     @Override
     protected SimpleExoPlayer createPlayer() {
+        frameConverterSelector = new FrameConverterSelector(this);
+        if(!PreferenceUtils.isVideoNv21InputEnabled(this)){
+            // Until a video is chosen, assume a 16:9 one, as the detector warm-up does.
+            Size size = getFrameSize(1280, 720);
+            frameConverterSelector.calibrate(1280, 720, size.getWidth(), size.getHeight());
+        }
         CustomRenderersFactory renderersFactory = new CustomRenderersFactory(this).setVideoFrameDataListener(this);
-        return new SimpleExoPlayer.Builder(this, renderersFactory).build();
+        SimpleExoPlayer player = new SimpleExoPlayer.Builder(this, renderersFactory).build();
+        // Sizes first seen during playback are calibrated once it is paused or over.
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onPlayWhenReadyChanged(boolean playWhenReady, int reason) {
+                updatePipelineIdle(player);
+            }
+
+            @Override
+            public void onPlaybackStateChanged(int state) {
+                updatePipelineIdle(player);
+            }
+        });
+        return player;
+    }
+
+    private void updatePipelineIdle(Player player){
+        int state = player.getPlaybackState();
+        frameConverterSelector.setPipelineIdle(!player.getPlayWhenReady()
+                || state == Player.STATE_IDLE || state == Player.STATE_ENDED);
     }
 
     @Override
@@ -38,72 +84,198 @@ public class VideoRawDecoderDataActivity extends VideoBaseActivity implements
     }
 
     @Override
-    protected void onProcessComplete(Bitmap frame) {
+    protected void onProcessComplete(@Nullable Bitmap frame) {
         super.onProcessComplete(frame);
+        // NV21 frames are drawn by the overlay.
+        if(frame == null) return;
+        retainFrame(frame);
         frameImageView.setImageBitmap(frame);
+        if(shownFrame != null) releaseFrame(shownFrame);
+        shownFrame = frame;
     }
 
     @Override
-    public void onFrame(@Nullable ByteBuffer data, MediaFormat androidMediaFormat, Format playerFormat) {
+    public void onFrame(@Nullable ByteBuffer data, long presentationTimeUs, MediaFormat androidMediaFormat,
+                        Format playerFormat) {
         // Not in main thread
         if(data != null){
+            long captureTimeNs = SystemClock.elapsedRealtimeNanos();
             /*
-            * Color formats of different decoders are different.
-            * We have to apply different raw-data to Bitmap(argb) conversion systems according to color format.
-            * Here we just show YUV to RGB conversion assuming data is YUV formatted.
-            * Following conversion system might not give proper result for all videos.
+            * Color formats of different decoders are different. The decoder output is copied
+            * into NV21 according to the color format, stride, slice height and crop of the
+            * output format. Frames of unsupported formats are dropped instead of handing
+            * garbled pixels to the detector.
             */
+            DecoderFrameConverter converter = DecoderFrameConverter.create(androidMediaFormat);
+            if(converter == null){
+                logUnsupportedFormat(androidMediaFormat);
+                return;
+            }
+            if(converter.isLayoutGuessed() && !isLayoutGuessLogged){
+                isLayoutGuessLogged = true;
+                Log.w(TAG, "Guessing the layout of flexible decoder output read as a buffer, "
+                        + "frames may be garbled: " + androidMediaFormat);
+            }
 
+            ByteBuffer nv21 = null;
             try {
-                int width = playerFormat.width;
-                int height = playerFormat.height;
-                int rotation = playerFormat.rotationDegrees;
-                int colorFormat = androidMediaFormat.getInteger(MediaFormat.KEY_COLOR_FORMAT);
-                /*if(rotation == 90 || rotation == 270){
-                    int t = width;
-                    width = height;
-                    height = t;
-                }*/
-
-                data.rewind();
-                byte[] bytes = new byte[data.remaining()];
-                data.get(bytes);
-
-                Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-                if(frameWidth != bitmap.getWidth() || frameHeight != bitmap.getHeight()){
-                    frameWidth = bitmap.getWidth();
-                    frameHeight = bitmap.getHeight();
-                    if(yuvToRgbConverter != null) yuvToRgbConverter.release();
-                    yuvToRgbConverter = new YuvToRgbConverter(this);
+                int width = converter.getWidth();
+                int height = converter.getHeight();
+                nv21 = acquireFrameBuffer(width, height);
+                if(!converter.toNv21(data, nv21.array())){
+                    Log.w(TAG, "Decoder buffer too small for its format: " + androidMediaFormat);
+                    return;
                 }
-                yuvToRgbConverter.yuvToRgb(bytes, bitmap, ImageFormat.NV21);
+                // The buffer is handed on, it must not be released below.
+                if(processNv21Frame(nv21, width, height, playerFormat, presentationTimeUs,
+                        captureTimeNs)) nv21 = null;
+            }catch (Exception e){
+                Log.e("TAG", "onFrame: error: " + e.getMessage());
+            }finally {
+                if(nv21 != null) releaseFrameBuffer(nv21);
+            }
+        }
+    }
 
-                /*Bitmap bitmap = BitmapUtils.getBitmap(data, new FrameMetadata.Builder()
-                        .setWidth(width)
-                        .setHeight(height)
-                        .setRotation(rotation)
-                        .build());*/
+    @Override
+    public void onFrame(Image image, long presentationTimeUs, MediaFormat androidMediaFormat,
+                        Format playerFormat) {
+        // Not in main thread
+        long captureTimeNs = SystemClock.elapsedRealtimeNanos();
+        Rect crop = DecoderFrameConverter.getNv21Crop(image);
+        if(crop == null){
+            logUnsupportedFormat(androidMediaFormat);
+            return;
+        }
 
-                /*Renderscript tool-kit can also be used for conversion*/
+        ByteBuffer nv21 = null;
+        try {
+            nv21 = acquireFrameBuffer(crop.width(), crop.height());
+            DecoderFrameConverter.imageToNv21(image, crop, nv21.array());
+            // The buffer is handed on, it must not be released below.
+            if(processNv21Frame(nv21, crop.width(), crop.height(), playerFormat,
+                    presentationTimeUs, captureTimeNs)) nv21 = null;
+        }catch (Exception e){
+            Log.e("TAG", "onFrame: error: " + e.getMessage());
+        }finally {
+            if(nv21 != null) releaseFrameBuffer(nv21);
+        }
+    }
 
-                Size size = getSizeForDesiredSize(width, height, 500);
-                Bitmap finalBitmap = Bitmap.createScaledBitmap(bitmap, size.getWidth(), size.getHeight(), true);
+    /**
+     * Records a decoded NV21 frame and hands it to the detector, as a scaled NV21 buffer or as a
+     * bitmap depending on the settings.
+     *
+     * @return true if {@code nv21} itself was handed on, and must not be released by the caller
+     */
+    private boolean processNv21Frame(ByteBuffer nv21, int width, int height, Format playerFormat,
+                                     long presentationTimeUs, long captureTimeNs){
+        int rotation = playerFormat.rotationDegrees;
+        /*if(rotation == 90 || rotation == 270){
+            int t = width;
+            width = height;
+            height = t;
+        }*/
 
-                runOnUiThread(()->{
-                    //frameImageView.setImageBitmap(finalBitmap);
-                    processFrame(finalBitmap);
-                });
-            }catch (Exception e){
-                Log.e("TAG", "onFrame: error: " + e.getMessage());
+        recordFrame(nv21, width, height, rotation, presentationTimeUs, captureTimeNs);
+        Size size = getFrameSize(width, height);
+        if(isNv21InputEnabled){
+            ByteBuffer frameBuffer = scaleFrameBuffer(nv21, width, height, size);
+            int frameWidth = size.getWidth() & ~1;
+            int frameHeight = size.getHeight() & ~1;
+            runOnUiThread(() -> processFrame(frameBuffer, frameWidth, frameHeight,
+                    presentationTimeUs, captureTimeNs));
+            return frameBuffer == nv21;
+        }
+        // Converted and scaled into a pooled bitmap of the final size by the backend
+        // found fastest for these sizes. Frames stay in decoder orientation.
+        Bitmap finalBitmap = acquireFrame(size.getWidth(), size.getHeight());
+        frameConverterSelector
+                .getConverter(width, height, size.getWidth(), size.getHeight())
+                .convert(nv21, width, height, finalBitmap);
+
+        runOnUiThread(()->{
+            //frameImageView.setImageBitmap(finalBitmap);
+            processFrame(finalBitmap, presentationTimeUs, captureTimeNs);
+        });
+        return false;
+    }
+
+    /**
+     * Returns the NV21 frame scaled to {@code size}, rounded down to even, in a new pooled
+     * buffer, or {@code nv21} itself if it already has that size.
+     */
+    private ByteBuffer scaleFrameBuffer(ByteBuffer nv21, int width, int height, Size size){
+        int scaledWidth = size.getWidth() & ~1;
+        int scaledHeight = size.getHeight() & ~1;
+        if(scaledWidth == width && scaledHeight == height) return nv21;
+        ByteBuffer scaled = acquireFrameBuffer(scaledWidth, scaledHeight);
+        ScalingFrameConverter.scaleNv21(nv21, width, height, scaledWidth, scaledHeight,
+                scaled.array());
+        return scaled;
+    }
+
+    private void logUnsupportedFormat(MediaFormat format){
+        int colorFormat = format.containsKey(MediaFormat.KEY_COLOR_FORMAT)
+                ? format.getInteger(MediaFormat.KEY_COLOR_FORMAT) : 0;
+        if(colorFormat == unsupportedColorFormat) return;
+        unsupportedColorFormat = colorFormat;
+        Log.w(TAG, "Dropping frames of unsupported decoder output format: " + format);
+    }
+
+    private void recordFrame(ByteBuffer data, int width, int height, int rotation,
+                             long presentationTimeUs, long captureTimeNs){
+        FrameRecorder recorder = frameRecorder;
+        long frameNumber = nextDecodedFrameNumber++;
+        if(recorder == null) return;
+        FrameMetadata frameMetadata = new FrameMetadata.Builder()
+                .setWidth(width)
+                .setHeight(height)
+                .setRotation(rotation)
+                .setSequenceNumber(frameNumber)
+                .setCaptureTimeNs(captureTimeNs)
+                .setPresentationTimeUs(presentationTimeUs)
+                .setSource(FrameMetadata.Source.VIDEO)
+                .build();
+        try {
+            recorder.record(data, ImageFormat.NV21, frameMetadata);
+        }catch (IOException | IllegalArgumentException e){
+            Log.e(TAG, "Failed to record frame, recording stopped.", e);
+            frameRecorder = null;
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        isNv21InputEnabled = PreferenceUtils.isVideoNv21InputEnabled(this);
+        if(PreferenceUtils.isFrameRecordingEnabled(this)){
+            try {
+                frameRecorder = new FrameRecorder(FrameRecorder.createRecordingFile(this));
+            }catch (IOException e){
+                Log.e(TAG, "Unable to start frame recording.", e);
             }
         }
     }
 
     @Override
     protected void onDestroy() {
+        // Stops the player, and with it the frames.
         super.onDestroy();
-        if(yuvToRgbConverter != null){
-            yuvToRgbConverter.release();
+        frameConverterSelector.release();
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        FrameRecorder recorder = frameRecorder;
+        frameRecorder = null;
+        if(recorder != null){
+            try {
+                recorder.close();
+            }catch (IOException e){
+                Log.e(TAG, "Unable to finish frame recording.", e);
+            }
         }
     }
 }
@@ -54,7 +54,8 @@ public class VideoTextureViewActivity extends VideoBaseActivity implements Textu
 
     @Override
     public void onSurfaceTextureUpdated(@NonNull SurfaceTexture surface) {
-        Size size = getSizeForDesiredSize(textureView.getWidth(), textureView.getHeight(), 500);
-        processFrame(textureView.getBitmap(size.getWidth(), size.getHeight()));
+        Size size = getFrameSize(textureView.getWidth(), textureView.getHeight());
+        // Rendered into a pooled bitmap, which TextureView scales the content to.
+        processFrame(textureView.getBitmap(acquireFrame(size.getWidth(), size.getHeight())));
     }
 }
@@ -8,9 +8,12 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.os.Handler;
 import android.os.Looper;
+import android.util.Size;
 import android.view.Surface;
 
 import com.google.android.exoplayer2.SimpleExoPlayer;
+import com.google.mlkit.vision.demo.BitmapPool;
+import com.google.mlkit.vision.demo.ScalingFrameConverter;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -44,11 +47,17 @@ public class GlPlayerRenderer implements SurfaceTexture.OnFrameAvailableListener
 
     private Handler handler;
 
+    // Frames are read into pooled bitmaps, the listener's activity gives them back once processed.
+    private final BitmapPool bitmapPool;
+    // Pixels read from the frame buffer, reused while the size stays the same.
+    private ByteBuffer pixelBuffer;
+
     GlPlayerRenderer(GlPlayerView glPreview) {
         super();
         Matrix.setIdentityM(STMatrix, 0);
         this.glPreview = glPreview;
         handler = new Handler(Looper.getMainLooper());
+        bitmapPool = BitmapPool.getInstance(glPreview.getContext());
     }
 
     void setSimpleExoPlayer(SimpleExoPlayer simpleExoPlayer) {
@@ -135,18 +144,20 @@ public class GlPlayerRenderer implements SurfaceTexture.OnFrameAvailableListener
         previewFilter.draw(texName, MVPMatrix, STMatrix, aspectRatio);
 
         if(frameListener != null){
-            ByteBuffer pixelBuffer = ByteBuffer.allocateDirect(width * height * 4);
-            pixelBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if(pixelBuffer == null || pixelBuffer.capacity() != width * height * 4){
+                pixelBuffer = ByteBuffer.allocateDirect(width * height * 4);
+                pixelBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            }
+            pixelBuffer.rewind();
             GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuffer);
             pixelBuffer.rewind();
-            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-            bitmap.copyPixelsFromBuffer(pixelBuffer);
 
-            // for vertical flip
-            android.graphics.Matrix matrix = new android.graphics.Matrix();
-            matrix.setScale( 1,-1);
-            matrix.postTranslate( 0, bitmap.getHeight());
-            Bitmap finalBitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            // Rows are read bottom up, they are flipped while scaling to the frame size.
+            Size size = frameListener.getFrameSize(width, height);
+            Bitmap finalBitmap = bitmapPool.acquire(
+                    size.getWidth(), size.getHeight(), Bitmap.Config.ARGB_8888);
+            ScalingFrameConverter.rgbaToBitmap(pixelBuffer, width, height, /* rotationDegrees= */ 0,
+                    /* mirror= */ false, /* flip= */ true, finalBitmap);
 
             handler.post(()->{
                 frameListener.onFrame(finalBitmap);
@@ -168,5 +179,8 @@ public class GlPlayerRenderer implements SurfaceTexture.OnFrameAvailableListener
 
     public interface FrameListener{
         void onFrame(Bitmap bitmap);
+
+        /** Returns the size frames of the given size are scaled to. Called on the GL thread. */
+        Size getFrameSize(int width, int height);
     }
 }
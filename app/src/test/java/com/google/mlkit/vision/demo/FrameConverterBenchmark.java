@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import com.google.mlkit.vision.demo.video.ParallelYuvToRgbConverter;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the plain Java NV21 to ARGB conversions of the app on frames of common video sizes:
+ * the fixed point kernel of {@link YuvToArgbConverter} on one thread, the same kernel on all cores
+ * with {@link ParallelYuvToRgbConverter}, and {@link ScalingFrameConverter} scaling the frames to
+ * the size the video demos use.
+ *
+ * <p>Only the conversion into an {@code int[]} is measured; copying the pixels into a bitmap and
+ * the RenderScript converter need a device, see {@code ConverterBenchmarkActivity} in the debug
+ * build. The figures are those of the JVM running the tests, not of ART on a device.
+ *
+ * <p>Run by {@link FrameConverterBenchmarkTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameConverterBenchmark {
+
+  // Long edge of the frames the video demos hand to the detector.
+  private static final int SCALED_LONG_EDGE = 500;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String frameSize;
+
+  private int width;
+  private int height;
+  private ByteBuffer nv21;
+  private int[] pixels;
+  private int scaledWidth;
+  private int scaledHeight;
+  private int[] scaledPixels;
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = frameSize.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    nv21 = ByteBuffer.wrap(createGradientFrame(width, height));
+    pixels = new int[width * height];
+    scaledWidth = SCALED_LONG_EDGE;
+    scaledHeight = SCALED_LONG_EDGE * height / width;
+    scaledPixels = new int[scaledWidth * scaledHeight];
+  }
+
+  @Benchmark
+  public int[] singleThreaded() {
+    YuvToArgbConverter.nv21ToArgb(
+        nv21, width, height, /* rotationDegrees= */ 0, /* mirror= */ false, pixels);
+    return pixels;
+  }
+
+  @Benchmark
+  public int[] parallel() {
+    ParallelYuvToRgbConverter.yuvToArgb(
+        nv21.array(), width, height, /* rotationDegrees= */ 0, /* mirror= */ false, pixels);
+    return pixels;
+  }
+
+  @Benchmark
+  public int[] scaled() {
+    ScalingFrameConverter.nv21ToArgb(
+        nv21,
+        width,
+        height,
+        /* rotationDegrees= */ 0,
+        /* mirror= */ false,
+        /* flip= */ false,
+        scaledWidth,
+        scaledHeight,
+        scaledPixels);
+    return scaledPixels;
+  }
+
+  /** Creates an NV21 frame with a diagonal luma gradient and neutral chroma. */
+  private static byte[] createGradientFrame(int width, int height) {
+    int lumaSize = width * height;
+    byte[] nv21 = new byte[lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        nv21[y * width + x] = (byte) ((x * 255 / width + y * 255 / height) / 2);
+      }
+    }
+    Arrays.fill(nv21, lumaSize, nv21.length, (byte) 128);
+    return nv21;
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Compares {@link FrameMailbox} with the synchronized hand-off it replaced, with a camera thread
+ * offering frames while a detection thread takes them.
+ *
+ * <p>The {@code *Throughput} groups measure how many offers and polls per second either side
+ * completes while contending for the slot. The {@code *Handoff} groups measure how long the
+ * consumer takes to get hold of the next frame while the producer keeps offering, which is the
+ * delay a frame sees before its detection can start.
+ *
+ * <p>Run by {@link FrameMailboxBenchmarkTest}.
+ */
+public class FrameMailboxBenchmark {
+
+  private static final Object FRAME = new Object();
+
+  /**
+   * The hand-off {@code VisionProcessorBase} used before {@link FrameMailbox}: the latest frame in
+   * a field guarded by the processor's lock, which the camera thread sets in {@code
+   * processByteBuffer} and the detection thread takes in {@code processLatestImage}.
+   */
+  static final class SynchronizedMailbox<T> {
+    @GuardedBy("this")
+    @Nullable
+    private T latestFrame;
+
+    @Nullable
+    synchronized T offer(T frame) {
+      T replaced = latestFrame;
+      latestFrame = frame;
+      return replaced;
+    }
+
+    @Nullable
+    synchronized T poll() {
+      T frame = latestFrame;
+      latestFrame = null;
+      return frame;
+    }
+  }
+
+  /** One mailbox shared by the producer and the consumer of a group. */
+  @State(Scope.Group)
+  public static class LockFreeState {
+    final FrameMailbox<Object> mailbox = new FrameMailbox<>();
+  }
+
+  /** One mailbox shared by the producer and the consumer of a group. */
+  @State(Scope.Group)
+  public static class SynchronizedState {
+    final SynchronizedMailbox<Object> mailbox = new SynchronizedMailbox<>();
+  }
+
+  @Benchmark
+  @Group("lockFreeThroughput")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object lockFreeOffer(LockFreeState state) {
+    return state.mailbox.offer(FRAME);
+  }
+
+  @Benchmark
+  @Group("lockFreeThroughput")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object lockFreePoll(LockFreeState state) {
+    return state.mailbox.poll();
+  }
+
+  @Benchmark
+  @Group("synchronizedThroughput")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object synchronizedOffer(SynchronizedState state) {
+    return state.mailbox.offer(FRAME);
+  }
+
+  @Benchmark
+  @Group("synchronizedThroughput")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object synchronizedPoll(SynchronizedState state) {
+    return state.mailbox.poll();
+  }
+
+  @Benchmark
+  @Group("lockFreeHandoff")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object lockFreeHandoffOffer(LockFreeState state) {
+    return state.mailbox.offer(FRAME);
+  }
+
+  @Benchmark
+  @Group("lockFreeHandoff")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object lockFreeHandoffTake(LockFreeState state, Control control) {
+    Object frame = state.mailbox.poll();
+    // Stops spinning once the iteration is over, as the producer may have stopped already.
+    while (frame == null && !control.stopMeasurement) {
+      frame = state.mailbox.poll();
+    }
+    return frame;
+  }
+
+  @Benchmark
+  @Group("synchronizedHandoff")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object synchronizedHandoffOffer(SynchronizedState state) {
+    return state.mailbox.offer(FRAME);
+  }
+
+  @Benchmark
+  @Group("synchronizedHandoff")
+  @GroupThreads(1)
+  @BenchmarkMode(Mode.SampleTime)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public Object synchronizedHandoffTake(SynchronizedState state, Control control) {
+    Object frame = state.mailbox.poll();
+    // Stops spinning once the iteration is over, as the producer may have stopped already.
+    while (frame == null && !control.stopMeasurement) {
+      frame = state.mailbox.poll();
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+/**
+ * Runs {@link FrameMailboxBenchmark} and prints the results. Skipped unless the JMH benchmarks are
+ * asked for with {@code ./gradlew testDebugUnitTest -PjmhBenchmarks}, as they take a while.
+ */
+@RunWith(JUnit4.class)
+public final class FrameMailboxBenchmarkTest {
+
+  private static final String JMH_BENCHMARKS_PROPERTY = "jmhBenchmarks";
+
+  @Test
+  public void runBenchmark() throws Exception {
+    assumeTrue("Run with -PjmhBenchmarks", Boolean.getBoolean(JMH_BENCHMARKS_PROPERTY));
+    Options options =
+        new OptionsBuilder()
+            .include(FrameMailboxBenchmark.class.getName())
+            // Forked JVMs would not get the class path of the Gradle test worker.
+            .forks(0)
+            .warmupIterations(2)
+            .warmupTime(TimeValue.milliseconds(500))
+            .measurementIterations(3)
+            .measurementTime(TimeValue.seconds(1))
+            .build();
+    Collection<RunResult> results = new Runner(options).run();
+    assertFalse(results.isEmpty());
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the hand-off of {@link FrameMailbox}, see {@link FrameMailboxBenchmark} for its speed. */
+@RunWith(JUnit4.class)
+public final class FrameMailboxTest {
+
+  private static final int CONCURRENT_FRAME_COUNT = 100_000;
+
+  @Test
+  public void pollTakesTheLatestFrame() {
+    FrameMailbox<String> mailbox = new FrameMailbox<>();
+    assertTrue(mailbox.isEmpty());
+    assertNull(mailbox.poll());
+
+    String first = "first";
+    String second = "second";
+    assertNull(mailbox.offer(first));
+    assertFalse(mailbox.isEmpty());
+    assertSame(first, mailbox.offer(second));
+    assertSame(second, mailbox.poll());
+    assertTrue(mailbox.isEmpty());
+    assertNull(mailbox.poll());
+  }
+
+  @Test
+  public void everyFrameIsEitherTakenOrReplacedOnce() throws Exception {
+    FrameMailbox<Integer> mailbox = new FrameMailbox<>();
+    // How often each frame came out of the mailbox, by being polled or replaced.
+    AtomicIntegerArray releaseCounts = new AtomicIntegerArray(CONCURRENT_FRAME_COUNT);
+    Thread producer =
+        new Thread(
+            () -> {
+              for (int i = 0; i < CONCURRENT_FRAME_COUNT; i++) {
+                Integer replaced = mailbox.offer(i);
+                if (replaced != null) {
+                  releaseCounts.incrementAndGet(replaced);
+                }
+              }
+            });
+    producer.start();
+    while (producer.isAlive()) {
+      Integer frame = mailbox.poll();
+      if (frame != null) {
+        releaseCounts.incrementAndGet(frame);
+      }
+    }
+    producer.join(TimeUnit.SECONDS.toMillis(10));
+    Integer last = mailbox.poll();
+    if (last != null) {
+      releaseCounts.incrementAndGet(last);
+    }
+
+    for (int i = 0; i < CONCURRENT_FRAME_COUNT; i++) {
+      assertEquals("Frame " + i, 1, releaseCounts.get(i));
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import androidx.annotation.GuardedBy;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.java.FrameDetector;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detector which takes a scripted time per frame and returns a given number of made up results,
+ * without running any model.
+ *
+ * <p>Like an ML Kit detector, it processes one frame at a time on a thread of its own, unless
+ * created with more threads to model a detector running several frames concurrently. The latencies
+ * are used in the given order, repeating from the start, so runs are repeatable.
+ *
+ * @param <T> The type of the detected feature.
+ */
+public final class FakeDetector<T> implements FrameDetector<T>, Closeable {
+
+  /** Makes up the results of a frame. */
+  public interface ResultFactory<T> {
+    /**
+     * @param imageWidth the width of the frame after its rotation is applied
+     * @param imageHeight the height of the frame after its rotation is applied
+     */
+    T create(int resultCount, int imageWidth, int imageHeight);
+  }
+
+  private final ExecutorService executor;
+  private final ResultFactory<T> resultFactory;
+  private final int resultCount;
+  private final long[] latenciesUs;
+
+  @GuardedBy("this")
+  private int nextLatencyIndex;
+
+  /**
+   * @param resultCount how many results every frame has
+   * @param latenciesUs how long the frames take, in microseconds
+   */
+  public FakeDetector(ResultFactory<T> resultFactory, int resultCount, long... latenciesUs) {
+    this(resultFactory, resultCount, /* threadCount= */ 1, latenciesUs);
+  }
+
+  /**
+   * @param resultCount how many results every frame has
+   * @param threadCount how many frames are processed at the same time
+   * @param latenciesUs how long the frames take, in microseconds
+   */
+  public FakeDetector(
+      ResultFactory<T> resultFactory, int resultCount, int threadCount, long[] latenciesUs) {
+    Preconditions.checkArgument(latenciesUs.length > 0, "latenciesUs must not be empty");
+    Preconditions.checkArgument(threadCount > 0, "threadCount must be positive");
+    executor = Executors.newFixedThreadPool(threadCount);
+    this.resultFactory = resultFactory;
+    this.resultCount = resultCount;
+    this.latenciesUs = latenciesUs.clone();
+  }
+
+  @Override
+  public Task<T> process(InputImage image) {
+    long latencyUs = nextLatencyUs();
+    boolean isRotated = image.getRotationDegrees() == 90 || image.getRotationDegrees() == 270;
+    int width = isRotated ? image.getHeight() : image.getWidth();
+    int height = isRotated ? image.getWidth() : image.getHeight();
+    return Tasks.call(
+        executor,
+        () -> {
+          TimeUnit.MICROSECONDS.sleep(latencyUs);
+          return resultFactory.create(resultCount, width, height);
+        });
+  }
+
+  private synchronized long nextLatencyUs() {
+    long latencyUs = latenciesUs[nextLatencyIndex];
+    nextLatencyIndex = (nextLatencyIndex + 1) % latenciesUs.length;
+    return latencyUs;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.GraphicOverlay.Graphic;
+
+/** Draws a box for a result of {@link FakeVisionProcessor}. */
+public class FakeResultGraphic extends Graphic {
+
+  private static final float STROKE_WIDTH = 4.0f;
+
+  private final Rect box;
+  private final Paint boxPaint;
+
+  public FakeResultGraphic(GraphicOverlay overlay, Rect box) {
+    super(overlay);
+    this.box = box;
+    boxPaint = new Paint();
+    boxPaint.setColor(Color.GREEN);
+    boxPaint.setStyle(Paint.Style.STROKE);
+    boxPaint.setStrokeWidth(STROKE_WIDTH);
+  }
+
+  @Override
+  public void draw(Canvas canvas) {
+    float x0 = translateX(box.left);
+    float x1 = translateX(box.right);
+    canvas.drawRect(
+        Math.min(x0, x1), translateY(box.top), Math.max(x0, x1), translateY(box.bottom), boxPaint);
+  }
+}
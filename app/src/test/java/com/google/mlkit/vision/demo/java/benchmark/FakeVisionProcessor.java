@@ -0,0 +1,103 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.content.Context;
+import android.graphics.Rect;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.java.VisionProcessorBase;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Processor drawing boxes, for measuring the pipeline without a model.
+ *
+ * <p>Its own detector finds nothing and returns at once. Set a {@link FakeDetector} created with
+ * {@link #createResults} through {@link #setDetector} to simulate inference time and results.
+ */
+public class FakeVisionProcessor extends VisionProcessorBase<List<Rect>> {
+
+  private static final String TAG = "FakeVisionProcessor";
+
+  public FakeVisionProcessor(Context context) {
+    super(context);
+  }
+
+  /**
+   * Makes up {@code resultCount} boxes spread over an image of the given size. The same arguments
+   * always give the same boxes.
+   */
+  public static List<Rect> createResults(int resultCount, int imageWidth, int imageHeight) {
+    List<Rect> results = new ArrayList<>(resultCount);
+    int columns = (int) Math.ceil(Math.sqrt(resultCount));
+    if (columns == 0) {
+      return results;
+    }
+    int rows = (resultCount + columns - 1) / columns;
+    int cellWidth = imageWidth / columns;
+    int cellHeight = imageHeight / rows;
+    for (int i = 0; i < resultCount; i++) {
+      int left = (i % columns) * cellWidth;
+      int top = (i / columns) * cellHeight;
+      results.add(
+          new Rect(
+              left + cellWidth / 4,
+              top + cellHeight / 4,
+              left + cellWidth * 3 / 4,
+              top + cellHeight * 3 / 4));
+    }
+    return results;
+  }
+
+  @Override
+  protected Task<List<Rect>> detectInImage(InputImage image) {
+    return Tasks.forResult(Collections.emptyList());
+  }
+
+  @Nullable
+  @Override
+  protected Rect getRegionOfInterest(List<Rect> results) {
+    Rect region = null;
+    for (Rect result : results) {
+      if (region == null) {
+        region = new Rect(result);
+      } else {
+        region.union(result);
+      }
+    }
+    return region;
+  }
+
+  @Override
+  protected void onSuccess(@NonNull List<Rect> results, @NonNull GraphicOverlay graphicOverlay) {
+    for (Rect result : results) {
+      graphicOverlay.add(new FakeResultGraphic(graphicOverlay, result));
+    }
+  }
+
+  @Override
+  protected void onFailure(@NonNull Exception e) {
+    Log.e(TAG, "Fake detection failed " + e);
+  }
+}
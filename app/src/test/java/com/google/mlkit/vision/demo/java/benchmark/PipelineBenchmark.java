@@ -0,0 +1,303 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import android.os.SystemClock;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import com.google.common.base.Preconditions;
+import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FrameMetrics;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.LatencyHistogram;
+import com.google.mlkit.vision.demo.ReplayFrameSource;
+import com.google.mlkit.vision.demo.ThroughputMeter;
+import com.google.mlkit.vision.demo.java.VisionProcessorBase;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives NV21 frames through the real {@link VisionProcessorBase} pipeline, from frame submission
+ * through scheduling, detection and graphics, and reports how it performed.
+ *
+ * <p>Combined with a {@link FakeDetector}, the numbers show the cost of the pipeline itself,
+ * independent of any model. Frames are submitted like Camera1 preview frames, either synthetic
+ * ones, as fast as the processor accepts them or at a fixed rate, or recorded ones through a {@link
+ * ReplayFrameSource}. It is run on the JVM with Robolectric by {@link PipelineBenchmarkTest}.
+ *
+ * <p>Allocations are counted by the JVM per thread, see {@link #getAllocatedBytesByThread()}, as
+ * there is no ART runtime to ask under Robolectric.
+ */
+public final class PipelineBenchmark {
+
+  // How long a submission waits for a frame to complete before assuming it was dropped.
+  private static final long FRAME_TIMEOUT_MS = 1000;
+  // How long to wait for the frames in flight once all were submitted.
+  private static final long DRAIN_TIMEOUT_MS = 30_000;
+  private static final long DRAIN_POLL_INTERVAL_MS = 10;
+
+  private PipelineBenchmark() {}
+
+  /**
+   * Creates {@code count} distinct NV21 frames of the given size, with a gradient moving from frame
+   * to frame and neutral chroma.
+   */
+  public static List<ByteBuffer> createSyntheticFrames(int width, int height, int count) {
+    List<ByteBuffer> frames = new ArrayList<>(count);
+    int lumaSize = width * height;
+    for (int i = 0; i < count; i++) {
+      byte[] nv21 = new byte[lumaSize + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+      int shift = i * width / count;
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          nv21[y * width + x] = (byte) (((x + shift) * 255 / width + y * 255 / height) / 2);
+        }
+      }
+      for (int j = lumaSize; j < nv21.length; j++) {
+        nv21[j] = (byte) 128;
+      }
+      frames.add(ByteBuffer.wrap(nv21));
+    }
+    return frames;
+  }
+
+  /**
+   * Submits {@code frameCount} frames to {@code processor}, cycling through {@code frames}, and
+   * waits until all of them are completed or dropped. The processor must be new, since the report
+   * is built from its metrics, and is not stopped.
+   *
+   * <p>Blocks, so must not be called on the main thread, which delivers the results.
+   *
+   * @param frames NV21 frames of the given size; they are never modified
+   * @param targetFps the rate at which frames are submitted, or 0 to submit a frame whenever the
+   *     processor has room for one
+   */
+  @WorkerThread
+  public static Report run(
+      VisionProcessorBase<?> processor,
+      GraphicOverlay graphicOverlay,
+      List<ByteBuffer> frames,
+      int width,
+      int height,
+      int frameCount,
+      float targetFps)
+      throws InterruptedException {
+    Preconditions.checkArgument(!frames.isEmpty(), "frames must not be empty");
+    Preconditions.checkArgument(targetFps >= 0, "targetFps must not be negative");
+    Semaphore framesInFlight = new Semaphore(processor.getFrameScheduler().getMaxFramesInFlight());
+    processor.setOnProcessingCompleteListener(bitmap -> framesInFlight.release());
+    long frameIntervalNs = targetFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / targetFps) : 0;
+
+    Map<Long, Long> startBytes = getAllocatedBytesByThread();
+    long startNs = SystemClock.elapsedRealtimeNanos();
+    for (int i = 0; i < frameCount; i++) {
+      if (frameIntervalNs > 0) {
+        long delayNs = startNs + i * frameIntervalNs - SystemClock.elapsedRealtimeNanos();
+        if (delayNs > 0) {
+          TimeUnit.NANOSECONDS.sleep(delayNs);
+        }
+      } else {
+        // A frame which was dropped never completes, so do not wait for it forever.
+        framesInFlight.tryAcquire(FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      }
+      FrameMetadata frameMetadata =
+          new FrameMetadata.Builder()
+              .setWidth(width)
+              .setHeight(height)
+              .setRotation(0)
+              .setSequenceNumber(i)
+              .setCaptureTimeNs(SystemClock.elapsedRealtimeNanos())
+              .build();
+      // Read only, as the same frames are submitted again while earlier ones may be in flight.
+      processor.processByteBuffer(
+          frames.get(i % frames.size()).asReadOnlyBuffer(), frameMetadata, graphicOverlay);
+    }
+
+    processor.setOnProcessingCompleteListener(null);
+    return finish(processor, startNs, startBytes, frameCount);
+  }
+
+  /**
+   * Replays the frames of {@code source} to {@code processor} and waits until all of them are
+   * completed or dropped. The processor must be new, since the report is built from its metrics,
+   * and is not stopped.
+   *
+   * <p>Blocks, so must not be called on the main thread, which delivers the results.
+   */
+  @WorkerThread
+  public static Report run(
+      VisionProcessorBase<?> processor, GraphicOverlay graphicOverlay, ReplayFrameSource source)
+      throws InterruptedException {
+    Map<Long, Long> startBytes = getAllocatedBytesByThread();
+    long startNs = SystemClock.elapsedRealtimeNanos();
+    source.replay(processor, graphicOverlay);
+    long frameCount = processor.getFrameMetricsSnapshot().getProducedCount();
+    return finish(processor, startNs, startBytes, frameCount);
+  }
+
+  /** Waits for the frames still in flight and reports on the run started at {@code startNs}. */
+  private static Report finish(
+      VisionProcessorBase<?> processor,
+      long startNs,
+      @Nullable Map<Long, Long> startBytes,
+      long frameCount)
+      throws InterruptedException {
+    long drainDeadlineMs = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_MS;
+    while (processor.getPendingFrameCount() > 0
+        && SystemClock.elapsedRealtime() < drainDeadlineMs) {
+      Thread.sleep(DRAIN_POLL_INTERVAL_MS);
+    }
+    FrameMetrics.Snapshot frameMetrics = processor.getFrameMetricsSnapshot();
+    long elapsedNs = SystemClock.elapsedRealtimeNanos() - startNs;
+    Map<Long, Long> endBytes = getAllocatedBytesByThread();
+
+    long bytesPerFrame = -1;
+    if (startBytes != null && endBytes != null) {
+      long allocatedBytes = 0;
+      for (Map.Entry<Long, Long> entry : endBytes.entrySet()) {
+        // Threads started during the run, e.g. those of the detector, had allocated nothing.
+        Long threadStartBytes = startBytes.get(entry.getKey());
+        allocatedBytes += entry.getValue() - (threadStartBytes != null ? threadStartBytes : 0);
+      }
+      bytesPerFrame = allocatedBytes / Math.max(frameCount, 1);
+    }
+    return new Report(
+        frameMetrics,
+        elapsedNs,
+        processor.getThroughputRates(),
+        processor.getFrameLatencySnapshot(),
+        processor.getDetectorLatencySnapshot(),
+        processor.getCaptureToOverlayLatencySnapshot(),
+        bytesPerFrame);
+  }
+
+  /**
+   * Returns the bytes allocated so far by every live thread of the process, by thread id, or null
+   * if the JVM does not count allocations per thread.
+   *
+   * <p>All threads are counted, since the pipeline runs on the submitting thread, the main thread,
+   * the shared executors of {@link VisionProcessorBase} and the threads of the detector. Threads
+   * which end during a run take their allocations with them, which the pipeline threads do not.
+   */
+  @Nullable
+  private static Map<Long, Long> getAllocatedBytesByThread() {
+    if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean threadMxBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    if (!threadMxBean.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    threadMxBean.setThreadAllocatedMemoryEnabled(true);
+    long[] threadIds = threadMxBean.getAllThreadIds();
+    long[] allocatedBytes = threadMxBean.getThreadAllocatedBytes(threadIds);
+    Map<Long, Long> bytesByThread = new HashMap<>();
+    for (int i = 0; i < threadIds.length; i++) {
+      // -1 for threads which ended in the meantime.
+      if (allocatedBytes[i] >= 0) {
+        bytesByThread.put(threadIds[i], allocatedBytes[i]);
+      }
+    }
+    return bytesByThread;
+  }
+
+  /** Result of a {@link #run}. */
+  public static final class Report {
+    private final FrameMetrics.Snapshot frameMetrics;
+    private final long elapsedNs;
+    private final ThroughputMeter.Rates throughputRates;
+    private final LatencyHistogram.Snapshot frameLatency;
+    private final LatencyHistogram.Snapshot detectorLatency;
+    private final LatencyHistogram.Snapshot captureToOverlayLatency;
+    private final long allocatedBytesPerFrame;
+
+    private Report(
+        FrameMetrics.Snapshot frameMetrics,
+        long elapsedNs,
+        ThroughputMeter.Rates throughputRates,
+        LatencyHistogram.Snapshot frameLatency,
+        LatencyHistogram.Snapshot detectorLatency,
+        LatencyHistogram.Snapshot captureToOverlayLatency,
+        long allocatedBytesPerFrame) {
+      this.frameMetrics = frameMetrics;
+      this.elapsedNs = elapsedNs;
+      this.throughputRates = throughputRates;
+      this.frameLatency = frameLatency;
+      this.detectorLatency = detectorLatency;
+      this.captureToOverlayLatency = captureToOverlayLatency;
+      this.allocatedBytesPerFrame = allocatedBytesPerFrame;
+    }
+
+    public FrameMetrics.Snapshot getFrameMetrics() {
+      return frameMetrics;
+    }
+
+    /** Returns the completed frames per second over the whole run. */
+    public double getThroughputFps() {
+      return elapsedNs > 0
+          ? frameMetrics.getCompletedCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNs
+          : 0;
+    }
+
+    public ThroughputMeter.Rates getThroughputRates() {
+      return throughputRates;
+    }
+
+    public LatencyHistogram.Snapshot getFrameLatency() {
+      return frameLatency;
+    }
+
+    public LatencyHistogram.Snapshot getDetectorLatency() {
+      return detectorLatency;
+    }
+
+    public LatencyHistogram.Snapshot getCaptureToOverlayLatency() {
+      return captureToOverlayLatency;
+    }
+
+    /**
+     * Returns the bytes allocated by the threads of the process per submitted frame, or -1 if the
+     * JVM does not count allocations per thread.
+     */
+    public long getAllocatedBytesPerFrame() {
+      return allocatedBytesPerFrame;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%s\nthroughput: %.1f fps (%s)\nframe latency: %s\ndetector latency: %s\n"
+              + "capture to overlay: %s\nallocated per frame: %d bytes",
+          frameMetrics,
+          getThroughputFps(),
+          throughputRates,
+          frameLatency,
+          detectorLatency,
+          captureToOverlayLatency,
+          allocatedBytesPerFrame);
+    }
+  }
+}
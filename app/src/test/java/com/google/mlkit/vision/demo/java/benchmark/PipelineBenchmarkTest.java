@@ -0,0 +1,311 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.mlkit.vision.demo.java.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.os.Looper;
+import androidx.test.core.app.ApplicationProvider;
+import com.google.mlkit.vision.demo.FrameMetadata;
+import com.google.mlkit.vision.demo.FrameMetrics;
+import com.google.mlkit.vision.demo.FrameMetrics.DropReason;
+import com.google.mlkit.vision.demo.FrameRecorder;
+import com.google.mlkit.vision.demo.FrameRecording;
+import com.google.mlkit.vision.demo.FrameScheduler;
+import com.google.mlkit.vision.demo.GraphicOverlay;
+import com.google.mlkit.vision.demo.ReplayFrameSource;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+import org.robolectric.shadows.ShadowLooper;
+
+/**
+ * Runs {@link PipelineBenchmark} with a {@link FakeVisionProcessor} for a few detector latencies
+ * and result counts, compares a single frame in flight with several, and replays a frame
+ * recording, printing the reports.
+ *
+ * <p>The benchmark runs on a thread of its own, while the test thread, which is the main thread,
+ * delivers the results. Robolectric only moves its clock when told to, so the test thread keeps it
+ * in step with the real clock, which bounds the resolution of the reported latencies to about
+ * {@link #MAIN_LOOPER_IDLE_INTERVAL_MS}.
+ *
+ * <p>The figures come from a fake detector on the build machine, so they do not stand for the
+ * behaviour of any device. Only relations between runs of the same test are asserted, e.g. that a
+ * second frame in flight does not lower the throughput.
+ *
+ * <p>The replay uses a small synthetic recording, or a recording pulled from a device, see {@link
+ * FrameRecorder}, if its path is given with {@code -PpipelineBenchmarkRecording=<path>}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@LooperMode(LooperMode.Mode.PAUSED)
+// Later SDK levels need Java 9 to run on Robolectric.
+@Config(sdk = 28)
+public final class PipelineBenchmarkTest {
+
+  private static final String RECORDING_PROPERTY = "pipelineBenchmark.recording";
+
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  private static final int DISTINCT_FRAME_COUNT = 8;
+  private static final int FRAME_COUNT = 300;
+  private static final int RECORDED_FRAME_COUNT = 30;
+  private static final long REPLAY_DETECTOR_LATENCY_US = 20_000;
+  private static final int REPLAY_RESULT_COUNT = 10;
+  private static final long MAIN_LOOPER_IDLE_INTERVAL_MS = 1;
+  // Frames in flight compared with a single one, and the detector threads to run them on.
+  private static final int PIPELINED_FRAMES_IN_FLIGHT = 2;
+  // Bound on the p95 frame latency with PIPELINED_FRAMES_IN_FLIGHT, as a multiple of the one with
+  // a single frame in flight. The detector has a thread per frame, so frames should not wait for
+  // each other, and the slack only absorbs the scheduling noise of the build machine.
+  private static final double PIPELINED_P95_LATENCY_FACTOR = 2;
+  private static final long PIPELINED_DETECTOR_LATENCY_US = 20_000;
+  private static final int PIPELINED_RESULT_COUNT = 10;
+
+  /** A detector configuration to benchmark. */
+  private static final class Scenario {
+    private final String name;
+    private final int resultCount;
+    private final long[] latenciesUs;
+    private final float targetFps;
+
+    private Scenario(String name, int resultCount, float targetFps, long... latenciesUs) {
+      this.name = name;
+      this.resultCount = resultCount;
+      this.latenciesUs = latenciesUs;
+      this.targetFps = targetFps;
+    }
+  }
+
+  private static final Scenario[] SCENARIOS = {
+    new Scenario("Instant detector, 1 result", 1, /* targetFps= */ 0, 0),
+    new Scenario("Instant detector, 100 results", 100, /* targetFps= */ 0, 0),
+    new Scenario("20 ms detector, 10 results", 10, /* targetFps= */ 0, 20_000),
+    new Scenario("Jittery detector at 30 fps", 10, /* targetFps= */ 30, 10_000, 40_000, 25_000),
+  };
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Context context;
+  private GraphicOverlay graphicOverlay;
+
+  @Before
+  public void setUp() {
+    context = ApplicationProvider.getApplicationContext();
+    graphicOverlay = new GraphicOverlay(context, /* attrs= */ null);
+  }
+
+  @Test
+  public void runScenarios() throws Exception {
+    graphicOverlay.setImageSourceInfo(FRAME_WIDTH, FRAME_HEIGHT, /* isFlipped= */ false);
+    List<ByteBuffer> frames =
+        PipelineBenchmark.createSyntheticFrames(FRAME_WIDTH, FRAME_HEIGHT, DISTINCT_FRAME_COUNT);
+    for (Scenario scenario : SCENARIOS) {
+      FakeVisionProcessor processor = new FakeVisionProcessor(context);
+      FakeDetector<List<Rect>> detector =
+          new FakeDetector<>(
+              FakeVisionProcessor::createResults, scenario.resultCount, scenario.latenciesUs);
+      processor.setDetector(detector);
+      PipelineBenchmark.Report report;
+      try {
+        report =
+            runWhileIdlingMainLooper(
+                () ->
+                    PipelineBenchmark.run(
+                        processor,
+                        graphicOverlay,
+                        frames,
+                        FRAME_WIDTH,
+                        FRAME_HEIGHT,
+                        FRAME_COUNT,
+                        scenario.targetFps));
+      } finally {
+        processor.stop();
+        detector.close();
+      }
+      printReport(scenario.name, report);
+      assertEquals(FRAME_COUNT, report.getFrameMetrics().getProducedCount());
+      assertTrue(report.getFrameMetrics().getCompletedCount() > 0);
+      assertTrue(report.getAllocatedBytesPerFrame() >= 0);
+    }
+  }
+
+  @Test
+  public void compareFramesInFlight() throws Exception {
+    graphicOverlay.setImageSourceInfo(FRAME_WIDTH, FRAME_HEIGHT, /* isFlipped= */ false);
+    List<ByteBuffer> frames =
+        PipelineBenchmark.createSyntheticFrames(FRAME_WIDTH, FRAME_HEIGHT, DISTINCT_FRAME_COUNT);
+    int[] depths = {1, PIPELINED_FRAMES_IN_FLIGHT};
+    PipelineBenchmark.Report[] reports = new PipelineBenchmark.Report[depths.length];
+    for (int i = 0; i < depths.length; i++) {
+      int depth = depths[i];
+      FakeVisionProcessor processor = new FakeVisionProcessor(context);
+      processor.setFrameScheduler(FrameScheduler.keepLatest().withMaxFramesInFlight(depth));
+      FakeDetector<List<Rect>> detector =
+          new FakeDetector<>(
+              FakeVisionProcessor::createResults,
+              PIPELINED_RESULT_COUNT,
+              PIPELINED_FRAMES_IN_FLIGHT,
+              new long[] {PIPELINED_DETECTOR_LATENCY_US});
+      processor.setDetector(detector);
+      PipelineBenchmark.Report report;
+      try {
+        report =
+            runWhileIdlingMainLooper(
+                () ->
+                    PipelineBenchmark.run(
+                        processor,
+                        graphicOverlay,
+                        frames,
+                        FRAME_WIDTH,
+                        FRAME_HEIGHT,
+                        FRAME_COUNT,
+                        /* targetFps= */ 0));
+      } finally {
+        processor.stop();
+        detector.close();
+      }
+      printReport(
+          "20 ms detector on "
+              + PIPELINED_FRAMES_IN_FLIGHT
+              + " threads, "
+              + depth
+              + " frame(s) in flight",
+          report);
+      assertEquals(FRAME_COUNT, report.getFrameMetrics().getProducedCount());
+      assertTrue(report.getFrameMetrics().getCompletedCount() > 0);
+      assertTrue(report.getAllocatedBytesPerFrame() >= 0);
+      reports[i] = report;
+    }
+    PipelineBenchmark.Report single = reports[0];
+    PipelineBenchmark.Report pipelined = reports[1];
+    assertTrue(
+        "Throughput dropped from " + single.getThroughputFps() + " to "
+            + pipelined.getThroughputFps() + " fps",
+        pipelined.getThroughputFps() >= single.getThroughputFps());
+    long singleP95Us = single.getFrameLatency().getValueAtPercentile(95);
+    long pipelinedP95Us = pipelined.getFrameLatency().getValueAtPercentile(95);
+    assertTrue(
+        "p95 frame latency rose from " + singleP95Us + " to " + pipelinedP95Us + " us",
+        pipelinedP95Us <= singleP95Us * PIPELINED_P95_LATENCY_FACTOR);
+  }
+
+  @Test
+  public void replayRecording() throws Exception {
+    String recordingPath = System.getProperty(RECORDING_PROPERTY);
+    File file = recordingPath != null ? new File(recordingPath) : createSyntheticRecording();
+    FrameRecording recording = FrameRecording.open(file);
+    FrameMetadata firstFrame = recording.getFrame(0).getFrameMetadata();
+    boolean isRotated = firstFrame.getRotation() == 90 || firstFrame.getRotation() == 270;
+    graphicOverlay.setImageSourceInfo(
+        isRotated ? firstFrame.getHeight() : firstFrame.getWidth(),
+        isRotated ? firstFrame.getWidth() : firstFrame.getHeight(),
+        /* isFlipped= */ false);
+
+    FakeVisionProcessor processor = new FakeVisionProcessor(context);
+    FakeDetector<List<Rect>> detector =
+        new FakeDetector<>(
+            FakeVisionProcessor::createResults, REPLAY_RESULT_COUNT, REPLAY_DETECTOR_LATENCY_US);
+    processor.setDetector(detector);
+    PipelineBenchmark.Report report;
+    try {
+      report =
+          runWhileIdlingMainLooper(
+              () ->
+                  PipelineBenchmark.run(
+                      processor,
+                      graphicOverlay,
+                      new ReplayFrameSource(recording, ReplayFrameSource.Speed.MAXIMUM)));
+    } finally {
+      processor.stop();
+      detector.close();
+    }
+    printReport("Replay of " + file.getName() + ", 20 ms detector", report);
+    // Replayed at maximum speed, every frame waits for the previous one, so only the frames the
+    // camera skipped while recording are missing.
+    FrameMetrics.Snapshot frameMetrics = report.getFrameMetrics();
+    assertEquals(
+        frameMetrics.getProducedCount() - frameMetrics.getDroppedCount(DropReason.SOURCE_BUSY),
+        frameMetrics.getCompletedCount());
+    assertTrue(report.getAllocatedBytesPerFrame() >= 0);
+  }
+
+  /** Records {@link #RECORDED_FRAME_COUNT} synthetic frames captured at 30 fps. */
+  private File createSyntheticRecording() throws Exception {
+    File file = temporaryFolder.newFile("synthetic.frames");
+    List<ByteBuffer> frames =
+        PipelineBenchmark.createSyntheticFrames(FRAME_WIDTH, FRAME_HEIGHT, DISTINCT_FRAME_COUNT);
+    try (FrameRecorder recorder = new FrameRecorder(file)) {
+      for (int i = 0; i < RECORDED_FRAME_COUNT; i++) {
+        FrameMetadata frameMetadata =
+            new FrameMetadata.Builder()
+                .setWidth(FRAME_WIDTH)
+                .setHeight(FRAME_HEIGHT)
+                .setRotation(0)
+                .setSequenceNumber(i)
+                .setCaptureTimeNs(i * TimeUnit.SECONDS.toNanos(1) / 30)
+                .setSource(FrameMetadata.Source.CAMERA1)
+                .build();
+        recorder.record(frames.get(i % frames.size()), ImageFormat.NV21, frameMetadata);
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Runs {@code benchmark} on a thread of its own and runs the tasks posted to the main looper
+   * until it returns.
+   */
+  private static <V> V runWhileIdlingMainLooper(Callable<V> benchmark) throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<V> result = executor.submit(benchmark);
+      ShadowLooper mainLooper = shadowOf(Looper.getMainLooper());
+      long lastNs = System.nanoTime();
+      while (!result.isDone()) {
+        Thread.sleep(MAIN_LOOPER_IDLE_INTERVAL_MS);
+        long nowNs = System.nanoTime();
+        mainLooper.idleFor(nowNs - lastNs, TimeUnit.NANOSECONDS);
+        lastNs = nowNs;
+      }
+      return result.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void printReport(String name, PipelineBenchmark.Report report) {
+    System.out.println(name + "\n" + report + "\n");
+  }
+}